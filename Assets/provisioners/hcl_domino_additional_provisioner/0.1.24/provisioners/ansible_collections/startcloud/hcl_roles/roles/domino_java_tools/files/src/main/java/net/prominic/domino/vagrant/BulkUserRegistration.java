@@ -0,0 +1,496 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lotus.domino.Database;
+import lotus.domino.DateTime;
+import lotus.domino.IDVault;
+import lotus.domino.Registration;
+import lotus.domino.Session;
+import lotus.domino.View;
+
+import org.json.JSONObject;
+
+/**
+ * Bulk mode for {@link CreateUser}.
+ * Usage:  <code>java -jar CreateUser.jar --bulk &lt;users.csv|users.jsonl&gt; [settings.properties]</code>
+ * <p>
+ * Each record uses the same keys as the single-user properties file (firstName, lastName, shortName, password, idFile, ...).
+ * CSV files need a header row with these keys.  JSON-lines files have one JSON object per line.
+ * A relative idFile is resolved against the directory of the input file, not the working directory.
+ * The optional settings file provides the defaults for all records, and the registration options
+ * (expirationDays, orgUnitName, registrationLog, ...) that are applied once to the shared Registration.
+ * </p>
+ * <p>
+ * All records are validated before the first user is registered.  The progress file (default
+ * <code>&lt;input&gt;.progress</code>) gets a <code>registered &lt;shortName&gt;</code> line as soon as a user is registered,
+ * and a line with only the short name once the ID is also in the ID Vault.  A failed run can be restarted:  completed users
+ * are skipped, and users that were registered without reaching the ID Vault only have their ID uploaded again.
+ * The ($Users) and ($ServerAccess) views are refreshed once at the end.
+ * </p>
+ */
+public class BulkUserRegistration {
+
+	public static final String BULK_OPTION = "--bulk";
+	public static final String USAGE = "java -jar CreateUser.jar " + BULK_OPTION + " <users.csv|users.jsonl> [settings.properties]";
+
+	/** Settings key to override the progress file */
+	public static final String PROGRESS_FILE_PROPERTY = "progressFile";
+	/** Settings key for the number of records that are read ahead of the registration */
+	public static final String QUEUE_SIZE_PROPERTY = "queueSize";
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+
+	/** Prefix of the progress lines for users that are registered, but not yet in the ID Vault */
+	protected static final String REGISTERED_PREFIX = "registered ";
+
+	/** Marks the end of the queue */
+	private static final Properties END_OF_INPUT = new Properties();
+
+	/**
+	 * Register all users from the given input file.
+	 * @param session  the Domino session
+	 * @param serverSetup  the <code>serverSetup</code> object from setup.json
+	 * @param inputFile  the CSV or JSON-lines file
+	 * @param settings  the defaults and registration options
+	 * @throws Exception if the validation or a registration failed.  Users registered before the failure are kept in the progress file.
+	 */
+	public static void registerUsers(Session session, JSONObject serverSetup, File inputFile, Properties settings) throws Exception {
+		if (!inputFile.isFile()) {
+			throw new Exception("Could not find input file '" + inputFile.getAbsolutePath() + "'.");
+		}
+		JSONObject serverConfig = serverSetup.getJSONObject("server");
+		String domainName = serverConfig.getString("domainName");
+		String server = serverConfig.getString("name");
+		String certIDPassword = serverSetup.getJSONObject("org").getString("certifierPassword");
+		boolean deployToIDVault = CreateUser.readBooleanProperty(settings, "deployToIDVault", true);
+		int queueSize = CreateUser.readIntProperty(settings, QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+		File progressFile = new File(settings.getProperty(PROGRESS_FILE_PROPERTY, inputFile.getAbsolutePath() + ".progress"));
+		Set<String> completed = new HashSet<String>();
+		Set<String> pendingVault = new HashSet<String>();
+		readProgress(progressFile, completed, pendingVault);
+		if (!completed.isEmpty() || !pendingVault.isEmpty()) {
+			CreateUser.log("Resuming from '" + progressFile.getAbsolutePath() + "':  " + completed.size() + " user(s) completed, " +
+					pendingVault.size() + " user(s) registered without the ID Vault upload.");
+		}
+
+		Database namesDatabase = null;
+		View userView = null;
+		IDVault idVault = null;
+		Registration reg = null;
+		DateTime dt = null;
+		int registered = 0;
+		int newUsers = 0;
+		try {
+			namesDatabase = session.getDatabase(server, "names.nsf", false);
+			if (null == namesDatabase || !namesDatabase.isOpen()) {
+				throw new Exception("Could not open names database:  " + server + "!names.nsf");
+			}
+			userView = namesDatabase.getView("($Users)");
+			if (null == userView) {
+				throw new Exception("Could not open user view");
+			}
+			if (deployToIDVault) {
+				idVault = session.getIDVault();
+				if (idVault == null) {
+					throw new Exception("Unable to access ID Vault.");
+				}
+			}
+
+			// One scan of ($Users) instead of a lookup per name
+			NameIndex nameIndex = NameIndex.build(userView, CreateUser.debugMode);
+			int pending = validate(inputFile, settings, completed, pendingVault, domainName, server, nameIndex, idVault);
+			if (pending == 0) {
+				CreateUser.log("No users left to register.");
+				return;
+			}
+			CreateUser.log("Validated " + pending + " user(s).  Starting registration.");
+
+			reg = session.createRegistration();
+			dt = CreateUser.configureRegistration(session, reg, settings, server);
+			String currentOrgUnit = settings.getProperty("orgUnitName", "");
+
+			// Read ahead on a separate thread so that parsing does not wait on the key generation.
+			// The Notes objects are only used on this thread.
+			BlockingQueue<Properties> queue = new ArrayBlockingQueue<Properties>(queueSize);
+			RecordProducer producer = new RecordProducer(inputFile, settings, completed, queue);
+			Thread producerThread = new Thread(producer, "BulkUserRegistration-reader");
+			producerThread.setDaemon(true);
+			producerThread.start();
+
+			BufferedWriter progress = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(progressFile, true), "UTF-8"));
+			try {
+				Properties record = queue.take();
+				while (record != END_OF_INPUT) {
+					String shortName = record.getProperty("shortName");
+					String orgUnitName = record.getProperty("orgUnitName", "");
+					if (!orgUnitName.equals(currentOrgUnit)) {
+						reg.setOrgUnit(orgUnitName);
+						currentOrgUnit = orgUnitName;
+					}
+					List<String> names = CreateUser.getNamesToCheck(record, domainName);
+					if (pendingVault.contains(shortName.toLowerCase())) {
+						CreateUser.log("User " + (registered + 1) + " of " + pending + ":  '" + shortName + "' is already registered.  Retrying the ID Vault upload.");
+					}
+					else {
+						CreateUser.log("Registering user " + (registered + 1) + " of " + pending + ":  '" + shortName + "'.");
+						CreateUser.registerUser(reg, record, server, certIDPassword);
+						// record the registration before the vault step, so that a restart does not register the user again
+						writeProgress(progress, REGISTERED_PREFIX + shortName);
+						newUsers++;
+					}
+					if (deployToIDVault) {
+						CreateUser.uploadToIDVault(idVault, record.getProperty("idFile"), names.get(names.size() - 1),
+								record.getProperty("password"), server);
+					}
+					writeProgress(progress, shortName);
+					registered++;
+					record = queue.take();
+				}
+			}
+			finally {
+				progress.close();
+				producer.stop();
+				producerThread.interrupt();
+			}
+			if (null != producer.getError()) {
+				throw new Exception("Could not read input file '" + inputFile.getAbsolutePath() + "'.", producer.getError());
+			}
+		}
+		finally {
+			// Refresh once for all new users, even if the run failed part way through
+			if (newUsers > 0 && null != userView) {
+				CreateUser.refreshUserViews(namesDatabase, userView);
+			}
+			CreateUser.log("Completed " + registered + " user(s), " + newUsers + " of them newly registered.");
+			if (null != dt) {  dt.recycle(); }
+			if (null != reg) {  reg.recycle(); }
+			if (null != idVault) {  idVault.recycle(); }
+			if (null != userView) {  userView.recycle(); }
+			if (null != namesDatabase) {  namesDatabase.recycle(); }
+		}
+	}
+
+	/**
+	 * Check all pending records before anything is registered:  required fields, duplicate names in the input,
+	 * existing ID files, and existing users in the directory and ID Vault.
+	 * Users in <code>pendingVault</code> were registered by a previous run, so only their ID file is checked.
+	 * @return the number of users to register or upload
+	 * @throws Exception listing all problems that were found
+	 */
+	protected static int validate(File inputFile, Properties settings, Set<String> completed, Set<String> pendingVault,
+			String domainName, String server, NameIndex nameIndex, IDVault idVault) throws Exception {
+		List<String> errors = new ArrayList<String>();
+		Set<String> seenShortNames = new HashSet<String>();
+		Set<String> seenNames = new HashSet<String>();
+		Set<String> seenIDFiles = new HashSet<String>();
+		int pending = 0;
+		RecordReader reader = new RecordReader(inputFile, settings);
+		try {
+			Properties record = reader.next();
+			while (null != record) {
+				String location = "Record " + reader.getRecordNumber();
+				try {
+					String shortName = CreateUser.readRequiredProperty(record, "shortName");
+					location += " ('" + shortName + "')";
+					if (!completed.contains(shortName.toLowerCase())) {
+						CreateUser.readRequiredProperty(record, "password");
+						String idFile = CreateUser.readRequiredProperty(record, "idFile");
+						List<String> names = CreateUser.getNamesToCheck(record, domainName);
+						String mailFilePath = record.getProperty("mailFilePath", "");
+						if (!mailFilePath.trim().isEmpty()) {
+							throw new Exception("Mail files are not supported currently.");
+						}
+
+						if (!seenShortNames.add(shortName.toLowerCase())) {
+							throw new Exception("Duplicate shortName in input file.");
+						}
+						for (String name : names) {
+							if (!seenNames.add(name.toLowerCase())) {
+								throw new Exception("Duplicate name '" + name + "' in input file.");
+							}
+						}
+						if (!seenIDFiles.add(new File(idFile).getAbsolutePath())) {
+							throw new Exception("Duplicate idFile '" + idFile + "' in input file.");
+						}
+						if (pendingVault.contains(shortName.toLowerCase())) {
+							// registered by a previous run, only the vault upload is left
+							if (null != idVault && !new File(idFile).isFile()) {
+								throw new Exception("Registered user has no ID file to upload: '" + idFile + "'.");
+							}
+						}
+						else {
+							if (new File(idFile).exists()) {
+								throw new Exception("Target ID file already exists: '" + idFile + "'.");
+							}
+
+							CreateUser.assertUnique("shortName", nameIndex, shortName);
+							for (String name : names) {
+								CreateUser.assertUnique("Full Name", nameIndex, name);
+							}
+							String fullName = names.get(names.size() - 1);
+							if (null != idVault && idVault.isIDInVault(fullName, server)) {
+								throw new Exception("User '" + fullName + " already exists in the ID Vault.");
+							}
+						}
+						// ($Users) lists short names and full names in one column, so a later record
+						// must not reuse any of them
+						nameIndex.add(shortName);
+						for (String name : names) {
+							nameIndex.add(name);
+						}
+						pending++;
+					}
+				}
+				catch (Exception ex) {
+					errors.add(location + ":  " + ex.getMessage());
+				}
+				record = reader.next();
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		if (!errors.isEmpty()) {
+			for (String error : errors) {
+				CreateUser.log(error);
+			}
+			throw new Exception("Validation failed for " + errors.size() + " record(s).  No users were registered.");
+		}
+		return pending;
+	}
+
+	/**
+	 * Read the progress of a previous run.
+	 * @param completed  receives the lower-case short names of the completed users
+	 * @param pendingVault  receives the lower-case short names of the users that were registered, but are not in the ID Vault yet
+	 */
+	protected static void readProgress(File progressFile, Set<String> completed, Set<String> pendingVault) throws IOException {
+		if (!progressFile.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(progressFile), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			while (null != line) {
+				line = line.trim().toLowerCase();
+				if (line.startsWith(REGISTERED_PREFIX)) {
+					pendingVault.add(line.substring(REGISTERED_PREFIX.length()).trim());
+				}
+				else if (!line.isEmpty()) {
+					completed.add(line);
+				}
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		pendingVault.removeAll(completed);
+	}
+
+	private static void writeProgress(BufferedWriter progress, String line) throws IOException {
+		progress.write(line);
+		progress.newLine();
+		progress.flush();
+	}
+
+	/**
+	 * Reads the pending records into the registration queue.
+	 */
+	protected static class RecordProducer implements Runnable {
+		private final File inputFile;
+		private final Properties settings;
+		private final Set<String> completed;
+		private final BlockingQueue<Properties> queue;
+		private volatile boolean stopped = false;
+		private volatile Exception error = null;
+
+		public RecordProducer(File inputFile, Properties settings, Set<String> completed, BlockingQueue<Properties> queue) {
+			this.inputFile = inputFile;
+			this.settings = settings;
+			this.completed = completed;
+			this.queue = queue;
+		}
+
+		public void run() {
+			RecordReader reader = null;
+			try {
+				reader = new RecordReader(inputFile, settings);
+				Properties record = reader.next();
+				while (null != record && !stopped) {
+					if (!completed.contains(record.getProperty("shortName", "").trim().toLowerCase())) {
+						queue.put(record);
+					}
+					record = reader.next();
+				}
+			}
+			catch (InterruptedException ex) {
+				return;
+			}
+			catch (Exception ex) {
+				error = ex;
+			}
+			finally {
+				if (null != reader) {
+					reader.close();
+				}
+			}
+			try {
+				queue.put(END_OF_INPUT);
+			}
+			catch (InterruptedException ex) {
+				// the consumer has stopped
+			}
+		}
+
+		/** Called when the consumer is done, so that the producer does not keep reading */
+		public void stop() {
+			stopped = true;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Reads user records from a CSV file with a header row, or a JSON-lines file (<code>.jsonl</code> or <code>.json</code>).
+	 * Each record uses the settings as defaults.
+	 */
+	protected static class RecordReader implements Closeable {
+		private final File inputFile;
+		private final BufferedReader reader;
+		private final Properties settings;
+		private final boolean json;
+		private List<String> header = null;
+		private int recordNumber = 0;
+
+		public RecordReader(File inputFile, Properties settings) throws IOException {
+			this.inputFile = inputFile;
+			this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+			this.settings = settings;
+			String lowerName = inputFile.getName().toLowerCase();
+			this.json = lowerName.endsWith(".jsonl") || lowerName.endsWith(".json");
+		}
+
+		/**
+		 * @return the next record, or <code>null</code> at the end of the file
+		 */
+		public Properties next() throws Exception {
+			String line = readDataLine();
+			if (null == line) {
+				return null;
+			}
+			recordNumber++;
+			Properties record = new Properties(settings);
+			if (json) {
+				JSONObject object = new JSONObject(line);
+				Iterator<?> keys = object.keys();
+				while (keys.hasNext()) {
+					String key = keys.next().toString();
+					record.setProperty(key, String.valueOf(object.get(key)));
+				}
+			}
+			else {
+				if (null == header) {
+					header = parseCSVLine(line);
+					line = readDataLine();
+					if (null == line) {
+						return null;
+					}
+				}
+				List<String> values = parseCSVLine(line);
+				if (values.size() > header.size()) {
+					throw new Exception("Record " + recordNumber + " has more values than the header.");
+				}
+				for (int i = 0; i < values.size(); i++) {
+					if (!values.get(i).isEmpty()) {
+						record.setProperty(header.get(i).trim(), values.get(i));
+					}
+				}
+			}
+			// the tools may run in another directory, e.g. in the HelperDaemon
+			String idFile = record.getProperty("idFile");
+			if (null != idFile) {
+				record.setProperty("idFile", PushUserIDtoIDVault.resolvePath(inputFile, idFile));
+			}
+			return record;
+		}
+
+		/** The 1-based number of the last record returned by {@link #next()} */
+		public int getRecordNumber() {
+			return recordNumber;
+		}
+
+		private String readDataLine() throws IOException {
+			String line = reader.readLine();
+			while (null != line && (line.trim().isEmpty() || line.startsWith("#"))) {
+				line = reader.readLine();
+			}
+			return line;
+		}
+
+		public void close() {
+			try {
+				reader.close();
+			}
+			catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Split a CSV line.  Values may be quoted with double quotes, and <code>""</code> is an escaped quote.
+	 * Quoted values can not span multiple lines.
+	 */
+	protected static List<String> parseCSVLine(String line) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					current.append('"');
+					i++;
+				}
+				else if (c == '"') {
+					quoted = false;
+				}
+				else {
+					current.append(c);
+				}
+			}
+			else if (c == '"') {
+				quoted = true;
+			}
+			else if (c == ',') {
+				values.add(current.toString());
+				current.setLength(0);
+			}
+			else {
+				current.append(c);
+			}
+		}
+		values.add(current.toString());
+		return values;
+	}
+}
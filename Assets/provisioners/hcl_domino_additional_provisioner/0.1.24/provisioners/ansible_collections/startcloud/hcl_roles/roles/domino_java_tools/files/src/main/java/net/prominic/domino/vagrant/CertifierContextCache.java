@@ -0,0 +1,280 @@
+package net.prominic.domino.vagrant;
+
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.internal.NotesNativeAPI32;
+import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.internal.structs.KFM_PASSWORDStruct;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.*;
+import com.sun.jna.ptr.*;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import lotus.domino.NotesException;
+
+/**
+ * Reference-counted cache of unlocked certifier contexts (SECKFMGetCertifierCtx).
+ * Unlocking the certifier ID is expensive, so batched or daemonized registrations
+ * should unlock it once and reuse the context.
+ * <p>
+ * Entries are keyed by the canonical certifier path, the file modification time, the password and the thread.
+ * Each thread gets its own context, since nothing documents that one context may be used by concurrent
+ * registrations.  If the certifier file changes, the old contexts are evicted.
+ * A context is freed with SECKFMFreeCertifierCtx once it has been evicted and the last
+ * {@link Lease} is released.  Call {@link #clear()} before the Notes thread terminates.
+ * </p>
+ */
+public class CertifierContextCache {
+
+  private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * A reference to a cached certifier context.  Release it with {@link #close()}.
+   */
+  public static class Lease implements AutoCloseable {
+
+    private final Entry entry;
+    private boolean closed = false;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    /** The certifier context handle, to be passed to the registration C API */
+    public Pointer getContext() {
+      return entry.context;
+    }
+
+    /** The name of the certifier, as reported by SECKFMGetCertifierCtx */
+    public String getCertifierName() {
+      return entry.certifierName;
+    }
+
+    public void close() {
+      synchronized (entries) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        entry.references--;
+        freeIfUnused(entry);
+      }
+    }
+  }
+
+  private static class Entry {
+
+    final String key;
+    final String certifierPath;
+    final String version;
+    final Pointer context;
+    final String certifierName;
+    int references = 0;
+    boolean evicted = false;
+
+    Entry(String key, String certifierPath, String version, Pointer context, String certifierName) {
+      this.key = key;
+      this.certifierPath = certifierPath;
+      this.version = version;
+      this.context = context;
+      this.certifierName = certifierName;
+    }
+  }
+
+  /**
+   * Get the certifier context for the given certifier ID, unlocking it if it is not cached yet.
+   * @param certifierFile  the certifier ID file
+   * @param certifierPassword  the certifier password
+   * @return a lease for the context.  The caller must close it.
+   * @throws NotesException if the certifier could not be unlocked
+   */
+  public static Lease acquire(String certifierFile, String certifierPassword)
+    throws NotesException {
+    if (
+      certifierFile == null || certifierFile.trim().isEmpty()
+    ) throw new IllegalArgumentException("Certifier file is required");
+    File file = new File(certifierFile);
+    String certifierPath = canonicalPath(file);
+    String version = file.lastModified() + "|" + digest(certifierPassword);
+    String key =
+      certifierPath + "|" + version + "|" + Thread.currentThread().getId();
+
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        // evict contexts for older versions of the same certifier
+        for (Entry existing : new ArrayList<Entry>(entries.values())) {
+          if (
+            existing.certifierPath.equals(certifierPath) &&
+            !existing.version.equals(version)
+          ) {
+            System.out.println(
+              "Certifier '" + certifierPath + "' has changed.  Evicting the cached context."
+            );
+            evict(existing);
+          }
+        }
+        entry =
+          openContext(key, certifierPath, version, certifierFile, certifierPassword);
+        entries.put(key, entry);
+      } else {
+        System.out.println("Reusing certifier context for: " + certifierPath);
+      }
+      entry.references++;
+      return new Lease(entry);
+    }
+  }
+
+  /**
+   * Evict all cached contexts for the given certifier file.
+   * Contexts that are still leased are freed when the last lease is closed.
+   */
+  public static void evict(String certifierFile) {
+    File file = new File(certifierFile);
+    synchronized (entries) {
+      for (Entry existing : new ArrayList<Entry>(entries.values())) {
+        if (
+          existing.certifierPath.equals(file.getAbsolutePath()) ||
+          existing.certifierPath.equals(canonicalPath(file))
+        ) {
+          evict(existing);
+        }
+      }
+    }
+  }
+
+  /**
+   * Evict all cached contexts.
+   * Contexts that are still leased are freed when the last lease is closed.
+   */
+  public static void clear() {
+    synchronized (entries) {
+      for (Entry existing : new ArrayList<Entry>(entries.values())) {
+        evict(existing);
+      }
+    }
+  }
+
+  /**
+   * @return the number of contexts that are currently cached
+   */
+  public static int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private static void evict(Entry entry) {
+    entries.remove(entry.key);
+    entry.evicted = true;
+    freeIfUnused(entry);
+  }
+
+  private static void freeIfUnused(Entry entry) {
+    if (entry.evicted && entry.references <= 0) {
+      NotesAPI.INSTANCE.SECKFMFreeCertifierCtx(entry.context);
+    }
+  }
+
+  private static Entry openContext(
+    String key,
+    String certifierPath,
+    String version,
+    String certifierFile,
+    String certifierPassword
+  ) throws NotesException {
+    System.out.println("Getting certifier context from: " + certifierFile);
+
+    // Create password structure
+    Memory certPWMem = NotesStringUtils.toLMBCS(certifierPassword, true);
+    KFM_PASSWORDStruct.ByReference kfmPwd = KFM_PASSWORDStruct.newInstanceByReference();
+    NotesNativeAPI.get().SECKFMCreatePassword(certPWMem, kfmPwd);
+
+    // Convert paths to LMBCS
+    Memory certFilePathMem = NotesStringUtils.toLMBCS(certifierFile, true);
+    Memory retCertNameMem = new Memory(NotesConstants.MAXUSERNAME);
+    ShortByReference retfIsHierarchical = new ShortByReference();
+    ShortByReference retwFileVersion = new ShortByReference();
+
+    // Get certifier context based on platform
+    int result;
+    long handle;
+    if (PlatformUtils.is64Bit()) {
+      LongByReference rethKfmCertCtx = new LongByReference();
+      result =
+        NotesNativeAPI64
+          .get()
+          .SECKFMGetCertifierCtx(
+            certFilePathMem,
+            kfmPwd,
+            null, // certLogPath not needed
+            null, // expiration not needed
+            retCertNameMem,
+            rethKfmCertCtx,
+            retfIsHierarchical,
+            retwFileVersion
+          );
+      handle = rethKfmCertCtx.getValue();
+    } else {
+      IntByReference rethKfmCertCtx = new IntByReference();
+      result =
+        NotesNativeAPI32
+          .get()
+          .SECKFMGetCertifierCtx(
+            certFilePathMem,
+            kfmPwd,
+            null, // certLogPath not needed
+            null, // expiration not needed
+            retCertNameMem,
+            rethKfmCertCtx,
+            retfIsHierarchical,
+            retwFileVersion
+          );
+      handle = rethKfmCertCtx.getValue();
+    }
+
+    if (result != 0) {
+      throw new NotesException(
+        result,
+        "Failed to get certifier context. Error: " + result
+      );
+    }
+    if (handle == 0L) {
+      throw new NotesException(
+        0,
+        "Received null handle creating a certifier context"
+      );
+    }
+    String certifierName = retCertNameMem.getString(0);
+    return new Entry(key, certifierPath, version, new Pointer(handle), certifierName);
+  }
+
+  private static String canonicalPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    } catch (Exception ex) {
+      return file.getAbsolutePath();
+    }
+  }
+
+  /**
+   * Hash the password so that it is not kept in the cache key.
+   */
+  private static String digest(String value) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] hash = md.digest((null == value ? "" : value).getBytes("UTF-8"));
+      StringBuilder builder = new StringBuilder();
+      for (byte b : hash) {
+        builder.append(String.format("%02x", b));
+      }
+      return builder.toString();
+    } catch (Exception ex) {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+  }
+}
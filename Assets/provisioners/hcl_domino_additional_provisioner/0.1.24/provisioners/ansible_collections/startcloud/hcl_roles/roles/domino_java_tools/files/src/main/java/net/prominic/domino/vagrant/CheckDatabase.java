@@ -1,23 +1,244 @@
 package net.prominic.domino.vagrant;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import lotus.domino.ACL;
+import lotus.domino.ACLEntry;
 import lotus.domino.Database;
 import lotus.domino.DbDirectory;
+import lotus.domino.Document;
 import lotus.domino.NotesException;
 import lotus.domino.NotesFactory;
 import lotus.domino.NotesThread;
 import lotus.domino.Session;
+import lotus.domino.View;
 
 /**
  * Check whether this machine can access the given database on the given server.
  * If the process fails, report any errors from the Domino API
  *
+ * <p>
+ * With <code>--targets=&lt;file&gt;</code> (one <code>server!!database</code> per line) or
+ * <code>server!!database</code> arguments, many databases are probed concurrently, each on its own Notes thread.
+ * A probe that doesn't finish within <code>--timeout</code> seconds is reported as <code>timeout</code> and abandoned,
+ * so a hung server does not block the other probes.  The results are written as one JSON report.
+ * </p>
+ * <p>
+ * With <code>--probe</code>, the database is opened, read and closed repeatedly at a fixed rate, and the
+ * p50/p95/p99/max latencies of the open and the read are written periodically as JSON lines.
+ * </p>
+ * <p>
+ * With <code>--audit</code>, the database directory of a server is walked once and a list of users or groups is
+ * evaluated against every database on a pool of Notes threads.  The access level, privilege bits and roles are written
+ * as a CSV or JSON matrix.  By default the server is asked with <code>queryAccess</code> for every user and database.
+ * <code>--approximate</code> reads each ACL once and evaluates it with cached group memberships instead (see
+ * {@link EffectiveAccess}).  That ignores entry user types and Directory Assistance, so the report marks the results
+ * as approximate.
+ * </p>
  */
 public class CheckDatabase {
 
+    private static final String APP_NAME = "CheckDatabase";
+    public static final String PROBE_USAGE = "java -jar CheckDatabase.jar [--timeout=<seconds>] [--workers=<count>] [--user=<name>] " +
+            "[--report=<file.json>] [--targets=<file>] [<server>!!<database>...]";
+
+    public static final int DEFAULT_PROBE_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_PROBE_WORKERS = 8;
+
+    public static final String LATENCY_USAGE = "java -jar CheckDatabase.jar --probe [--interval=<ms>] [--report-interval=<seconds>] " +
+            "[--duration=<seconds>] [--view=<name>] [--output=<file>] <server> <database>";
+    public static final int DEFAULT_LATENCY_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_LATENCY_REPORT_SECONDS = 10;
+    public static final int DEFAULT_LATENCY_DURATION_SECONDS = 60;
+
+    public static final String AUDIT_USAGE = "java -jar CheckDatabase.jar --audit [--user=<name>]... [--users=<file>] [--workers=<count>] " +
+            "[--format=csv|json] [--output=<file>] [--approximate] <server>";
+
+    /** The <code>method</code> of an audit report */
+    public static final String AUDIT_METHOD_EXACT = "queryAccess";
+    public static final String AUDIT_METHOD_APPROXIMATE = "approximate";
+
+    /**
+     * Settings for the access audit.
+     */
+    public static class AuditOptions {
+        public String server = null;
+        /** the users or groups to evaluate */
+        public List<String> users = new ArrayList<String>();
+        public int workers = DEFAULT_PROBE_WORKERS;
+        /** csv or json */
+        public String format = null;
+        /** the report file, or <code>null</code> for stdout */
+        public File outputFile = null;
+        /** evaluate the ACL with cached group memberships, instead of asking the server with queryAccess for every user */
+        public boolean approximate = false;
+    }
+
+    /**
+     * The access of all audited users to one database.
+     */
+    public static class AuditResult {
+        public final String path;
+        public String title = null;
+        /** the reason why the database could not be audited, or <code>null</code> */
+        public String error = null;
+        /** the access of each audited user, in the same order as the users */
+        public final List<EffectiveAccess.Access> access = new ArrayList<EffectiveAccess.Access>();
+
+        public AuditResult(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Settings for the latency probe.
+     */
+    public static class LatencyOptions {
+        public String server = null;
+        public String databaseName = null;
+        /** the time between the start of two samples */
+        public long intervalMillis = DEFAULT_LATENCY_INTERVAL_MILLIS;
+        public long reportMillis = DEFAULT_LATENCY_REPORT_SECONDS * 1000L;
+        /** 0 to run until the process is stopped */
+        public long durationMillis = DEFAULT_LATENCY_DURATION_SECONDS * 1000L;
+        /** the view to read the first document from, or <code>null</code> to read the ACL */
+        public String viewName = null;
+        /** the file to append the reports to, or <code>null</code> for stdout */
+        public File outputFile = null;
+    }
+
+    /**
+     * The result of probing one database.
+     */
+    public static class Probe {
+        public final String server;
+        public final String databaseName;
+        /** pending, ok, failed or timeout */
+        private String status = "pending";
+        private String message = null;
+        private String title = null;
+        private String access = null;
+        private long openMillis = -1;
+        private long totalMillis = -1;
+
+        public Probe(String server, String databaseName) {
+            this.server = server;
+            this.databaseName = databaseName;
+        }
+
+        /**
+         * Parse a <code>server!!database</code> target.  The server may be empty for a local database.
+         */
+        public static Probe parse(String target) throws Exception {
+            int index = target.indexOf("!!");
+            if (index < 0) {
+                throw new Exception("Invalid target '" + target + "'.  Expected <server>!!<database>.");
+            }
+            return new Probe(target.substring(0, index).trim(), target.substring(index + 2).trim());
+        }
+
+        synchronized void succeed(long openMillis, String title, String access, long totalMillis) {
+            if ("pending".equals(status)) {
+                this.status = "ok";
+                this.openMillis = openMillis;
+                this.title = title;
+                this.access = access;
+                this.totalMillis = totalMillis;
+            }
+        }
+
+        /**
+         * Record a failure, unless the probe already has a result (e.g. it finished just after the timeout).
+         */
+        synchronized void fail(String status, String message, long totalMillis) {
+            if ("pending".equals(this.status)) {
+                this.status = status;
+                this.message = message;
+                this.totalMillis = totalMillis;
+            }
+        }
+
+        public synchronized String getStatus() {
+            return status;
+        }
+
+        public synchronized JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("server", server);
+            json.put("database", databaseName);
+            json.put("status", status);
+            json.put("openMillis", openMillis);
+            json.put("totalMillis", totalMillis);
+            json.put("title", null == title ? JSONObject.NULL : title);
+            json.put("access", null == access ? JSONObject.NULL : access);
+            json.put("message", null == message ? JSONObject.NULL : message);
+            return json;
+        }
+    }
+
     public static void main(String[] args) {
+        // the audit and the latency probe are long-running, so they don't tie up a daemon
+        if (Arrays.asList(args).contains("--audit")) {
+            try {
+                System.exit(runAudit(parseAuditOptions(args)) ? 0 : 1);
+            }
+            catch (Throwable throwable) {
+                System.out.println("FAILED!");
+                throwable.printStackTrace();
+                System.exit(1);
+            }
+        }
+        if (Arrays.asList(args).contains("--probe")) {
+            try {
+                System.exit(runLatencyProbe(parseLatencyOptions(args)) ? 0 : 1);
+            }
+            catch (Throwable throwable) {
+                System.out.println("FAILED!");
+                throwable.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        // probes run locally, since an abandoned probe thread would stay in a daemon
+        if (isFanOutMode(args)) {
+            try {
+                System.exit(fanOut(args) ? 0 : 1);
+            }
+            catch (Throwable throwable) {
+                System.out.println("FAILED!");
+                throwable.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        // hand the command to a running HelperDaemon if one is available
+        int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+        if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+            System.exit(daemonStatus);
+        }
+
         if (args.length < 2) {
             System.out.println("Insufficient Arguments.  Usage: ");
             System.out.println("java -jar CheckDatabase.jar <server> <database> [acl_username]");
@@ -44,15 +265,7 @@ public class CheckDatabase {
 
             Database database = session.getDatabase(serverName, databaseName, false);
             try {
-                if (null == database || !database.isOpen()) {
-                    throw new Exception("Could not open database.");
-                }
-                String actualServerName = session.getServerName(); //session.getServerName();
-                String databaseTitle = database.getTitle();
-                System.out.println("SUCCESSFUL!");
-                System.out.println("Server: '" + actualServerName + "', Database: '" + databaseTitle + "'.");
-
-                checkACLAccess(database, testUser);
+                checkDatabase(session, database, testUser);
             }
             finally {
                 if (null != database) {
@@ -72,6 +285,771 @@ public class CheckDatabase {
     }
 
 
+    /**
+     * Check if the arguments are for the fan-out mode.
+     */
+    public static boolean isFanOutMode(String[] args) {
+        return args.length > 0 && (args[0].startsWith("--") || args[0].contains("!!"));
+    }
+
+    /**
+     * Run the fan-out mode:  parse the arguments, probe the targets and write the report.
+     * @return <code>true</code> if all databases could be opened
+     */
+    public static boolean fanOut(String[] args) throws Exception {
+        long timeoutSeconds = DEFAULT_PROBE_TIMEOUT_SECONDS;
+        int workers = DEFAULT_PROBE_WORKERS;
+        String testUser = null;
+        File reportFile = null;
+        List<Probe> probes = new ArrayList<Probe>();
+        for (String arg : args) {
+            if (arg.startsWith("--timeout=")) {
+                timeoutSeconds = parseNumber(arg, "--timeout=", 1);
+            }
+            else if (arg.startsWith("--workers=")) {
+                workers = NotesWorkerPool.parseWorkerCount(arg.substring("--workers=".length()), DEFAULT_PROBE_WORKERS);
+            }
+            else if (arg.startsWith("--user=")) {
+                testUser = arg.substring("--user=".length());
+            }
+            else if (arg.startsWith("--report=")) {
+                reportFile = new File(arg.substring("--report=".length()));
+            }
+            else if (arg.startsWith("--targets=")) {
+                probes.addAll(readTargets(new File(arg.substring("--targets=".length()))));
+            }
+            else if (arg.contains("!!")) {
+                probes.add(Probe.parse(arg));
+            }
+            else {
+                throw new Exception("Unknown argument '" + arg + "'.  USAGE:  " + PROBE_USAGE);
+            }
+        }
+        if (probes.isEmpty()) {
+            throw new Exception("No targets specified.  USAGE:  " + PROBE_USAGE);
+        }
+
+        long start = System.currentTimeMillis();
+        probeAll(probes, testUser, workers, timeoutSeconds * 1000);
+
+        JSONObject report = new JSONObject();
+        JSONArray results = new JSONArray();
+        int ok = 0;
+        int failed = 0;
+        int timedOut = 0;
+        for (Probe probe : probes) {
+            results.put(probe.toJSON());
+            String status = probe.getStatus();
+            if ("ok".equals(status)) {
+                ok++;
+            }
+            else if ("timeout".equals(status)) {
+                timedOut++;
+            }
+            else {
+                failed++;
+            }
+        }
+        report.put("timeoutSeconds", timeoutSeconds);
+        report.put("durationMillis", System.currentTimeMillis() - start);
+        report.put("ok", ok);
+        report.put("failed", failed);
+        report.put("timeout", timedOut);
+        report.put("probes", results);
+
+        if (null == reportFile) {
+            System.out.println(report.toString(2));
+        }
+        else {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            try {
+                report.write(writer);
+            }
+            finally {
+                writer.close();
+            }
+            System.out.println("Probed " + probes.size() + " database(s):  " + ok + " ok, " + failed + " failed, " + timedOut +
+                    " timed out.  Report:  '" + reportFile.getAbsolutePath() + "'.");
+        }
+        return ok == probes.size();
+    }
+
+    /**
+     * Read the targets from a file with one <code>server!!database</code> per line.
+     * Empty lines and lines starting with <code>#</code> are ignored.
+     */
+    public static List<Probe> readTargets(File targetsFile) throws Exception {
+        List<Probe> probes = new ArrayList<Probe>();
+        for (String line : readLines(targetsFile)) {
+            probes.add(Probe.parse(line));
+        }
+        return probes;
+    }
+
+    /**
+     * Read the trimmed lines of a list file.  Empty lines and lines starting with <code>#</code> are ignored.
+     */
+    public static List<String> readLines(File listFile) throws Exception {
+        if (!listFile.exists()) {
+            throw new Exception("File not found at:  '" + listFile.getAbsolutePath() + "'.");
+        }
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Probe the databases concurrently.
+     * Each probe runs on its own Notes thread with its own session.  Up to <code>workers</code> probes run at a time,
+     * and a probe that does not finish within the timeout is marked as <code>timeout</code> and abandoned.
+     * Notes calls can't be interrupted, so an abandoned thread may keep running until the process exits.
+     * @param probes  the databases to probe.  The results are stored in the probes.
+     * @param testUser  the user to check against the ACL, or <code>null</code> for the current user
+     * @param workers  the maximum number of concurrent probes
+     * @param timeoutMillis  the deadline for each probe
+     */
+    public static void probeAll(List<Probe> probes, final String testUser, int workers, final long timeoutMillis) throws Exception {
+        // the supervisors are plain Java threads, so they can always give up on a hung probe
+        ExecutorService supervisors = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, probes.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Probe probe : probes) {
+                futures.add(supervisors.submit(new Runnable() {
+                    public void run() {
+                        long start = System.currentTimeMillis();
+                        NotesThread thread = new NotesThread(new Runnable() {
+                            public void run() {
+                                runProbe(probe, testUser);
+                            }
+                        }, APP_NAME + "-" + probe.server + "!!" + probe.databaseName);
+                        thread.setDaemon(true);
+                        thread.start();
+                        try {
+                            thread.join(timeoutMillis);
+                        }
+                        catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (thread.isAlive()) {
+                            probe.fail("timeout", "No response within " + timeoutMillis + " ms.", System.currentTimeMillis() - start);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            supervisors.shutdown();
+        }
+    }
+
+    /**
+     * Open the database and read its title and the access level.  Runs on an initialized Notes thread.
+     */
+    protected static void runProbe(Probe probe, String testUser) {
+        long start = System.currentTimeMillis();
+        Session session = null;
+        Database database = null;
+        try {
+            session = NotesFactory.createSession();
+            String user = null == testUser ? session.getUserName() : testUser;
+            long openStart = System.currentTimeMillis();
+            database = session.getDatabase(probe.server, probe.databaseName, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database.");
+            }
+            long openMillis = System.currentTimeMillis() - openStart;
+            String title = database.getTitle();
+            String access = getAccessLevelName(database.queryAccess(user));
+            probe.succeed(openMillis, title, access, System.currentTimeMillis() - start);
+        }
+        catch (NotesException ex) {
+            probe.fail("failed", ex.text, System.currentTimeMillis() - start);
+        }
+        catch (Exception ex) {
+            probe.fail("failed", ex.getMessage(), System.currentTimeMillis() - start);
+        }
+        finally {
+            try {
+                if (null != database) {
+                    database.recycle();
+                }
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Parse the arguments for the access audit.
+     */
+    public static AuditOptions parseAuditOptions(String[] args) throws Exception {
+        AuditOptions options = new AuditOptions();
+        List<String> positional = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--audit")) {
+                continue;
+            }
+            else if (arg.startsWith("--user=")) {
+                options.users.add(arg.substring("--user=".length()).trim());
+            }
+            else if (arg.startsWith("--users=")) {
+                options.users.addAll(readLines(new File(arg.substring("--users=".length()))));
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = (int) parseNumber(arg, "--workers=", 1);
+            }
+            else if (arg.startsWith("--format=")) {
+                options.format = arg.substring("--format=".length()).trim().toLowerCase();
+                if (!options.format.equals("csv") && !options.format.equals("json")) {
+                    throw new Exception("Unknown format '" + options.format + "'.  USAGE:  " + AUDIT_USAGE);
+                }
+            }
+            else if (arg.startsWith("--output=")) {
+                options.outputFile = new File(arg.substring("--output=".length()));
+            }
+            else if (arg.equals("--approximate")) {
+                options.approximate = true;
+            }
+            else if (arg.equals("--exact")) {
+                // the default
+                options.approximate = false;
+            }
+            else if (arg.startsWith("--")) {
+                throw new Exception("Unknown argument '" + arg + "'.  USAGE:  " + AUDIT_USAGE);
+            }
+            else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() != 1) {
+            throw new Exception("Expected a server.  USAGE:  " + AUDIT_USAGE);
+        }
+        if (options.users.isEmpty()) {
+            throw new Exception("No users specified.  USAGE:  " + AUDIT_USAGE);
+        }
+        options.server = positional.get(0);
+        if (null == options.format) {
+            boolean json = null != options.outputFile && options.outputFile.getName().toLowerCase().endsWith(".json");
+            options.format = json ? "json" : "csv";
+        }
+        return options;
+    }
+
+    /**
+     * Evaluate the users against every database on the server and write the matrix.
+     * @return <code>true</code> if all databases could be audited
+     */
+    public static boolean runAudit(AuditOptions options) throws Exception {
+        Session session = null;
+        try {
+            NotesThread.sinitThread();
+
+            session = NotesFactory.createSession();
+            System.out.println("Running on Notes Version: '" + session.getNotesVersion() + "'.");
+
+            long start = System.currentTimeMillis();
+            List<AuditResult> results = new ArrayList<AuditResult>();
+            for (String path : listDatabases(session, options.server)) {
+                results.add(new AuditResult(path));
+            }
+            System.out.println("Found " + results.size() + " database(s) on server '" + options.server + "'.");
+
+            EffectiveAccess effectiveAccess = null;
+            if (options.approximate) {
+                System.out.println("Evaluating the ACLs with cached group memberships.  The results are approximate.");
+                Database directory = session.getDatabase(options.server, "names.nsf", false);
+                if (null == directory || !directory.isOpen()) {
+                    throw new Exception("Could not open names.nsf on server '" + options.server + "'.");
+                }
+                try {
+                    effectiveAccess = EffectiveAccess.build(directory);
+                }
+                finally {
+                    directory.recycle();
+                }
+            }
+
+            auditDatabases(options, results, effectiveAccess);
+            writeAuditReport(options, results);
+
+            int errors = 0;
+            for (AuditResult result : results) {
+                if (null != result.error) {
+                    errors++;
+                }
+            }
+            System.out.println("Audited " + (results.size() - errors) + " of " + results.size() + " database(s) for " +
+                    options.users.size() + " user(s) in " + (System.currentTimeMillis() - start) + " ms.");
+            return errors == 0;
+        }
+        finally {
+            if (null != session) {
+                session.recycle();
+            }
+            NotesThread.stermThread();
+        }
+    }
+
+    /**
+     * Walk the database directory of the server once.
+     * @return the file paths of the databases
+     */
+    public static List<String> listDatabases(Session session, String serverName) throws Exception {
+        List<String> paths = new ArrayList<String>();
+        DbDirectory directory = session.getDbDirectory(serverName);
+        if (null == directory) {
+            throw new Exception("Unable to open directory for server '" + serverName + "'.");
+        }
+        try {
+            Database database = directory.getFirstDatabase(DbDirectory.DATABASE);
+            while (null != database) {
+                paths.add(database.getFilePath());
+                Database next = directory.getNextDatabase();
+                database.recycle();
+                database = next;
+            }
+        }
+        finally {
+            directory.recycle();
+        }
+        return paths;
+    }
+
+    /**
+     * Audit the databases on a pool of workers.  Each worker has its own session, and takes the databases from a
+     * shared queue, so that a slow database does not hold up the databases behind it.
+     */
+    protected static void auditDatabases(final AuditOptions options, List<AuditResult> results, final EffectiveAccess effectiveAccess) throws Exception {
+        int workerCount = Math.min(Math.max(1, options.workers), Math.max(1, results.size()));
+        final Queue<AuditResult> queue = new ConcurrentLinkedQueue<AuditResult>(results);
+        final AtomicReference<String> sessionError = new AtomicReference<String>();
+
+        ExecutorService pool = NotesWorkerPool.create(APP_NAME, workerCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workerCount; i++) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        Session session = null;
+                        try {
+                            session = NotesFactory.createSession();
+                            AuditResult result;
+                            while (null != (result = queue.poll())) {
+                                auditDatabase(session, options, result, effectiveAccess);
+                            }
+                        }
+                        catch (NotesException ex) {
+                            // leave the queue to the other workers
+                            sessionError.set(ex.text);
+                        }
+                        finally {
+                            try {
+                                if (null != session) {
+                                    session.recycle();
+                                }
+                            }
+                            catch (NotesException ex) {
+                                ex.printStackTrace();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            NotesWorkerPool.shutdown(pool);
+        }
+        // only left if no worker could create a session
+        for (AuditResult result : queue) {
+            result.error = sessionError.get();
+        }
+    }
+
+    /**
+     * Evaluate all users against one database.  Errors are stored in the result.
+     */
+    protected static void auditDatabase(Session session, AuditOptions options, AuditResult result, EffectiveAccess effectiveAccess) {
+        Database database = null;
+        try {
+            database = session.getDatabase(options.server, result.path, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database.");
+            }
+            result.title = database.getTitle();
+            // the ACL is read once for all users
+            List<EffectiveAccess.Entry> acl = null == effectiveAccess ? null : EffectiveAccess.readACL(database);
+            for (String user : options.users) {
+                if (null == acl) {
+                    List<String> roles = new ArrayList<String>();
+                    for (Object role : database.queryAccessRoles(user)) {
+                        roles.add(String.valueOf(role));
+                    }
+                    result.access.add(new EffectiveAccess.Access(database.queryAccess(user), database.queryAccessPrivileges(user), roles));
+                }
+                else {
+                    result.access.add(effectiveAccess.evaluate(user, acl));
+                }
+            }
+        }
+        catch (NotesException ex) {
+            result.error = ex.text;
+            result.access.clear();
+        }
+        catch (Exception ex) {
+            result.error = ex.getMessage();
+            result.access.clear();
+        }
+        finally {
+            try {
+                if (null != database) {
+                    database.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write the audit matrix.
+     * CSV has one row per database and user:  <code>database,title,user,level,privileges,roles,method,error</code>, where
+     * <code>privileges</code> are the Database.DBACL_* bits and the roles are separated by <code>;</code>.
+     * JSON has one object per database with the access of each user in the order of the <code>users</code> array.
+     * The <code>method</code> is {@link #AUDIT_METHOD_EXACT} or {@link #AUDIT_METHOD_APPROXIMATE}.
+     */
+    protected static void writeAuditReport(AuditOptions options, List<AuditResult> results) throws Exception {
+        Writer writer = null == options.outputFile ? new OutputStreamWriter(System.out, "UTF-8") :
+                new OutputStreamWriter(new FileOutputStream(options.outputFile), "UTF-8");
+        String method = options.approximate ? AUDIT_METHOD_APPROXIMATE : AUDIT_METHOD_EXACT;
+        try {
+            if (options.format.equals("json")) {
+                JSONObject report = new JSONObject();
+                report.put("server", options.server);
+                report.put("method", method);
+                report.put("users", new JSONArray(options.users));
+                JSONArray databases = new JSONArray();
+                for (AuditResult result : results) {
+                    JSONObject json = new JSONObject();
+                    json.put("database", result.path);
+                    json.put("title", null == result.title ? JSONObject.NULL : result.title);
+                    if (null != result.error) {
+                        json.put("error", result.error);
+                    }
+                    JSONArray access = new JSONArray();
+                    for (EffectiveAccess.Access userAccess : result.access) {
+                        JSONObject accessJSON = new JSONObject();
+                        accessJSON.put("level", getAccessLevelName(userAccess.level));
+                        accessJSON.put("privileges", userAccess.privileges);
+                        accessJSON.put("roles", new JSONArray(userAccess.roles));
+                        access.put(accessJSON);
+                    }
+                    json.put("access", access);
+                    databases.put(json);
+                }
+                report.put("databases", databases);
+                report.write(writer);
+                writer.write("\n");
+            }
+            else {
+                writer.write("database,title,user,level,privileges,roles,method,error\n");
+                for (AuditResult result : results) {
+                    if (null != result.error) {
+                        writer.write(toCSV(result.path, result.title, "", "", "", "", method, result.error));
+                        continue;
+                    }
+                    for (int i = 0; i < result.access.size(); i++) {
+                        EffectiveAccess.Access userAccess = result.access.get(i);
+                        writer.write(toCSV(result.path, result.title, options.users.get(i), getAccessLevelName(userAccess.level),
+                                String.valueOf(userAccess.privileges), String.join(";", userAccess.roles), method, ""));
+                    }
+                }
+            }
+        }
+        finally {
+            if (null == options.outputFile) {
+                writer.flush();
+            }
+            else {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Build a CSV row.  Values with commas, quotes or line breaks are quoted.
+     */
+    protected static String toCSV(String... values) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            String value = null == values[i] ? "" : values[i];
+            if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+                row.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+            else {
+                row.append(value);
+            }
+        }
+        return row.append('\n').toString();
+    }
+
+    /**
+     * Parse the arguments for the latency probe.
+     */
+    public static LatencyOptions parseLatencyOptions(String[] args) throws Exception {
+        LatencyOptions options = new LatencyOptions();
+        List<String> positional = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--probe")) {
+                continue;
+            }
+            else if (arg.startsWith("--interval=")) {
+                options.intervalMillis = parseNumber(arg, "--interval=", 1);
+            }
+            else if (arg.startsWith("--report-interval=")) {
+                options.reportMillis = parseNumber(arg, "--report-interval=", 1) * 1000L;
+            }
+            else if (arg.startsWith("--duration=")) {
+                options.durationMillis = parseNumber(arg, "--duration=", 0) * 1000L;
+            }
+            else if (arg.startsWith("--view=")) {
+                options.viewName = arg.substring("--view=".length());
+            }
+            else if (arg.startsWith("--output=")) {
+                options.outputFile = new File(arg.substring("--output=".length()));
+            }
+            else if (arg.startsWith("--")) {
+                throw new Exception("Unknown argument '" + arg + "'.  USAGE:  " + LATENCY_USAGE);
+            }
+            else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() != 2) {
+            throw new Exception("Expected a server and a database.  USAGE:  " + LATENCY_USAGE);
+        }
+        options.server = positional.get(0);
+        options.databaseName = positional.get(1);
+        return options;
+    }
+
+    /**
+     * Parse the number of an <code>--option=value</code> argument.
+     * @throws Exception if the value is not a number, or less than the minimum
+     */
+    protected static long parseNumber(String arg, String option, long minimum) throws Exception {
+        String value = arg.substring(option.length()).trim();
+        try {
+            long number = Long.parseLong(value);
+            if (number >= minimum) {
+                return number;
+            }
+        }
+        catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new Exception("Invalid value for " + option.substring(0, option.length() - 1) + ":  '" + value + "'.");
+    }
+
+    /**
+     * Open, read and close the database at a fixed rate, and report the latencies periodically.
+     * If a sample takes longer than the interval, the missed samples are skipped and counted as <code>late</code>,
+     * rather than sent in a burst.
+     * @return <code>true</code> if no sample failed
+     */
+    public static boolean runLatencyProbe(LatencyOptions options) throws Exception {
+        PrintStream out = null == options.outputFile ? System.out :
+                new PrintStream(new FileOutputStream(options.outputFile, true), true, "UTF-8");
+        LatencyHistogram open = new LatencyHistogram();
+        LatencyHistogram read = new LatencyHistogram();
+        LatencyHistogram totalOpen = new LatencyHistogram();
+        LatencyHistogram totalRead = new LatencyHistogram();
+        long errors = 0;
+        long late = 0;
+        long totalErrors = 0;
+        long totalLate = 0;
+        String lastError = null;
+        Session session = null;
+        try {
+            NotesThread.sinitThread();
+
+            session = NotesFactory.createSession();
+            System.out.println("Running on Notes Version: '" + session.getNotesVersion() + "'.");
+            System.out.println("Probing '" + options.server + "!!" + options.databaseName + "' every " + options.intervalMillis + " ms.");
+
+            long start = System.currentTimeMillis();
+            long nextSample = start;
+            long nextReport = start + options.reportMillis;
+            while (options.durationMillis <= 0 || System.currentTimeMillis() - start < options.durationMillis) {
+                long now = System.currentTimeMillis();
+                if (now < nextSample) {
+                    Thread.sleep(nextSample - now);
+                }
+
+                Database database = null;
+                try {
+                    long openStart = System.nanoTime();
+                    database = session.getDatabase(options.server, options.databaseName, false);
+                    if (null == database || !database.isOpen()) {
+                        throw new Exception("Could not open database.");
+                    }
+                    long readStart = System.nanoTime();
+                    // record the open before the read, so that a slow open is counted even if the read fails
+                    open.record((readStart - openStart) / 1000);
+                    readSample(database, options.viewName);
+                    read.record((System.nanoTime() - readStart) / 1000);
+                }
+                catch (NotesException ex) {
+                    errors++;
+                    lastError = ex.text;
+                }
+                catch (Exception ex) {
+                    errors++;
+                    lastError = ex.getMessage();
+                }
+                finally {
+                    if (null != database) {
+                        database.recycle();
+                    }
+                }
+
+                nextSample += options.intervalMillis;
+                now = System.currentTimeMillis();
+                if (now > nextSample) {
+                    long missed = (now - nextSample) / options.intervalMillis + 1;
+                    late += missed;
+                    nextSample += missed * options.intervalMillis;
+                }
+
+                if (now >= nextReport) {
+                    out.println(getLatencyReport(options, open, read, errors, late, lastError, false).toString());
+                    totalOpen.add(open);
+                    totalRead.add(read);
+                    totalErrors += errors;
+                    totalLate += late;
+                    open.reset();
+                    read.reset();
+                    errors = 0;
+                    late = 0;
+                    lastError = null;
+                    nextReport = now + options.reportMillis;
+                }
+            }
+
+            totalOpen.add(open);
+            totalRead.add(read);
+            totalErrors += errors;
+            totalLate += late;
+            if (open.getCount() > 0 || errors > 0) {
+                out.println(getLatencyReport(options, open, read, errors, late, lastError, false).toString());
+            }
+            out.println(getLatencyReport(options, totalOpen, totalRead, totalErrors, totalLate, null, true).toString());
+            return totalErrors == 0;
+        }
+        finally {
+            if (null != options.outputFile) {
+                out.close();
+            }
+            if (null != session) {
+                session.recycle();
+            }
+            NotesThread.stermThread();
+        }
+    }
+
+    /**
+     * Read a small amount of data:  the first document in the view, or the ACL if no view is given.
+     */
+    protected static void readSample(Database database, String viewName) throws Exception {
+        if (null == viewName) {
+            ACL acl = database.getACL();
+            ACLEntry entry = acl.getFirstEntry();
+            if (null != entry) {
+                entry.getLevel();
+                entry.recycle();
+            }
+            acl.recycle();
+            return;
+        }
+        View view = database.getView(viewName);
+        if (null == view) {
+            throw new Exception("Could not find view '" + viewName + "'.");
+        }
+        try {
+            Document document = view.getFirstDocument();
+            if (null != document) {
+                document.getUniversalID();
+                document.recycle();
+            }
+        }
+        finally {
+            view.recycle();
+        }
+    }
+
+    protected static JSONObject getLatencyReport(LatencyOptions options, LatencyHistogram open, LatencyHistogram read,
+            long errors, long late, String lastError, boolean summary) {
+        JSONObject report = new JSONObject();
+        report.put("time", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+        report.put("server", options.server);
+        report.put("database", options.databaseName);
+        report.put("summary", summary);
+        report.put("samples", open.getCount() + errors);
+        report.put("errors", errors);
+        report.put("late", late);
+        report.put("openMillis", open.toJSON());
+        report.put("readMillis", read.toJSON());
+        if (null != lastError) {
+            report.put("lastError", lastError);
+        }
+        return report;
+    }
+
+    /**
+     * Report the title of an already opened database and the access of the given user.
+     * The database is not recycled, so this may be used with a cached handle.
+     * @param session  the Domino session
+     * @param database  the database to check
+     * @param testUser  the user to check against the ACL
+     * @throws Exception if the database is not open
+     */
+    public static void checkDatabase(Session session, Database database, String testUser) throws NotesException, Exception {
+        if (null == database || !database.isOpen()) {
+            throw new Exception("Could not open database.");
+        }
+        String actualServerName = session.getServerName(); //session.getServerName();
+        String databaseTitle = database.getTitle();
+        System.out.println("SUCCESSFUL!");
+        System.out.println("Server: '" + actualServerName + "', Database: '" + databaseTitle + "'.");
+
+        checkACLAccess(database, testUser);
+    }
+
     public static void checkServer(Session session, String serverName) throws NotesException, Exception {
         DbDirectory directory = null;
         Database database = null;
@@ -108,33 +1086,7 @@ public class CheckDatabase {
         try {
             //String title = database.getTitle();
             int accLevel = database.queryAccess(testUser);
-            String accessStr = null;
-            switch (accLevel) {
-                case(ACL.LEVEL_NOACCESS) :
-                    accessStr = "none";
-                    break;
-                case(ACL.LEVEL_DEPOSITOR) :
-                    accessStr = "depositor";
-                    break;
-                case(ACL.LEVEL_READER) :
-                    accessStr = "reader";
-                    break;
-                case(ACL.LEVEL_AUTHOR) :
-                    accessStr = "author";
-                    break;
-                case(ACL.LEVEL_EDITOR) :
-                    accessStr = "editor";
-                    break;
-                case(ACL.LEVEL_DESIGNER) :
-                    accessStr = "designer";
-                    break;
-                case(ACL.LEVEL_MANAGER) :
-                    accessStr = "manager";
-                    break;
-                default:
-                    accessStr = "unknown";
-                    break;
-            }
+            String accessStr = getAccessLevelName(accLevel);
             System.out.println("User '"+ testUser + "' has '" + accessStr + "' access to this database.");
 
             System.out.println("Privileges: ");
@@ -178,4 +1130,38 @@ public class CheckDatabase {
         }
     }
 
+    /**
+     * Get the name of an ACL access level, e.g. <code>editor</code>.
+     */
+    public static String getAccessLevelName(int accLevel) {
+        String accessStr = null;
+        switch (accLevel) {
+            case(ACL.LEVEL_NOACCESS) :
+                accessStr = "none";
+                break;
+            case(ACL.LEVEL_DEPOSITOR) :
+                accessStr = "depositor";
+                break;
+            case(ACL.LEVEL_READER) :
+                accessStr = "reader";
+                break;
+            case(ACL.LEVEL_AUTHOR) :
+                accessStr = "author";
+                break;
+            case(ACL.LEVEL_EDITOR) :
+                accessStr = "editor";
+                break;
+            case(ACL.LEVEL_DESIGNER) :
+                accessStr = "designer";
+                break;
+            case(ACL.LEVEL_MANAGER) :
+                accessStr = "manager";
+                break;
+            default:
+                accessStr = "unknown";
+                break;
+        }
+        return accessStr;
+    }
+
 }
@@ -11,11 +11,18 @@ import com.mindoo.domino.jna.utils.NotesNamingUtils.Privileges;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import lotus.domino.DateTime;
@@ -24,11 +31,15 @@ import lotus.domino.NotesFactory;
 import lotus.domino.NotesThread;
 import lotus.domino.Registration;
 import lotus.domino.Session;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
 /**
  * Register and additional Domino server from the local server.
+ * Multiple properties files can be passed to register several servers in one run.
+ * They are registered concurrently, limited by <code>additional.server.workers</code>,
+ * and the results are written to <code>additional.server.results.file</code>.
  * Expected to run on a hcl_domino_standalone_provisioner Vagrant instance.
  * @see https://help.hcltechsw.com/dom_designer/12.0.2/basic/H_EXAMPLE_REGISTERNEWSERVER_METHOD_JAVA.html
  */
@@ -45,9 +56,13 @@ public class CreateAdditionalServerJNA {
   protected static String settingsFile = null;
   // protected static String aclTemplate = null;
   protected static boolean debugMode = true;
+  /** Number of servers that are registered concurrently */
+  protected static int workerCount = 4;
+  protected static String resultsFileName = null;
 
   public static void main(String[] args) {
     FileInputStream fis = null;
+    int status = 0;
     try {
       System.out.println("Application '" + APP_NAME + "' started.");
 
@@ -65,7 +80,105 @@ public class CreateAdditionalServerJNA {
           "No properties file specified for the additional server."
         );
       }
-      String additionalServerPropertiesFileName = args[0];
+
+      // Read from server configuration:
+
+      String hostServerIDPassword = "password";
+      String domainName = serverConfig.getString("domainName");
+      String serverAdministrator = getServerAdmin(); // use local server admin
+      String registrationServer = serverConfig.getString("name");
+      String certIDPassword = serverSetup
+        .getJSONObject("org")
+        .getString("certifierPassword"); // not in original steps below
+
+      // validation
+      if (null == hostServerIDFilePath || hostServerIDFilePath.trim().isEmpty() || !new File(hostServerIDFilePath).exists()) {
+      	System.err.println("Invalid server.id path:  '" + hostServerIDFilePath + "'.");
+      	System.exit(1);
+      }
+      if (null == certID || certID.trim().isEmpty() || !new File(certID).exists()) {
+      	System.err.println("Invalid cert ID path:  '" + certID + "'.");
+      	System.exit(1);
+      }
+
+      // Each argument is a properties file for one additional server
+      List<AdditionalServer> servers = new ArrayList<AdditionalServer>();
+      for (String additionalServerPropertiesFileName : args) {
+        servers.add(loadAdditionalServer(additionalServerPropertiesFileName));
+      }
+      if (servers.size() == 1 && null != servers.get(0).message) {
+        // keep the original behavior for a single invalid server
+        System.err.println(servers.get(0).message);
+        System.exit(1);
+      }
+
+      boolean completed = createAdditionalServers(
+        hostServerIDFilePath,
+        hostServerIDPassword,
+        certID,
+        certIDPassword,
+        registrationServer,
+        servers,
+        domainName,
+        workerCount
+      );
+      int failed = writeResults(servers);
+      if (!completed || failed > 0) {
+        status = 1;
+      }
+    } catch (Throwable throwable) {
+      throwable.printStackTrace();
+      status = 1;
+    } finally {
+      try {
+        if (null != fis) {
+          fis.close();
+        }
+      } catch (Exception ex) {
+        ex.printStackTrace();
+      }
+
+      System.out.println("Application '" + APP_NAME + "' completed.");
+    }
+    // fail the Ansible task if any server could not be registered
+    System.exit(status);
+  }
+
+  /**
+   * An additional server to register, and the result of the registration.
+   */
+  protected static class AdditionalServer {
+
+    String propertiesFile = null;
+    String name = null;
+    String password = null;
+    String title = null;
+    String outputIDFile = null;
+    /** pending, registered, skipped or failed */
+    String status = STATUS_PENDING;
+    String message = null;
+    long durationMillis = 0;
+  }
+
+  protected static final String STATUS_PENDING = "pending";
+  protected static final String STATUS_REGISTERED = "registered";
+  protected static final String STATUS_SKIPPED = "skipped";
+  protected static final String STATUS_FAILED = "failed";
+
+  /**
+   * Load and validate the properties file for one additional server.
+   * Problems are reported in the returned object, so that the other servers can still be registered.
+   * @param additionalServerPropertiesFileName  the properties file
+   * @return the server.  The status is {@link #STATUS_FAILED} if the file is invalid,
+   *   or {@link #STATUS_SKIPPED} if the ID file was already created.
+   */
+  protected static AdditionalServer loadAdditionalServer(
+    String additionalServerPropertiesFileName
+  ) {
+    AdditionalServer server = new AdditionalServer();
+    server.propertiesFile = additionalServerPropertiesFileName;
+    FileInputStream fis = null;
+    try {
       File additionalServerPropertiesFile = new File(
         additionalServerPropertiesFileName
       );
@@ -89,95 +202,52 @@ public class CreateAdditionalServerJNA {
           additionalServerPropertiesFile.getAbsolutePath() +
           "'."
         );
-      } finally {
-        if (null != fis) {
-          try {
-            fis.close();
-          } catch (Exception ex) {
-            // ignore
-          }
-        }
       }
 
       // TODO:  load properties and verify they are non-empty.  Allow defaults as appropriate
-      String additionalServerName = readRequiredProperty(
+      server.name = readRequiredProperty(
         additionalServerProperties,
         "server.name"
       );
-      String additionalServerPassword = additionalServerProperties.getProperty(
+      server.password = additionalServerProperties.getProperty(
         "server.id.password",
         ""
       ); // password is allowed to be empty
-      String additionalServerTitle = readRequiredProperty(
+      server.title = readRequiredProperty(
         additionalServerProperties,
         "server.id.title"
       );
-      String outputIDFile = readRequiredProperty(
+      server.outputIDFile = readRequiredProperty(
         additionalServerProperties,
         "server.id.output"
       );
+      log("additionalServerPassword len: " + server.password.length());
 
-      // Read from server configuration:
-
-      String hostServerIDPassword = "password";
-      String domainName = serverConfig.getString("domainName");
-      String serverAdministrator = getServerAdmin(); // use local server admin
-      String registrationServer = serverConfig.getString("name");
-      String certIDPassword = serverSetup
-        .getJSONObject("org")
-        .getString("certifierPassword"); // not in original steps below
-
-      if (additionalServerPassword == null) {
-        additionalServerPassword = "";
+      File outputFile = new File(server.outputIDFile);
+      if (null == outputFile.getParentFile() || !outputFile.getParentFile().exists()) {
+        throw new Exception("Invalid output path:  '" + server.outputIDFile + "'.");
       }
-
-      log("additionalServerPassword len: " + additionalServerPassword.length());
-      
-      // validation
-      if (null == hostServerIDFilePath || hostServerIDFilePath.trim().isEmpty() || !new File(hostServerIDFilePath).exists()) {
-      	System.err.println("Invalid server.id path:  '" + hostServerIDFilePath + "'.");
-      	System.exit(1);
-      }
-      if (null == certID || certID.trim().isEmpty() || !new File(certID).exists()) {
-      	System.err.println("Invalid cert ID path:  '" + certID + "'.");
-      	System.exit(1);
+      if (outputFile.exists()) {
+        server.status = STATUS_SKIPPED;
+        server.message = "ID file '" + server.outputIDFile + "' already exists.";
+        log(server.message + "  Skipping server '" + server.name + "'.");
       }
-      if (null == outputIDFile || outputIDFile.trim().isEmpty() || !new File(outputIDFile).getParentFile().exists()) {
-      	System.err.println("Invalid output path:  '" + outputIDFile + "'.");
-      	System.exit(1);
-      }
-
-      createAdditionalServer(
-        hostServerIDFilePath,
-        hostServerIDPassword,
-        certID,
-        certIDPassword,
-        registrationServer,
-        additionalServerName,
-        additionalServerPassword,
-        additionalServerTitle,
-        outputIDFile,
-        domainName
-      );
-    } catch (Throwable throwable) {
-      throwable.printStackTrace();
+    } catch (Exception ex) {
+      server.status = STATUS_FAILED;
+      server.message = ex.getMessage();
+      log(server.message);
     } finally {
-      try {
-        if (null != fis) {
+      if (null != fis) {
+        try {
           fis.close();
+        } catch (Exception ex) {
+          // ignore
         }
-      } catch (Exception ex) {
-        ex.printStackTrace();
       }
-
-      System.out.println("Application '" + APP_NAME + "' completed.");
     }
+    return server;
   }
 
-  private static lotus.domino.DateTime dt = null;
-  private static lotus.domino.Session session = null;
-  private static lotus.domino.Registration reg = null;
-
   public static Boolean createAdditionalServer(
     String hostServerIDFilePath,
     String hostServerIDPassword,
@@ -190,75 +260,126 @@ public class CreateAdditionalServerJNA {
     String addtionalServerIDStorePath,
     String addtionalServerDomainName
   ) {
+    AdditionalServer server = new AdditionalServer();
+    server.name = addtionalServerName;
+    server.password = addtionalServerPassword;
+    server.title = addtionalServerTitle;
+    server.outputIDFile = addtionalServerIDStorePath;
+    List<AdditionalServer> servers = new ArrayList<AdditionalServer>();
+    servers.add(server);
+    return createAdditionalServers(
+      hostServerIDFilePath,
+      hostServerIDPassword,
+      hostCertIDFilePath,
+      hostCertIDPassword,
+      hostServerName,
+      servers,
+      addtionalServerDomainName,
+      1
+    ) && STATUS_REGISTERED.equals(server.status);
+  }
+
+  /**
+   * Register the pending servers concurrently.
+   * The ID switch is done once on the calling thread, since IDUtils.switchToId applies to the whole process.
+   * Each registration creates its own session, and each worker unlocks its own certifier context
+   * (see {@link CertifierContextCache}), so no Notes objects are shared between the workers.
+   * The status of each server is updated with the result.
+   * @return false if the ID switch or session setup failed
+   */
+  public static Boolean createAdditionalServers(
+    final String hostServerIDFilePath,
+    final String hostServerIDPassword,
+    final String hostCertIDFilePath,
+    final String hostCertIDPassword,
+    final String hostServerName,
+    final List<AdditionalServer> servers,
+    final String addtionalServerDomainName,
+    final int workers
+  ) {
+    int pending = 0;
+    for (AdditionalServer server : servers) {
+      if (STATUS_PENDING.equals(server.status)) {
+        pending++;
+      } else if (STATUS_SKIPPED.equals(server.status)) {
+        log("Skipping server '" + server.name + "':  " + server.message);
+      }
+    }
+    if (pending == 0) {
+      log("No additional servers to register.");
+      return true;
+    }
+
+    Session session = null;
     try {
-      //initial Notes/Domino access for current thread (running single-threaded here)
+      //initial Notes/Domino access for current thread
       NotesThread.sinitThread();
 
       //launch run method within runWithAutoGC block to let it collect/dispose C handles
-      NotesGC.runWithAutoGC(
-        new Callable<Object>() {
-          public Object call() throws Exception {
+      session = NotesGC.runWithAutoGC(
+        new Callable<Session>() {
+          public Session call() throws Exception {
             // use IDUtils.switchToId if you want to unlock the ID file and switch the current process
             // to this ID; should only be used in standalone applications
             // if this is missing, you will be prompted for your ID password the first time the
             // id certs are required
 
             NotesGC.setPreferNotesTimeDate(true);
-            if (
-              addtionalServerName != null && addtionalServerPassword != null
-            ) {
-              System.out.println(
-                "Additional Server Name: " + addtionalServerName
-              );
-              System.out.println(
-                "Additional Server Title: " + addtionalServerTitle
-              );
-
-              System.out.println(
-                "hostServerIDFilePath: " + hostServerIDFilePath
-              );
-              System.out.println(
-                "addtionalServerIDStorePath: " + addtionalServerIDStorePath
-              );
-              IDUtils.switchToId(
-                hostServerIDFilePath,
-                hostServerIDPassword,
-                false
-              );
-
-              String currentUser = IDUtils.getIdUsername();
-              System.out.println(
-                "Switched to ID: " + hostServerIDFilePath + ":" + currentUser
-              );
-
-              session = NotesFactory.createSessionWithFullAccess();
-
-              if (session != null) {
-                System.out.println(
-                  "session username: " + session.getUserName()
-                );
+            System.out.println(
+              "hostServerIDFilePath: " + hostServerIDFilePath
+            );
+            IDUtils.switchToId(
+              hostServerIDFilePath,
+              hostServerIDPassword,
+              false
+            );
+            return NotesFactory.createSessionWithFullAccess();
+          }
+        }
+      );
+      if (session == null) {
+        System.out.println("Could not get session.");
+        return false;
+      }
+      System.out.println("session username: " + session.getUserName());
+      final String currentUser = IDUtils.getIdUsername();
+      System.out.println(
+        "Switched to ID: " + hostServerIDFilePath + ":" + currentUser
+      );
 
-                if (addtionalServerName != null) {
-                  HybridServerRegistration.registerServer(
-                    session,
+      ExecutorService pool = NotesWorkerPool.create(APP_NAME, workers);
+      try {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final AdditionalServer server : servers) {
+          if (!STATUS_PENDING.equals(server.status)) {
+            continue;
+          }
+          futures.add(
+            pool.submit(
+              new Runnable() {
+                public void run() {
+                  registerAdditionalServer(
                     hostCertIDFilePath,
                     hostCertIDPassword,
-                    addtionalServerName,
-                    addtionalServerIDStorePath,
+                    server,
                     addtionalServerDomainName,
-                    currentUser,
-                    addtionalServerTitle
+                    currentUser
                   );
                 }
-              } else {
-                System.out.println("Could not get session.");
-                return false;
               }
-            }
-            return true;
-          }
+            )
+          );
         }
-      );
+        log(
+          "Registering " + pending + " server(s) with " +
+          Math.max(1, Math.min(workers, pending)) + " worker(s)."
+        );
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        NotesWorkerPool.shutdown(pool);
+      }
     } catch (NotesError e) {
       e.printStackTrace();
 
@@ -271,13 +392,8 @@ public class CreateAdditionalServerJNA {
       return false;
     } finally {
       //terminate Notes/Domino access for current thread
+      CertifierContextCache.clear();
       try {
-        if (null != dt) {
-          dt.recycle();
-        }
-        if (null != reg) {
-          reg.recycle();
-        }
         if (null != session) {
           session.recycle();
         }
@@ -290,6 +406,123 @@ public class CreateAdditionalServerJNA {
     return true;
   }
 
+  /**
+   * Register one server on a worker thread and record the result.
+   * The session is created and recycled on the worker thread.
+   */
+  protected static void registerAdditionalServer(
+    final String hostCertIDFilePath,
+    final String hostCertIDPassword,
+    final AdditionalServer server,
+    final String addtionalServerDomainName,
+    final String currentUser
+  ) {
+    long start = System.currentTimeMillis();
+    System.out.println("Additional Server Name: " + server.name);
+    System.out.println("Additional Server Title: " + server.title);
+    System.out.println("addtionalServerIDStorePath: " + server.outputIDFile);
+    try {
+      Boolean registered = NotesGC.runWithAutoGC(
+        new Callable<Boolean>() {
+          public Boolean call() throws Exception {
+            NotesGC.setPreferNotesTimeDate(true);
+            Session session = NotesFactory.createSessionWithFullAccess();
+            try {
+              return HybridServerRegistration.registerServer(
+                session,
+                hostCertIDFilePath,
+                hostCertIDPassword,
+                server.name,
+                server.outputIDFile,
+                addtionalServerDomainName,
+                currentUser,
+                server.title
+              );
+            } finally {
+              session.recycle();
+            }
+          }
+        }
+      );
+      if (registered) {
+        server.status = STATUS_REGISTERED;
+      } else {
+        server.status = STATUS_FAILED;
+        server.message = "Server registration failed.";
+      }
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      server.status = STATUS_FAILED;
+      server.message = ex.getMessage();
+    }
+    server.durationMillis = System.currentTimeMillis() - start;
+    log(
+      "Server '" + server.name + "':  " + server.status + " (" +
+      server.durationMillis + " ms)."
+    );
+  }
+
+  /**
+   * Write the aggregated results to {@link #resultsFileName}.
+   * @return the number of servers that failed
+   */
+  protected static int writeResults(List<AdditionalServer> servers) {
+    JSONArray serverResults = new JSONArray();
+    int registered = 0;
+    int failed = 0;
+    for (AdditionalServer server : servers) {
+      JSONObject result = new JSONObject();
+      result.put("propertiesFile", server.propertiesFile);
+      result.put("name", null == server.name ? JSONObject.NULL : server.name);
+      result.put(
+        "idFile",
+        null == server.outputIDFile ? JSONObject.NULL : server.outputIDFile
+      );
+      result.put("status", server.status);
+      if (null != server.message) {
+        result.put("message", server.message);
+      }
+      result.put("durationMillis", server.durationMillis);
+      serverResults.put(result);
+      if (STATUS_REGISTERED.equals(server.status)) {
+        registered++;
+      } else if (!STATUS_SKIPPED.equals(server.status)) {
+        failed++;
+      }
+    }
+    JSONObject results = new JSONObject();
+    results.put("registered", registered);
+    results.put("failed", failed);
+    results.put("skipped", servers.size() - registered - failed);
+    results.put("servers", serverResults);
+    log(
+      "Registered " + registered + " of " + servers.size() + " server(s), " +
+      failed + " failed."
+    );
+
+    Writer writer = null;
+    try {
+      writer = new OutputStreamWriter(
+        new FileOutputStream(resultsFileName),
+        "UTF-8"
+      );
+      writer.write(results.toString(2));
+      log("Results written to '" + new File(resultsFileName).getAbsolutePath() + "'.");
+    } catch (Exception ex) {
+      log("Could not write results file '" + resultsFileName + "'.");
+      log(ex);
+    } finally {
+      if (null != writer) {
+        try {
+          writer.close();
+        } catch (Exception ex) {
+          // ignore
+        }
+      }
+    }
+    return failed;
+  }
+
   /**
    * Load the application properties, from the first available source here:<ul>
    *   <li>The file configured by the <code>app.properties.file</code> property (set with <code>-Dapp.properties.file=%file%</code>)</li>
@@ -351,6 +584,16 @@ public class CreateAdditionalServerJNA {
         "host.server.id.file",
         dataDirectory + "/server.id"
       );
+    workerCount =
+      NotesWorkerPool.parseWorkerCount(
+        properties.getProperty("additional.server.workers"),
+        4
+      );
+    resultsFileName =
+      properties.getProperty(
+        "additional.server.results.file",
+        "/tmp/CreateAdditionalServerJNA-results.json"
+      );
     // aclTemplate = properties.getProperty("acl.template.file", "default_cross_certify_acl.json");
     // successFileName = properties.getProperty("output.file", DEFAULT_SUCCESS_FILE);
     String debugStr = properties.getProperty("debug", "false");
@@ -1,46 +1,247 @@
 package net.prominic.domino.vagrant;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import lotus.domino.*;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
 /**
  * Create a blank database that may be used for DXL imports
+ * <p>
+ * With <code>--manifest=&lt;file.json&gt;</code>, many databases are created concurrently on a pool of Notes threads
+ * (see <code>--workers</code>).  The manifest is a JSON array of objects like:
+ * </p>
+ * <pre>
+ * {
+ *   "server": "",
+ *   "database": "apps/crm.nsf",
+ *   "title": "CRM",
+ *   "acl": [ { "name": "LocalDomainAdmins", "level": "manager", "type": "person_group", "roles": ["Admin"] } ],
+ *   "profile": "performance",
+ *   "options": { "COMPRESSDESIGN": true, "NOUNREAD": true }
+ * }
+ * </pre>
+ * <p>
+ * <code>server</code>, <code>title</code>, <code>acl</code>, <code>profile</code> and <code>options</code> are optional.
+ * Without <code>acl</code>, the default entries for a single database are used.  The ACL of each database is saved once,
+ * after all entries were updated.  Databases that already exist are skipped.
+ * </p>
+ * <p>
+ * A performance profile applies a set of database options and settings when the database is created
+ * (see {@link #PROFILES}).  <code>--profile=&lt;name&gt;</code> sets the profile for a single database, or for the
+ * manifest entries without a profile.  Explicit <code>options</code> override the profile.  The applied settings
+ * are read back from the database and reported.
+ * </p>
  */
 public class CreateDatabase {
 
     private static final String APP_NAME = "CreateDatabase";
-    private static final String USAGE = "java -jar CreateDatabase.jar <server> <database-name>";
+    public static final String USAGE = "java -jar CreateDatabase.jar [--profile=<name>] <server> <database-name>\n" +
+            "       java -jar CreateDatabase.jar [--profile=<name>] [--workers=<count>] --manifest=<manifest.json>\n" +
+            "Profiles:  default, performance, scratch";
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    /** ACL levels by manifest name */
+    private static final Map<String, Integer> ACL_LEVELS = new HashMap<String, Integer>();
+    /** ACL entry types by manifest name */
+    private static final Map<String, Integer> ACL_TYPES = new HashMap<String, Integer>();
+    /** Database options by manifest name, without the DBOPT_ prefix */
+    private static final Map<String, Integer> DATABASE_OPTIONS = new HashMap<String, Integer>();
+    /**
+     * The performance profiles by name:
+     * <ul>
+     * <li><code>default</code>:  the Domino defaults</li>
+     * <li><code>performance</code>:  no unread marks or headline monitoring, LZ1 attachment compression, compressed design
+     * and data, document table bitmap optimization, DAOS (if enabled on the server), and at most 10 entries in
+     * <code>$UpdatedBy</code> and <code>$Revisions</code></li>
+     * <li><code>scratch</code>:  <code>performance</code> without transaction logging, for databases that can be
+     * recreated</li>
+     * </ul>
+     */
+    public static final Map<String, PerformanceProfile> PROFILES = new LinkedHashMap<String, PerformanceProfile>();
+    static {
+        ACL_LEVELS.put("noaccess", ACL.LEVEL_NOACCESS);
+        ACL_LEVELS.put("depositor", ACL.LEVEL_DEPOSITOR);
+        ACL_LEVELS.put("reader", ACL.LEVEL_READER);
+        ACL_LEVELS.put("author", ACL.LEVEL_AUTHOR);
+        ACL_LEVELS.put("editor", ACL.LEVEL_EDITOR);
+        ACL_LEVELS.put("designer", ACL.LEVEL_DESIGNER);
+        ACL_LEVELS.put("manager", ACL.LEVEL_MANAGER);
+
+        ACL_TYPES.put("unspecified", ACLEntry.TYPE_UNSPECIFIED);
+        ACL_TYPES.put("person", ACLEntry.TYPE_PERSON);
+        ACL_TYPES.put("server", ACLEntry.TYPE_SERVER);
+        ACL_TYPES.put("mixed_group", ACLEntry.TYPE_MIXED_GROUP);
+        ACL_TYPES.put("person_group", ACLEntry.TYPE_PERSON_GROUP);
+        ACL_TYPES.put("server_group", ACLEntry.TYPE_SERVER_GROUP);
+
+        DATABASE_OPTIONS.put("COMPRESSDATA", Database.DBOPT_COMPRESSDATA);
+        DATABASE_OPTIONS.put("COMPRESSDESIGN", Database.DBOPT_COMPRESSDESIGN);
+        DATABASE_OPTIONS.put("LZ1", Database.DBOPT_LZ1);
+        DATABASE_OPTIONS.put("MAXUPDATESCOMPACT", Database.DBOPT_MAXUPDATESCOMPACT);
+        DATABASE_OPTIONS.put("NOHEADLINEMONITORS", Database.DBOPT_NOHEADLINEMONITORS);
+        DATABASE_OPTIONS.put("NOOVERWRITE", Database.DBOPT_NOOVERWRITE);
+        DATABASE_OPTIONS.put("NORESPONSEINFO", Database.DBOPT_NORESPONSEINFO);
+        DATABASE_OPTIONS.put("NOTRANSACTIONLOGGING", Database.DBOPT_NOTRANSACTIONLOGGING);
+        DATABASE_OPTIONS.put("NOUNREAD", Database.DBOPT_NOUNREAD);
+        DATABASE_OPTIONS.put("OPTIMIZATION", Database.DBOPT_OPTIMIZATION);
+        DATABASE_OPTIONS.put("USEDAOS", Database.DBOPT_USEDAOS);
+
+        PROFILES.put("default", new PerformanceProfile("default"));
+
+        PerformanceProfile performance = new PerformanceProfile("performance");
+        performance.options.put(Database.DBOPT_NOUNREAD, true);
+        performance.options.put(Database.DBOPT_NOHEADLINEMONITORS, true);
+        performance.options.put(Database.DBOPT_LZ1, true);
+        performance.options.put(Database.DBOPT_COMPRESSDESIGN, true);
+        performance.options.put(Database.DBOPT_COMPRESSDATA, true);
+        performance.options.put(Database.DBOPT_OPTIMIZATION, true);
+        performance.daos = true;
+        performance.limitUpdatedBy = 10;
+        performance.limitRevisions = 10;
+        PROFILES.put(performance.name, performance);
+
+        PerformanceProfile scratch = new PerformanceProfile("scratch");
+        scratch.options.putAll(performance.options);
+        scratch.options.put(Database.DBOPT_NOTRANSACTIONLOGGING, true);
+        scratch.daos = performance.daos;
+        scratch.limitUpdatedBy = performance.limitUpdatedBy;
+        scratch.limitRevisions = performance.limitRevisions;
+        PROFILES.put(scratch.name, scratch);
+    }
+
+    /**
+     * Options for CreateDatabase.
+     */
+    public static class CreateOptions {
+        /** A JSON manifest of the databases to create */
+        public File manifestFile = null;
+        /** Number of databases that are created concurrently in manifest mode */
+        public int workers = DEFAULT_WORKERS;
+        /** The profile for databases without an explicit profile, or <code>null</code> */
+        public PerformanceProfile profile = null;
+        /** The arguments that are not options */
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    /**
+     * Database options and settings that are applied when a database is created.
+     */
+    public static class PerformanceProfile {
+        public final String name;
+        /** DBOPT_ option to value */
+        public final Map<Integer, Boolean> options = new LinkedHashMap<Integer, Boolean>();
+        /** Enable or disable DAOS, or <code>null</code> to keep the default */
+        public Boolean daos = null;
+        /** The maximum number of <code>$UpdatedBy</code> entries, or -1 to keep the default */
+        public double limitUpdatedBy = -1;
+        /** The maximum number of <code>$Revisions</code> entries, or -1 to keep the default */
+        public double limitRevisions = -1;
+
+        public PerformanceProfile(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * One ACL entry to create or update.
+     */
+    public static class ACLEntrySpec {
+        public final String name;
+        public final int level;
+        /** The user type, or -1 to leave it unchanged */
+        public int userType = -1;
+        /** Roles to enable.  Missing roles are added to the ACL. */
+        public List<String> roles = new ArrayList<String>();
+        /** <code>false</code> to only create the entry if it is missing */
+        public boolean replace = true;
+
+        public ACLEntrySpec(String name, int level) {
+            this.name = name;
+            this.level = level;
+        }
+    }
+
+    /**
+     * A database to create, and the result in manifest mode.
+     */
+    public static class DatabaseSpec {
+        public final String server;
+        public final String databaseName;
+        /** The title, or <code>null</code> to use the file name without the directory and extension */
+        public String title = null;
+        public List<ACLEntrySpec> aclEntries = new ArrayList<ACLEntrySpec>();
+        /** The performance profile, or <code>null</code> */
+        public PerformanceProfile profile = null;
+        /** DBOPT_ option to value.  These override the profile. */
+        public Map<Integer, Boolean> options = new LinkedHashMap<Integer, Boolean>();
+        /** The settings that were applied, as read back from the database */
+        public String applied = null;
+        /** pending, created, exists, failed or skipped */
+        public String status = "pending";
+        public String message = null;
+        public long durationMillis = 0;
+
+        public DatabaseSpec(String server, String databaseName) {
+            this.server = server;
+            this.databaseName = databaseName;
+        }
+    }
 
     public static void main(String[] args) {
+        // hand the command to a running HelperDaemon if one is available
+        int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+        if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+            System.exit(daemonStatus);
+        }
+
         Session session = null;
+        boolean threadInitialized = false;
         try {
             System.out.println("Application '" + APP_NAME + "' started.");
 
-			if (args.length < 2) {
+			CreateOptions options = parseOptions(args);
+			if (null != options.manifestFile) {
+				if (!createDatabases(readManifest(options.manifestFile, options.profile), options.workers)) {
+					System.exit(1);
+				}
+				return;
+			}
+			if (options.arguments.size() < 2) {
 				System.err.println("ERROR: Not enough arguments.");
 				System.err.println("USAGE:  " + USAGE);
 				System.exit(1);
 			}
-			String server = args[0];
-			String databaseName = args[1];
+			String server = options.arguments.get(0);
+			String databaseName = options.arguments.get(1);
 
 
             NotesThread.sinitThread();
+            threadInitialized = true;
 
-            // If a password is available on the command line, use that when creating the session
-            String password = System.getenv("PASSWORD");
-            if (null == password || password.trim().isEmpty()) {
-                System.out.println("No password found.");
-                session = NotesFactory.createSession();
-            }
-            else {
-                System.out.println("Password found.");
-                session = NotesFactory.createSession((String)null, (String)null, password);
-            }
+            session = NotesWorkerPool.createSession();
             System.out.println("Running as user: '" + session.getUserName() + "'.");
 
-            createDatabase(session, server, databaseName);
+            createDatabase(session, server, databaseName, options.profile);
 
 
             System.out.println(databaseName + " is ready for use.");
@@ -60,13 +261,262 @@ public class CreateDatabase {
             catch(NotesException ex) {
                 ex.printStackTrace();
             }
-            NotesThread.stermThread();
+            if (threadInitialized) {
+                NotesThread.stermThread();
+            }
             System.out.println("Application '" + APP_NAME + "' completed.");
         }
     }
 
+    /**
+     * Parse the leading <code>--option=value</code> arguments.
+     * @param args  the command-line arguments
+     * @return the options, with the remaining arguments
+     * @throws Exception if an option is invalid
+     */
+    public static CreateOptions parseOptions(String[] args) throws Exception {
+        CreateOptions options = new CreateOptions();
+        for (String arg : args) {
+            if (!options.arguments.isEmpty() || !arg.startsWith("--")) {
+                options.arguments.add(arg);
+            }
+            else if (arg.startsWith("--manifest=")) {
+                options.manifestFile = new File(arg.substring("--manifest=".length()));
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = NotesWorkerPool.parseWorkerCount(arg.substring("--workers=".length()), DEFAULT_WORKERS);
+            }
+            else if (arg.startsWith("--profile=")) {
+                options.profile = getProfile(arg.substring("--profile=".length()));
+            }
+            else {
+                throw new Exception("Unknown option '" + arg + "'.  USAGE:  " + USAGE);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Get a performance profile by name.
+     * @throws Exception if there is no such profile
+     */
+    public static PerformanceProfile getProfile(String name) throws Exception {
+        PerformanceProfile profile = PROFILES.get(name.trim().toLowerCase());
+        if (null == profile) {
+            throw new Exception("Unknown profile '" + name + "'.  Available profiles:  " + PROFILES.keySet());
+        }
+        return profile;
+    }
+
+    /**
+     * Read the databases from a JSON manifest.
+     * @param defaultProfile  the profile for entries without a profile, or <code>null</code>
+     * @throws Exception if the manifest is invalid or lists a database twice
+     */
+    public static List<DatabaseSpec> readManifest(File manifestFile, PerformanceProfile defaultProfile) throws Exception {
+        if (!manifestFile.exists()) {
+            throw new Exception("Manifest file not found at:  '" + manifestFile.getAbsolutePath() + "'.");
+        }
+        JSONArray manifest;
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest = (JSONArray) new JSONTokener(in).nextValue();
+        }
+        catch (Exception ex) {
+            throw new Exception("Could not read manifest '" + manifestFile.getAbsolutePath() + "'.", ex);
+        }
+        finally {
+            in.close();
+        }
+
+        List<DatabaseSpec> specs = new ArrayList<DatabaseSpec>();
+        Set<String> keys = new HashSet<String>();
+        for (int i = 0; i < manifest.length(); i++) {
+            JSONObject entry = manifest.getJSONObject(i);
+            DatabaseSpec spec = new DatabaseSpec(entry.optString("server", ""), entry.getString("database"));
+            if (!keys.add(spec.server.toLowerCase() + "!!" + spec.databaseName.toLowerCase())) {
+                throw new Exception("Database '" + spec.databaseName + "' is listed more than once in the manifest.");
+            }
+            if (entry.has("title")) {
+                spec.title = entry.getString("title");
+            }
+            spec.profile = entry.has("profile") ? getProfile(entry.getString("profile")) : defaultProfile;
+            JSONArray acl = entry.optJSONArray("acl");
+            if (null == acl) {
+                spec.aclEntries.addAll(getDefaultACLEntries());
+            }
+            else {
+                for (int j = 0; j < acl.length(); j++) {
+                    spec.aclEntries.add(parseACLEntry(spec.databaseName, acl.getJSONObject(j)));
+                }
+            }
+            JSONObject options = entry.optJSONObject("options");
+            if (null != options) {
+                for (String optionName : options.keySet()) {
+                    Integer option = DATABASE_OPTIONS.get(optionName.toUpperCase().replaceFirst("^DBOPT_", ""));
+                    if (null == option) {
+                        throw new Exception("Unknown database option '" + optionName + "' for '" + spec.databaseName + "'.");
+                    }
+                    spec.options.put(option, options.getBoolean(optionName));
+                }
+            }
+            specs.add(spec);
+        }
+        return specs;
+    }
+
+    private static ACLEntrySpec parseACLEntry(String databaseName, JSONObject entry) throws Exception {
+        String levelName = entry.optString("level", "reader");
+        Integer level = ACL_LEVELS.get(levelName.toLowerCase());
+        if (null == level) {
+            throw new Exception("Unknown ACL level '" + levelName + "' for '" + databaseName + "'.");
+        }
+        ACLEntrySpec spec = new ACLEntrySpec(entry.getString("name"), level);
+        if (entry.has("type")) {
+            Integer userType = ACL_TYPES.get(entry.getString("type").toLowerCase());
+            if (null == userType) {
+                throw new Exception("Unknown ACL entry type '" + entry.getString("type") + "' for '" + databaseName + "'.");
+            }
+            spec.userType = userType;
+        }
+        JSONArray roles = entry.optJSONArray("roles");
+        if (null != roles) {
+            for (int i = 0; i < roles.length(); i++) {
+                spec.roles.add(roles.getString(i));
+            }
+        }
+        return spec;
+    }
+
+    /**
+     * The ACL entries for a database without an explicit ACL:  add <code>-Default-</code> as Manager and
+     * <code>Anonymous</code> as Editor, unless they already exist.
+     */
+    public static List<ACLEntrySpec> getDefaultACLEntries() {
+        List<ACLEntrySpec> entries = new ArrayList<ACLEntrySpec>();
+        ACLEntrySpec defaultEntry = new ACLEntrySpec("-Default-", ACL.LEVEL_MANAGER);
+        defaultEntry.replace = false;
+        entries.add(defaultEntry);
+        ACLEntrySpec anonymousEntry = new ACLEntrySpec("Anonymous", ACL.LEVEL_EDITOR);   // this should be sufficient for most agents
+        anonymousEntry.userType = ACLEntry.TYPE_PERSON;
+        anonymousEntry.replace = false;
+        // minimal roles for agent - included in EDITOR
+        entries.add(anonymousEntry);
+        return entries;
+    }
+
+    /**
+     * Create the databases with a pool of Notes worker threads.
+     * The databases are distributed over the workers, and each worker creates its databases in order with its own session.
+     * @param specs  the databases to create.  The results are stored in the specs.
+     * @param workers  the number of workers
+     * @return <code>true</code> if no database failed
+     */
+    public static boolean createDatabases(List<DatabaseSpec> specs, int workers) throws Exception {
+        int workerCount = Math.min(Math.max(1, workers), Math.max(1, specs.size()));
+        // the databases are taken from a shared queue, so that a slow create does not hold up the databases behind it
+        final Queue<DatabaseSpec> queue = new ConcurrentLinkedQueue<DatabaseSpec>(specs);
+        System.out.println("Creating " + specs.size() + " database(s) with " + workerCount + " worker(s).");
+
+        ExecutorService pool = NotesWorkerPool.create(APP_NAME, workerCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workerCount; i++) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        createQueuedDatabases(queue);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            NotesWorkerPool.shutdown(pool);
+        }
+
+        // only left if no worker could create a session
+        for (DatabaseSpec spec : specs) {
+            if ("pending".equals(spec.status)) {
+                spec.status = "skipped";
+                spec.message = "Could not create a session.";
+            }
+        }
+
+        int failed = 0;
+        System.out.println("## Create summary");
+        for (DatabaseSpec spec : specs) {
+            if (!"created".equals(spec.status) && !"exists".equals(spec.status)) {
+                failed++;
+            }
+            System.out.println(spec.status + "\t" + spec.durationMillis + " ms\t" + spec.server + "!!" + spec.databaseName +
+                    (null == spec.applied ? "" : "\t" + spec.applied) + (null == spec.message ? "" : "\t" + spec.message));
+        }
+        System.out.println("## End summary:  " + (specs.size() - failed) + " of " + specs.size() + " database(s) are ready.");
+        return failed == 0;
+    }
+
+    /**
+     * Create databases from the queue on the current thread until it is empty.
+     * If the session can not be created, the databases are left for the other workers.
+     */
+    protected static void createQueuedDatabases(Queue<DatabaseSpec> queue) {
+        Session session = null;
+        try {
+            session = NotesWorkerPool.createSession();
+            DatabaseSpec spec;
+            while (null != (spec = queue.poll())) {
+                long start = System.currentTimeMillis();
+                try {
+                    spec.status = createDatabase(session, spec) ? "created" : "exists";
+                }
+                catch (Exception ex) {
+                    ex.printStackTrace();
+                    spec.status = "failed";
+                    spec.message = ex instanceof NotesException ? ((NotesException) ex).text : ex.getMessage();
+                }
+                spec.durationMillis = System.currentTimeMillis() - start;
+            }
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        finally {
+            try {
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
 
     public static void createDatabase(Session session, String server, String databaseName) throws NotesException, Exception {
+        createDatabase(session, server, databaseName, null);
+    }
+
+    /**
+     * Create a database with the default ACL entries and the given performance profile.
+     * @param profile  the profile, or <code>null</code> to keep the Domino defaults
+     */
+    public static void createDatabase(Session session, String server, String databaseName, PerformanceProfile profile) throws NotesException, Exception {
+        DatabaseSpec spec = new DatabaseSpec(server, databaseName);
+        spec.aclEntries.addAll(getDefaultACLEntries());
+        spec.profile = profile;
+        createDatabase(session, spec);
+    }
+
+    /**
+     * Create a database with the title, ACL and options from the spec.
+     * @return <code>true</code> if the database was created, <code>false</code> if it already existed
+     */
+    public static boolean createDatabase(Session session, DatabaseSpec spec) throws NotesException, Exception {
+        String server = spec.server;
+        String databaseName = spec.databaseName;
 		DbDirectory dbDirectory = null;
 		Database database = null;
 		ACL acl = null;
@@ -77,7 +527,7 @@ public class CreateDatabase {
 			database = session.getDatabase(server, databaseName, false);  
 			if (null != database) {
 				System.out.println("Database '" + databaseName + "' already exists.  Skipping..."); 
-				return;
+				return false;
 				// TODO:  delete instead?
 			}
         	
@@ -97,43 +547,30 @@ public class CreateDatabase {
             // check for a duplicate if I run against an existing database
             defaultView = database.createView();   // Default is "(default)", SELECT @All, single column for @DocNumber
             
-            // For the title, use the database name, but strip the directory and extension
-            String title = databaseName;
-            int index = title.lastIndexOf('.');
-            if (index >= 0) {
-            		title = title.substring(0, index);
-            }
-            index = title.lastIndexOf("/");
-            if (index < 0) { // no match
-            		index = title.lastIndexOf("\\");  // try backslash instead
-        		}
-        		if (index >= 0) {
-        			title = title.substring(index + 1);
-        		}
+            // Use the given title, or the database name without the directory and extension
+            String title = null == spec.title ? getDefaultTitle(databaseName) : spec.title;
             System.out.println("Setting title to '" + title + "'.");
             database.setTitle(title);
+
+            applySettings(database, spec);
             
-            // Update the ACL
-            // Update default to allow user access from Notes or Designer
+            // Update the ACL, and save it once
             // TODO: support user ID
             System.out.println("Setting ACL for database '" + databaseName + "'.");
             acl = database.getACL();
-            ACLEntry defaultEntry = acl.getEntry("-Default-");
-            if (null == defaultEntry) {
-            		defaultEntry = acl.createACLEntry("-Default-", ACL.LEVEL_MANAGER);
-            }
-            ACLEntry anonymousEntry = acl.getEntry("Anonymous");
-            if (null == anonymousEntry) {
-            		anonymousEntry = acl.createACLEntry("Anonymous", ACL.LEVEL_EDITOR);   // this should be sufficient for most agents
-            		anonymousEntry.setUserType(ACLEntry.TYPE_PERSON);
-            		// minimal roles for agent - included in EDITOR
-            		// anonymousEntry.setPublicReader(true);
-            		// anonymousEntry.setPublicWriter(true);
-            		// anonymousEntry.setCanReplicateOrCopyDocuments(true); 
+            for (ACLEntrySpec entrySpec : spec.aclEntries) {
+                updateACLEntry(acl, entrySpec);
             }
-            
+            acl.save();
+            return true;
         }
         finally {
+            if (null != acl) {
+                acl.recycle();
+            }
+            if (null != defaultView) {
+                defaultView.recycle();
+            }
             if (null != database) {
                 database.recycle();
             }
@@ -143,4 +580,134 @@ public class CreateDatabase {
         }
 
     }
+
+    /**
+     * Apply the options from the profile and the spec, then read them back and report the result.
+     * A setting that could not be applied (e.g. DAOS on a server without DAOS) is reported, but does not fail the database.
+     */
+    protected static void applySettings(Database database, DatabaseSpec spec) throws NotesException {
+        if (null == spec.profile && spec.options.isEmpty()) {
+            return;
+        }
+        Map<Integer, Boolean> options = new LinkedHashMap<Integer, Boolean>();
+        if (null != spec.profile) {
+            options.putAll(spec.profile.options);
+        }
+        options.putAll(spec.options);
+
+        for (Map.Entry<Integer, Boolean> option : options.entrySet()) {
+            database.setOption(option.getKey(), option.getValue());
+        }
+        String daosError = null;
+        if (null != spec.profile) {
+            if (null != spec.profile.daos) {
+                try {
+                    database.setDAOSEnabled(spec.profile.daos);
+                }
+                catch (NotesException ex) {
+                    daosError = ex.text;
+                }
+            }
+            if (spec.profile.limitUpdatedBy >= 0) {
+                database.setLimitUpdatedBy(spec.profile.limitUpdatedBy);
+            }
+            if (spec.profile.limitRevisions >= 0) {
+                database.setLimitRevisions(spec.profile.limitRevisions);
+            }
+        }
+
+        // Read back the same settings for every profile, so that the reports can be compared
+        Set<Integer> reported = new LinkedHashSet<Integer>();
+        for (PerformanceProfile profile : PROFILES.values()) {
+            reported.addAll(profile.options.keySet());
+        }
+        reported.addAll(options.keySet());
+        List<String> applied = new ArrayList<String>();
+        for (Integer option : reported) {
+            boolean value = database.getOption(option);
+            Boolean requested = options.get(option);
+            applied.add(getOptionName(option) + "=" + value + (null == requested || value == requested ? "" : " (requested " + requested + ")"));
+        }
+        if (null != daosError) {
+            applied.add("DAOS=unavailable (" + daosError + ")");
+        }
+        else {
+            try {
+                applied.add("DAOS=" + database.isDAOSEnabled());
+            }
+            catch (NotesException ex) {
+                applied.add("DAOS=unavailable (" + ex.text + ")");
+            }
+        }
+        applied.add("LimitUpdatedBy=" + (int) database.getLimitUpdatedBy());
+        applied.add("LimitRevisions=" + (int) database.getLimitRevisions());
+        spec.applied = (null == spec.profile ? "" : "profile " + spec.profile.name + ":  ") + String.join(", ", applied);
+        System.out.println("Applied to '" + spec.databaseName + "':  " + spec.applied);
+    }
+
+    /**
+     * Get the manifest name for a DBOPT_ option.
+     */
+    protected static String getOptionName(int option) {
+        for (Map.Entry<String, Integer> entry : DATABASE_OPTIONS.entrySet()) {
+            if (entry.getValue() == option) {
+                return entry.getKey();
+            }
+        }
+        return "DBOPT_" + option;
+    }
+
+    /**
+     * Use the database name, but strip the directory and extension.
+     */
+    protected static String getDefaultTitle(String databaseName) {
+        String title = databaseName;
+        int index = title.lastIndexOf('.');
+        if (index >= 0) {
+            title = title.substring(0, index);
+        }
+        index = title.lastIndexOf("/");
+        if (index < 0) { // no match
+            index = title.lastIndexOf("\\");  // try backslash instead
+        }
+        if (index >= 0) {
+            title = title.substring(index + 1);
+        }
+        return title;
+    }
+
+    /**
+     * Create or update an ACL entry.  The ACL is not saved.
+     */
+    protected static void updateACLEntry(ACL acl, ACLEntrySpec spec) throws NotesException {
+        ACLEntry entry = acl.getEntry(spec.name);
+        if (null == entry) {
+            entry = acl.createACLEntry(spec.name, spec.level);
+        }
+        else if (!spec.replace) {
+            entry.recycle();
+            return;
+        }
+        else {
+            entry.setLevel(spec.level);
+        }
+        try {
+            if (spec.userType >= 0) {
+                entry.setUserType(spec.userType);
+            }
+            if (!spec.roles.isEmpty()) {
+                for (String role : spec.roles) {
+                    String roleName = role.replaceAll("^\\[|\\]$", "");
+                    Vector<?> existingRoles = acl.getRoles();
+                    if (!existingRoles.contains("[" + roleName + "]")) {
+                        acl.addRole(roleName);
+                    }
+                    entry.enableRole("[" + roleName + "]");
+                }
+            }
+        }
+        finally {
+            entry.recycle();
+        }
+    }
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,12 +35,14 @@ public class CreateUser extends AgentBase {
 
  
 	public static void main(String[] args) {
+		// hand the command to a running HelperDaemon if one is available
+		int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+		if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+			System.exit(daemonStatus);
+		}
+
 		Session session = null;
-		DateTime dt = null;
-		FileInputStream fis = null;
-		Database namesDatabase = null;
-		View userView = null;
-		IDVault idVault = null;
+		int status = 0;
 		try {
 			log("Application '" + APP_NAME + "' started.");
 			
@@ -49,41 +52,73 @@ public class CreateUser extends AgentBase {
 			loadSharedProperties();
 
 			// The JSON file used for Domino server setup can also be used for for this configuration
-			fis = new FileInputStream(settingsFile);
-			JSONObject json = (JSONObject)new JSONTokener(fis).nextValue();
-			JSONObject serverSetup = json.getJSONObject("serverSetup");
-			JSONObject serverConfig = serverSetup.getJSONObject("server");
+			JSONObject serverSetup = readServerSetup();
 
-			
 			// Arguments:
 			if (args.length < 1) {
 				throw new Exception("No properties file specified for the new user.");
 			}
-			String userPropertiesFileName = args[0];
-			File userPropertiesFile = new File(userPropertiesFileName);
-			if (!userPropertiesFile.exists()) {
-				throw new Exception("Could not find file '" + userPropertiesFileName + "'.");
+			boolean bulkMode = args[0].equals(BulkUserRegistration.BULK_OPTION);
+			if (bulkMode && args.length < 2) {
+				throw new Exception("USAGE:  " + BulkUserRegistration.USAGE);
 			}
-			log("Loading additional server properties:  '" + userPropertiesFile.getAbsolutePath() + "'.");
-			Properties userProperties = new Properties();
-			try {
-				fis = new FileInputStream(userPropertiesFile);
-				userProperties.load(fis);
+			Properties userProperties = bulkMode ? null : readUserProperties(args[0]);
+
+			// Create the session
+			// currently we are using the admin user for actions like this
+			String adminPassword = serverSetup.getJSONObject("admin").getString("password");
+			String sessionServer = null; // local server
+			String sessionUser = null;  // default user
+			debug("NotesFactory.createSession");
+			session = NotesFactory.createSession(sessionServer, args, sessionUser, adminPassword);
+			log("Running on Notes Version: '" + session.getNotesVersion() + "'.");
+			
+			if (bulkMode) {
+				Properties bulkSettings = args.length >= 3 ? readUserProperties(args[2]) : new Properties();
+				BulkUserRegistration.registerUsers(session, serverSetup, new File(args[1]), bulkSettings);
 			}
-			catch (Exception ex) {
-				throw new Exception("Could not load properties file '" + userPropertiesFile.getAbsolutePath() + "'." );
+			else {
+				createUser(session, serverSetup, userProperties);
 			}
-			finally {
-				if (null != fis) {
-					try {
-						fis.close();
-					}
-					catch (Exception ex) {
-						// ignore
-					}
+		}
+		catch (Throwable throwable) {
+			throwable.printStackTrace();
+			status = 1;
+		}
+		finally {
+			try {
+				if (null != session) {
+					session.recycle();
 				}
 			}
-			
+			catch (Exception ex) {
+				ex.printStackTrace();
+			}
+			NotesThread.stermThread();
+			log("Application '" + APP_NAME + "' completed.");
+		}
+		// report failures to Ansible, like the HelperDaemon does for delegated runs
+		System.exit(status);
+	}
+
+	/**
+	 * Register a new user from the given user properties.
+	 * Requires {@link #loadSharedProperties()} to have been called.
+	 * This does not recycle the session, so it can also be called from {@link HelperDaemon}.
+	 * @param session  the Domino session to use
+	 * @param serverSetup  the <code>serverSetup</code> object from setup.json
+	 * @param userProperties  the configuration for the new user
+	 * @throws Exception if the configuration is invalid or the registration failed
+	 */
+	public static void createUser(Session session, JSONObject serverSetup, Properties userProperties) throws Exception {
+		DateTime dt = null;
+		Registration reg = null;
+		Database namesDatabase = null;
+		View userView = null;
+		IDVault idVault = null;
+		try {
+			JSONObject serverConfig = serverSetup.getJSONObject("server");
+
 			// Read from server configuration:
 			String domainName = serverConfig.getString("domainName");
 			String server = serverConfig.getString("name");
@@ -91,8 +126,6 @@ public class CreateUser extends AgentBase {
 			
 
 			// load properties from user configuration
-			String firstName = readRequiredProperty(userProperties, "firstName");
-			String lastName = readRequiredProperty(userProperties, "lastName");
 			String shortName = readRequiredProperty(userProperties, "shortName");
 			String userPassword = readRequiredProperty(userProperties, "password");
 			String idFile = readRequiredProperty(userProperties, "idFile");
@@ -100,20 +133,8 @@ public class CreateUser extends AgentBase {
 			
 			// optional properties - normally shouldn't be set
             boolean deployToIDVault = readBooleanProperty(userProperties, "deployToIDVault", true);
-            String middleInitial = userProperties.getProperty("middleInitial", "");
-            String location = userProperties.getProperty("location", "");
-            String comment = userProperties.getProperty("comment", "Generated by CreateUser.jar");
             String mailFilePath = userProperties.getProperty("mailFilePath", ""); //"mail/" + shortName + ".db");
             String mailInternetAddress = userProperties.getProperty("mailInternetAddress", ""); //shortName + "@" + domain);
-            String forward = userProperties.getProperty("forward", "");
-            String expirationDaysStr = userProperties.getProperty("expirationDays", "30");
-            String minPasswordLengthStr = userProperties.getProperty("minPasswordLength", "1");  // password validated separately
-            boolean northAmerican = readBooleanProperty(userProperties, "northAmerican", true);
-            String orgUnitName = userProperties.getProperty("orgUnitName", "");
-            String registrationLog = userProperties.getProperty("registrationLog", "log.nsf");
-            boolean updateAddressBook = readBooleanProperty(userProperties, "updateAddressBook", true);
-            boolean storeIDInAddressBook = readBooleanProperty(userProperties, "storeIDInAddressBook", true);
-            boolean syncInternetPassword = readBooleanProperty(userProperties, "syncInternetPassword", true);
             
 			// Check that ID file does not exist
 			File idFileTest = new File(idFile);
@@ -121,10 +142,6 @@ public class CreateUser extends AgentBase {
 				throw new Exception("Target ID file already exists: '" + idFile + "'.");
 			}
             
-            boolean createMailDB = false;
-            if (null != mailFilePath && !mailFilePath.trim().isEmpty()) {
-            		createMailDB = true;
-            }
             // validation
             if (null != mailFilePath && !mailFilePath.trim().isEmpty()) {
             		File mailFilePathTest = new File(mailFilePath);
@@ -136,32 +153,9 @@ public class CreateUser extends AgentBase {
 					// TODO:  mail file needs to be relative to data directory
 					// TODO:  java_user does not have permissions for %datadir%/mail
     			}
-            int expirationDays = 30;
-            try {
-            		expirationDays = Integer.parseInt(expirationDaysStr);
-            }
-            catch (NumberFormatException ex) {
-            		throw new Exception("Invalid integer value for property 'expirationDays':  '" + expirationDaysStr + "'.");
-            }
-            int minPasswordLength = 1;
-            try {
-            		minPasswordLength = Integer.parseInt(minPasswordLengthStr);
-            }
-            catch (NumberFormatException ex) {
-            		throw new Exception("Invalid integer value for property 'minPasswordLength':  '" + minPasswordLengthStr + "'.");
-            }
-			
 			
 			
 			
-			// Create the session
-			// currently we are using the admin user for actions like this
-			String adminPassword = serverSetup.getJSONObject("admin").getString("password");
-			String sessionServer = null; // local server
-			String sessionUser = null;  // default user
-			debug("NotesFactory.createSession");
-			session = NotesFactory.createSession(sessionServer, args, sessionUser, adminPassword);
-			log("Running on Notes Version: '" + session.getNotesVersion() + "'.");
 			
 			// Uniqueness verification:
 			namesDatabase = session.getDatabase(server, "names.nsf", false);
@@ -169,23 +163,12 @@ public class CreateUser extends AgentBase {
 				throw new Exception("Could not open names database:  " + server + "!names.nsf");
 			}
 			// Compute the full username and check for uniqueness
-			ArrayList<String> namesToCheck = new ArrayList<String>();
 			userView = namesDatabase.getView("($Users)");
 			if (null == userView) { 
 				throw new Exception("Could not open user view");
 			}
-			String computedSuffix = domainName;
-			if (null != orgUnitName && !orgUnitName.trim().isEmpty()) {
-				computedSuffix = orgUnitName + "/" + domainName;
-			}
-			String computedName = firstName + " " + lastName;
-			namesToCheck.add(computedName);
-			if (null != middleInitial && !middleInitial.trim().isEmpty()) {
-				computedName = firstName + " " + middleInitial + " " + lastName;
-				namesToCheck.add(computedName);
-			}
-			String fullName = computedName + "/" + computedSuffix;
-			namesToCheck.add(fullName);
+			List<String> namesToCheck = getNamesToCheck(userProperties, domainName);
+			String fullName = namesToCheck.get(namesToCheck.size() - 1);
 			assertUnique("shortName", userView, shortName);
 			for (String nameToCheck : namesToCheck) {
 				assertUnique("Full Name", userView, nameToCheck);
@@ -208,107 +191,241 @@ public class CreateUser extends AgentBase {
             // TODO:  mailInternetAddress - find a view for this.
 			
 
-			Registration reg = session.createRegistration();
-			
-			reg.setCreateMailDb(createMailDB);
-			reg.setRegistrationServer(server);
-			reg.setCertifierIDFile(certID);
-			
-			dt = session.createDateTime(new Date());
-			dt.adjustDay(expirationDays);
-			System.out.print("expirationDate:"+dt.toString());
-			reg.setExpiration(dt);
-			
-			reg.setIDType(Registration.ID_HIERARCHICAL);
-			reg.setMinPasswordLength(minPasswordLength); // password strength
-			reg.setNorthAmerican(northAmerican);
-			if(orgUnitName.length() > 0){
-				reg.setOrgUnit(orgUnitName);
-			}
-			reg.setRegistrationLog(registrationLog);
-			reg.setUpdateAddressBook(updateAddressBook);
-			reg.setStoreIDInAddressBook(storeIDInAddressBook);
-			reg.setShortName(shortName);
-			reg.setSynchInternetPassword(syncInternetPassword);
-			boolean successful = reg.registerNewUser(lastName, // last name
-					idFile, // file to be created
-					server, // mail server
-					firstName, // first name
-				middleInitial, // middle initial
-				certIDPassword, // certifier password
-				location, // location field
-				comment, // comment field
-				mailFilePath, // mail file
-				forward, // forwarding domain
-				userPassword); //user password
-			if (successful) { 
-				log("User created successfully.  Find the new ID file at '" + idFile + "'.");
-			}
-			else { 
-				throw new Exception("Failed to create new user.");
-			}
+			reg = session.createRegistration();
+			dt = configureRegistration(session, reg, userProperties, server);
+			registerUser(reg, userProperties, server, certIDPassword);
 
-			// refresh the view
-			debug("userView('($Users)').refresh()");
-			userView.refresh();
+			refreshUserViews(namesDatabase, userView);
 
-			// force refresh of ($ServerAccess) to update access rights for new user
-			View refreshView = null;
-			String viewName = "($ServerAccess)";
-			try {
-				debug("namesDatabase.getView('" + viewName + "'");
-				refreshView = namesDatabase.getView(viewName);
-				if (null != refreshView) {
-					debug("refreshView('($ServerAccess)').refresh()");
-					refreshView.refresh();
-				}
-				else {
-					log("Could not open view '" + viewName + "'.");
-				}
+			if (deployToIDVault) {
+				uploadToIDVault(idVault, idFile, fullName, userPassword, server);
 			}
-			catch (Exception ex) {
-				log("Could not refresh view '" + viewName + "'.");
+
+		}
+		finally {
+			if (null != dt) {  dt.recycle(); }
+			if (null != reg) {  reg.recycle(); }
+			if (null != idVault) {  idVault.recycle(); }
+			if (null != userView) {  userView.recycle(); }
+			if (null != namesDatabase) {  namesDatabase.recycle(); }
+		}
+	}
+
+	/**
+	 * Apply the registration options that are shared by all users to the given Registration.
+	 * Mail files are not supported, so no mail database is created.
+	 * @param session  the Domino session
+	 * @param reg  the Registration to configure
+	 * @param properties  the user or bulk configuration.  Only the optional registration options are read.
+	 * @param server  the registration server
+	 * @return the expiration DateTime, which should be recycled by the caller when the Registration is no longer used
+	 * @throws Exception if an option is invalid
+	 */
+	protected static DateTime configureRegistration(Session session, Registration reg, Properties properties, String server) throws Exception {
+		int expirationDays = readIntProperty(properties, "expirationDays", 30);
+		int minPasswordLength = readIntProperty(properties, "minPasswordLength", 1);  // password validated separately
+		boolean northAmerican = readBooleanProperty(properties, "northAmerican", true);
+		String orgUnitName = properties.getProperty("orgUnitName", "");
+		String registrationLog = properties.getProperty("registrationLog", "log.nsf");
+		boolean updateAddressBook = readBooleanProperty(properties, "updateAddressBook", true);
+		boolean storeIDInAddressBook = readBooleanProperty(properties, "storeIDInAddressBook", true);
+		boolean syncInternetPassword = readBooleanProperty(properties, "syncInternetPassword", true);
+
+		reg.setCreateMailDb(false);
+		reg.setRegistrationServer(server);
+		reg.setCertifierIDFile(certID);
+		
+		DateTime dt = session.createDateTime(new Date());
+		dt.adjustDay(expirationDays);
+		System.out.print("expirationDate:"+dt.toString());
+		reg.setExpiration(dt);
+		
+		reg.setIDType(Registration.ID_HIERARCHICAL);
+		reg.setMinPasswordLength(minPasswordLength); // password strength
+		reg.setNorthAmerican(northAmerican);
+		if(orgUnitName.length() > 0){
+			reg.setOrgUnit(orgUnitName);
+		}
+		reg.setRegistrationLog(registrationLog);
+		reg.setUpdateAddressBook(updateAddressBook);
+		reg.setStoreIDInAddressBook(storeIDInAddressBook);
+		reg.setSynchInternetPassword(syncInternetPassword);
+		return dt;
+	}
+
+	/**
+	 * Register a single user with a Registration prepared by {@link #configureRegistration(Session, Registration, Properties, String)}.
+	 * @param reg  the configured Registration
+	 * @param userProperties  the configuration for the new user
+	 * @param server  the registration and mail server
+	 * @param certIDPassword  the certifier password
+	 * @throws Exception if the registration failed
+	 */
+	protected static void registerUser(Registration reg, Properties userProperties, String server, String certIDPassword) throws Exception {
+		String firstName = readRequiredProperty(userProperties, "firstName");
+		String lastName = readRequiredProperty(userProperties, "lastName");
+		String shortName = readRequiredProperty(userProperties, "shortName");
+		String userPassword = readRequiredProperty(userProperties, "password");
+		String idFile = readRequiredProperty(userProperties, "idFile");
+		String middleInitial = userProperties.getProperty("middleInitial", "");
+		String location = userProperties.getProperty("location", "");
+		String comment = userProperties.getProperty("comment", "Generated by CreateUser.jar");
+		String mailFilePath = userProperties.getProperty("mailFilePath", "");
+		String forward = userProperties.getProperty("forward", "");
+
+		reg.setShortName(shortName);
+		boolean successful = reg.registerNewUser(lastName, // last name
+				idFile, // file to be created
+				server, // mail server
+				firstName, // first name
+			middleInitial, // middle initial
+			certIDPassword, // certifier password
+			location, // location field
+			comment, // comment field
+			mailFilePath, // mail file
+			forward, // forwarding domain
+			userPassword); //user password
+		if (successful) { 
+			log("User created successfully.  Find the new ID file at '" + idFile + "'.");
+		}
+		else { 
+			throw new Exception("Failed to create new user.");
+		}
+	}
+
+	/**
+	 * Compute the names for the given user that need to be unique in the directory.
+	 * @param userProperties  the configuration for the user
+	 * @param domainName  the organization of the registration server
+	 * @return the common name(s), followed by the full hierarchical name as the last element
+	 * @throws Exception if a required property is missing
+	 */
+	protected static List<String> getNamesToCheck(Properties userProperties, String domainName) throws Exception {
+		String firstName = readRequiredProperty(userProperties, "firstName");
+		String lastName = readRequiredProperty(userProperties, "lastName");
+		String middleInitial = userProperties.getProperty("middleInitial", "");
+		String orgUnitName = userProperties.getProperty("orgUnitName", "");
+
+		ArrayList<String> namesToCheck = new ArrayList<String>();
+		String computedSuffix = domainName;
+		if (null != orgUnitName && !orgUnitName.trim().isEmpty()) {
+			computedSuffix = orgUnitName + "/" + domainName;
+		}
+		String computedName = firstName + " " + lastName;
+		namesToCheck.add(computedName);
+		if (null != middleInitial && !middleInitial.trim().isEmpty()) {
+			computedName = firstName + " " + middleInitial + " " + lastName;
+			namesToCheck.add(computedName);
+		}
+		String fullName = computedName + "/" + computedSuffix;
+		namesToCheck.add(fullName);
+		return namesToCheck;
+	}
+
+	/**
+	 * Refresh the views that need to include new users.
+	 * @param namesDatabase  the names database
+	 * @param userView  the ($Users) view
+	 */
+	protected static void refreshUserViews(Database namesDatabase, View userView) throws NotesException {
+		// refresh the view
+		debug("userView('($Users)').refresh()");
+		userView.refresh();
+
+		// force refresh of ($ServerAccess) to update access rights for new user
+		View refreshView = null;
+		String viewName = "($ServerAccess)";
+		try {
+			debug("namesDatabase.getView('" + viewName + "'");
+			refreshView = namesDatabase.getView(viewName);
+			if (null != refreshView) {
+				debug("refreshView('($ServerAccess)').refresh()");
+				refreshView.refresh();
 			}
-			finally {
-				if (null != refreshView) { refreshView.recycle(); }
+			else {
+				log("Could not open view '" + viewName + "'.");
 			}
+		}
+		catch (Exception ex) {
+			log("Could not refresh view '" + viewName + "'.");
+		}
+		finally {
+			if (null != refreshView) { refreshView.recycle(); }
+		}
+	}
 
-			if (deployToIDVault) {
-                log("Uploading ID for user '" + fullName + "' to vault...");
-                idVault.putUserIDFile(idFile, fullName, userPassword, server);
+	/**
+	 * Upload a newly created ID to the ID Vault and verify it.
+	 * @throws Exception if the ID could not be verified in the vault
+	 */
+	protected static void uploadToIDVault(IDVault idVault, String idFile, String fullName, String userPassword, String server) throws Exception {
+		log("Uploading ID for user '" + fullName + "' to vault...");
+		idVault.putUserIDFile(idFile, fullName, userPassword, server);
 
-				// Verify the ID is now in the vault
-				if (idVault.isIDInVault(fullName, server)) {
-					String vaultServer = idVault.getServerName();
-					log("SUCCESSFUL!");
-					log("ID for user '" + fullName + "' is confirmed to be in the vault on server '" + vaultServer + "'.");
-				} else {
-					throw new Exception("Failed to verify ID in vault after upload/sync operation.");
-				}
-				log("Successfully uploaded ID to vault.");
-			}
+		// Verify the ID is now in the vault
+		if (idVault.isIDInVault(fullName, server)) {
+			String vaultServer = idVault.getServerName();
+			log("SUCCESSFUL!");
+			log("ID for user '" + fullName + "' is confirmed to be in the vault on server '" + vaultServer + "'.");
 
+			// remember the new ID, so that PushUserIDtoIDVault doesn't push it again
+			VaultDigestCache digestCache = PushUserIDtoIDVault.getDigestCache(new String[0]);
+			PushUserIDtoIDVault.updateDigestCache(digestCache, fullName, server, PushUserIDtoIDVault.getDigest(digestCache, idFile));
+		} else {
+			throw new Exception("Failed to verify ID in vault after upload/sync operation.");
 		}
-		catch (Throwable throwable) {
-			throwable.printStackTrace();
+		log("Successfully uploaded ID to vault.");
+	}
+
+	/**
+	 * Read the <code>serverSetup</code> object from the configured {@link #settingsFile}.
+	 * @return the <code>serverSetup</code> object
+	 * @throws Exception if the file could not be read
+	 */
+	protected static JSONObject readServerSetup() throws Exception {
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(settingsFile);
+			JSONObject json = (JSONObject)new JSONTokener(fis).nextValue();
+			return json.getJSONObject("serverSetup");
 		}
 		finally {
-			try {
-				if (null != dt) {  dt.recycle(); }
-				if (null != idVault) {  idVault.recycle(); }
-				if (null != userView) {  userView.recycle(); }
-				if (null != namesDatabase) {  namesDatabase.recycle(); }
-				if (null != session) {
-					session.recycle();
+			if (null != fis) { fis.close(); }
+		}
+	}
+
+	/**
+	 * Load the properties file that describes a new user.
+	 * @param userPropertiesFileName  the path to the properties file
+	 * @return the loaded properties
+	 * @throws Exception if the file does not exist or could not be loaded
+	 */
+	protected static Properties readUserProperties(String userPropertiesFileName) throws Exception {
+		File userPropertiesFile = new File(userPropertiesFileName);
+		if (!userPropertiesFile.exists()) {
+			throw new Exception("Could not find file '" + userPropertiesFileName + "'.");
+		}
+		log("Loading additional server properties:  '" + userPropertiesFile.getAbsolutePath() + "'.");
+		Properties userProperties = new Properties();
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(userPropertiesFile);
+			userProperties.load(fis);
+		}
+		catch (Exception ex) {
+			throw new Exception("Could not load properties file '" + userPropertiesFile.getAbsolutePath() + "'." );
+		}
+		finally {
+			if (null != fis) {
+				try {
+					fis.close();
+				}
+				catch (Exception ex) {
+					// ignore
 				}
-				if (null != fis) { fis.close(); }
-			}
-			catch (Exception ex) {
-				ex.printStackTrace();
 			}
-			NotesThread.stermThread();
-			log("Application '" + APP_NAME + "' completed.");
 		}
+		return userProperties;
 	}
 
 	/**
@@ -412,6 +529,27 @@ public class CreateUser extends AgentBase {
 		}
 	}
 	
+	/**
+	 * Get the requested property from the Properties object and parse it as an integer value.
+	 * If it is empty, use the provided defaultValue.
+	 * @param properties   the properties object
+	 * @param key  the property key
+	 * @param defaultValue  This will be returned if the property is missing
+	 * @throws Exception if the property is not a valid integer
+	 */
+	protected static int readIntProperty(Properties properties, String key, int defaultValue) throws Exception {
+		String value = properties.getProperty(key);
+		if (null == value || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException ex) {
+			throw new Exception("Invalid integer value for property '" + key + "':  '" + value + "'.");
+		}
+	}
+	
 	/**
 	 * Determine the server administrator by reading notes.ini
 	 * This requires that {@link #dataDirectory} is set.
@@ -483,6 +621,21 @@ public class CreateUser extends AgentBase {
 		}
 	}
 
+	/**
+	 * Check if the provided value is unique, using an index built with {@link NameIndex#build(View)}.
+	 * The check is case-insensitive
+	 * @param key  the key that the value is associated with.  Used only for logging and error messages
+	 * @param nameIndex  the names in the key view
+	 * @param value  the value to check
+	 * @throws Exception if the value is not unique
+	 */
+	protected static void assertUnique(String key, NameIndex nameIndex, String value) throws Exception {
+		debug("Checking " + key + " for uniqueness:  " + value);
+		if (nameIndex.contains(value)) {
+			throw new Exception("Duplicate value:  " + key + " = '" + value  + "'.");
+		}
+	}
+
 
 
 	protected static void log(String message) {
@@ -2,11 +2,21 @@ package net.prominic.domino.vagrant;
 
 import lotus.domino.*;
 
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.utils.IDUtils;
+
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -27,9 +37,13 @@ public class CrossCertifyNotesID
 {
 	public static final String AUTHORIZED_GROUP = "AutomaticallyCrossCertifiedUsers";
 
+	private static final String APP_NAME = "CrossCertifyNotesID";
+
 
 	protected static final String DEFAULT_SUCCESS_FILE = "/tmp/CrossCertifyNotesID.out";
 	protected static String successFileName = DEFAULT_SUCCESS_FILE;
+	protected static final String DEFAULT_REPORT_FILE = "/tmp/CrossCertifyNotesID-report.json";
+	protected static String reportFileName = DEFAULT_REPORT_FILE;
 
 	protected static final String DEFAULT_PROPERTIES_FILE = "CrossCertifyNotesID.properties";
 	protected static String dataDirectory = null;
@@ -40,9 +54,14 @@ public class CrossCertifyNotesID
 
 	public static void main(String args[])
 	{
+		// hand the command to a running HelperDaemon if one is available
+		int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+		if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+			System.exit(daemonStatus);
+		}
+
 		log("Starting cross-certification tool.");
 
-		FileInputStream fis = null;
 		boolean threadInitialized = false;
 		Session session = null;
 		try {
@@ -50,35 +69,11 @@ public class CrossCertifyNotesID
 			// load properties
 			loadProperties();
 
-			// clear the file that indicates success
-			File successFile = new File(successFileName);
-			if (successFile.exists()) {
-				successFile.delete();
-			}
-
-			if (args.length < 1) {
-				throw new Exception("No ID file specified.");
-			}
-			String targetID = args[0]; // TODO: support more files
-
-			// The JSON file used for Domino server setup can also be used for for this configuration
-			fis = new FileInputStream(settingsFile);
-			JSONObject json = (JSONObject)new JSONTokener(fis).nextValue();
-
-			// extract the values
-			// TODO: add more validation if it becomes a problem. This code could easily trigger NullPointerExceptions if the format is invalid
-			JSONObject serverSetup = json.getJSONObject("serverSetup");
-			JSONObject serverConfig = serverSetup.getJSONObject("server");
-			String name = serverConfig.getString("name");
-			String org = serverConfig.getString("domainName");
-			String server = name + "/" + org;
-
-			String certPassword = serverSetup.getJSONObject("org").getString("certifierPassword");
+			// clear the file that indicates success before anything can fail
+			getSuccessFile(true);
 
 			// currently we are using the admin user for actions like this
-			String userPassword = serverSetup.getJSONObject("admin").getString("password");
-
-
+			String userPassword = readServerSetup().getJSONObject("admin").getString("password");
 
 			// initialize the session
 			debug("NotesThread.sinitThread()");
@@ -86,9 +81,7 @@ public class CrossCertifyNotesID
 			threadInitialized = true;
 
 			 // build the session arguments
-			String[] sessionArgs = null;
 			log("Using default notesID path.");
-			sessionArgs = new String[0];
 
 			 //Session session = NotesFactory.createSession("localhost", args, "", "");
 			//Session session = NotesFactory.createSession(null, args, null, null);
@@ -98,26 +91,7 @@ public class CrossCertifyNotesID
 			session = NotesFactory.createSession(sessionServer, args, sessionUser, userPassword);
 			log("Running on Notes Version: '" + session.getNotesVersion() + "'.");
 
-			String userName = crossCertify(session, targetID, server, certID, certPassword);
-
-			log( "crossCertifyNotesID() completed.");
-
-			// add the user to an authorized group
-			if (null != userName) {
-				addUserToAuthorizedGroup(session, userName, server, userPassword);
-				// This is required to fix the "Error validating execution rights" error.  The above group does not work as expected
-				addUserAsServerAdmin(session, userName, server);
-			}
-			else {
-				log("Could not detect user from safe ID.");
-			}
-
-
-			log("");
-			log("## All operations completed successfully. ##");
-			// Create an output file to indicate that the action was succesful.
-			// This is needed because if there is a SIGSEGV or NSD, the Java application does not return exit code 0
-			successFile.createNewFile();
+			run(session, args);
 		}
 		catch (Throwable t) {
 			log(t);
@@ -134,7 +108,6 @@ public class CrossCertifyNotesID
 					debug("NotesThread.stermThread()");
 					NotesThread.stermThread();
 				}
-				if (null != fis) { fis.close(); }
 			}
 			catch (Exception ex) {
 				log(ex);
@@ -142,6 +115,207 @@ public class CrossCertifyNotesID
 		}
 	}
 
+	/**
+	 * Cross-certify the IDs given in <code>args</code> and authorize the resulting users on the configured server.
+	 * Requires {@link #loadProperties()} to have been called.
+	 * This does not recycle the session, so it can also be called from {@link HelperDaemon}.
+	 * @param session  the Domino session to use
+	 * @param args  the command-line arguments.  See {@link #collectIDFiles(String[])} for the supported formats.
+	 * @throws Exception if the cross-certification or authorization failed for any ID
+	 */
+	public static void run(Session session, String[] args) throws Exception {
+		// clear the file that indicates success
+		File successFile = getSuccessFile(true);
+
+		if (args.length < 1) {
+			throw new Exception("No ID file specified.");
+		}
+		List<String> targetIDs = collectIDFiles(args);
+		if (targetIDs.isEmpty()) {
+			throw new Exception("No ID files found in the arguments.");
+		}
+
+		// extract the values
+		// TODO: add more validation if it becomes a problem. This code could easily trigger NullPointerExceptions if the format is invalid
+		JSONObject serverSetup = readServerSetup();
+		JSONObject serverConfig = serverSetup.getJSONObject("server");
+		String name = serverConfig.getString("name");
+		String org = serverConfig.getString("domainName");
+		String server = name + "/" + org;
+
+		String certPassword = serverSetup.getJSONObject("org").getString("certifierPassword");
+
+		// Certify every ID first, then apply the names.nsf changes for all users at once.
+		// This saves the group, the server document and the ACL once per run instead of once per ID.
+		JSONArray report = new JSONArray();
+		List<String> userNames = new ArrayList<String>();
+		int failures = 0;
+		for (String targetID : targetIDs) {
+			JSONObject result = new JSONObject();
+			result.put("idFile", targetID);
+			try {
+				String userName = crossCertify(session, targetID, server, certID, certPassword);
+				if (null != userName) {
+					result.put("status", "certified");
+					result.put("userName", userName);
+					if (!userNames.contains(userName)) {
+						userNames.add(userName);
+					}
+				}
+				else {
+					log("Could not detect user from safe ID.");
+					result.put("status", "unknownUser");
+				}
+			}
+			catch (Exception ex) {
+				log("Failed to cross-certify '" + targetID + "':");
+				log(ex);
+				result.put("status", "failed");
+				result.put("error", String.valueOf(ex.getMessage()));
+				failures++;
+			}
+			report.put(result);
+		}
+
+		log( "crossCertifyNotesID() completed.");
+
+		// add the users to an authorized group
+		if (!userNames.isEmpty()) {
+			authorizeUsers(session, userNames, server);
+		}
+
+		log("");
+		log("## Cross-certification results ##");
+		for (int i = 0; i < report.length(); i++) {
+			JSONObject result = report.getJSONObject(i);
+			log("  " + result.getString("status") + ":  " + result.getString("idFile") +
+			    (result.has("userName") ? " (" + result.getString("userName") + ")" : "") +
+			    (result.has("error") ? " - " + result.getString("error") : ""));
+		}
+		writeReport(report);
+
+		if (failures > 0) {
+			throw new Exception(failures + " of " + targetIDs.size() + " ID files could not be cross-certified.");
+		}
+
+		log("");
+		log("## All operations completed successfully. ##");
+		// Create an output file to indicate that the action was succesful.
+		// This is needed because if there is a SIGSEGV or NSD, the Java application does not return exit code 0
+		successFile.createNewFile();
+	}
+
+	/**
+	 * Build the list of ID files to certify from the command-line arguments.
+	 * Each argument may be:<ul>
+	 *   <li>An ID file</li>
+	 *   <li>A directory.  All <code>*.id</code> files in the directory are used, in name order.</li>
+	 *   <li><code>@listFile</code> - a text file with one ID path per line.  Blank lines and lines starting with <code>#</code> are ignored.</li>
+	 * </ul>
+	 * @param args  the command-line arguments
+	 * @return the ID file paths, without duplicates
+	 * @throws Exception if a list file could not be read
+	 */
+	protected static List<String> collectIDFiles(String[] args) throws Exception {
+		List<String> idFiles = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("@")) {
+				BufferedReader reader = new BufferedReader(new FileReader(arg.substring(1)));
+				try {
+					String line = reader.readLine();
+					while (null != line) {
+						line = line.trim();
+						if (!line.isEmpty() && !line.startsWith("#") && !idFiles.contains(line)) {
+							idFiles.add(line);
+						}
+						line = reader.readLine();
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+			else if (new File(arg).isDirectory()) {
+				File[] children = new File(arg).listFiles();
+				if (null != children) {
+					Arrays.sort(children);
+					for (File child : children) {
+						if (child.isFile() && child.getName().toLowerCase().endsWith(".id") &&
+						    !idFiles.contains(child.getPath())) {
+							idFiles.add(child.getPath());
+						}
+					}
+				}
+			}
+			else if (!idFiles.contains(arg)) {
+				idFiles.add(arg);
+			}
+		}
+		return idFiles;
+	}
+
+	/**
+	 * Write the per-ID results to the configured {@link #reportFileName}.
+	 * Failures to write the report are logged, but don't fail the run.
+	 * @param report  the results
+	 */
+	protected static void writeReport(JSONArray report) {
+		if (null == reportFileName || reportFileName.trim().isEmpty()) {
+			return;
+		}
+		FileWriter writer = null;
+		try {
+			writer = new FileWriter(reportFileName);
+			writer.write(report.toString(2));
+			log("Results written to '" + reportFileName + "'.");
+		}
+		catch (Exception ex) {
+			log("Could not write report file '" + reportFileName + "':");
+			log(ex);
+		}
+		finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				}
+				catch (Exception ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the file that indicates a successful run.
+	 * @param clear  if <code>true</code>, delete any existing file left by a previous run
+	 * @return the success file
+	 */
+	protected static File getSuccessFile(boolean clear) {
+		File successFile = new File(successFileName);
+		if (clear && successFile.exists()) {
+			successFile.delete();
+		}
+		return successFile;
+	}
+
+	/**
+	 * Read the <code>serverSetup</code> object from the configured {@link #settingsFile}.
+	 * The JSON file used for Domino server setup can also be used for for this configuration
+	 * @return the <code>serverSetup</code> object
+	 * @throws Exception if the file could not be read
+	 */
+	protected static JSONObject readServerSetup() throws Exception {
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(settingsFile);
+			JSONObject json = (JSONObject)new JSONTokener(fis).nextValue();
+			return json.getJSONObject("serverSetup");
+		}
+		finally {
+			if (null != fis) { fis.close(); }
+		}
+	}
+
 	/**
 	 * Load the application properties, from the first available source here:<ul>
 	 *   <li>The file configured by the <code>app.properties.file</code> property (set with <code>-Dapp.properties.file=%file%</code>)</li>
@@ -190,6 +364,7 @@ public class CrossCertifyNotesID
 		certID = properties.getProperty("cert.id.file", dataDirectory + "/cert.id");
 		aclTemplate = properties.getProperty("acl.template.file", "default_cross_certify_acl.json");
 		successFileName = properties.getProperty("output.file", DEFAULT_SUCCESS_FILE);
+		reportFileName = properties.getProperty("report.file", DEFAULT_REPORT_FILE);
 		String debugStr = properties.getProperty("debug", "false");
 		if (null != debugStr && debugStr.equalsIgnoreCase("true")) {
 			debugMode = true;
@@ -216,6 +391,8 @@ public class CrossCertifyNotesID
 	public static String crossCertify(Session session, String targetID, String server, String certID, String certPassword)  throws Exception {
 		log("Signing ID: '" + targetID + "'.");
 
+		// Read the owner before certifying, so that the certificate view does not need to be scanned afterwards
+		String idUserName = readIDUserName(targetID);
 		Registration reg = null;
 		DateTime dt = null;
 		try {
@@ -244,8 +421,10 @@ public class CrossCertifyNotesID
 			{
 				log("Cross-certification succeeded");
 
-				// Lookup the cross-certification document to check the user name
-				// I haven't found a better way to do this.
+				if (null != idUserName) {
+					return idUserName;
+				}
+				// Fall back to looking up the cross-certification document to check the user name
 				return getLastCrossCertifiedUser(session, server);
 			}
 			else {
@@ -268,9 +447,37 @@ public class CrossCertifyNotesID
 		}
 	}
 
+	/**
+	 * Read the owner name from the given ID file with the domino-jna IDUtils.
+	 * The ID does not need to be unlocked for this.
+	 * Note that this won't throw an Exception.
+	 *
+	 * @param idFile  the ID file
+	 * @return the canonical owner name, or <code>null</code> if it could not be read.
+	 */
+	public static String readIDUserName(final String idFile) {
+		try {
+			String userName = NotesGC.runWithAutoGC(new Callable<String>() {
+				public String call() throws Exception {
+					debug("IDUtils.getUsernameFromId('" + idFile + "')");
+					return IDUtils.getUsernameFromId(idFile);
+				}
+			});
+			if (null == userName || userName.trim().isEmpty()) {
+				return null;
+			}
+			log("ID '" + idFile + "' belongs to '" + userName + "'.");
+			return userName;
+		}
+		catch (Throwable t) {
+			log("Could not read the user name from ID '" + idFile + "':  " + t.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Get the last cross-certified user in names.nsf on the given server.
-	 * I don't see a better way to extract the username from a Notes ID for now.
+	 * This is the fallback when the name could not be read from the ID with {@link #readIDUserName(String)}.
 	 * Note that this agent won't throw an Exception.
 	 *
 	 * @param session  the existing session
@@ -373,27 +580,44 @@ public class CrossCertifyNotesID
 	}
 
 	/**
-	 * Add the given username to the {@link #AUTHORIZED_GROUP} group on the target server.
-	 * @param session  the Domino session to use.
-	 * @param username the username to add
+	 * Add the given users to the {@link #AUTHORIZED_GROUP} group, the server document and the names.nsf ACL.
+	 * names.nsf is opened once, and each document is saved once for all users.
+	 * @param session  the Domino session to use
+	 * @param userNames  the users to authorize, in canonical format
 	 * @param server  the target server
-	 * @param userPassword  the password for the running user (not the above username).
 	 */
-	public static void addUserToAuthorizedGroup(Session session, String username, String server, String userPassword) throws NotesException, Exception {
-		log ("Adding user '" + username + "' to authorized user group (" + AUTHORIZED_GROUP + ").");
+	public static void authorizeUsers(Session session, List<String> userNames, String server) throws NotesException, Exception {
 		Database namesDatabase = null;
-		View groupView = null;
-		Document groupDoc = null;
-		Vector members = null;
-
 		try {
-
 			debug("session.getDatabase(names.nsf)");
 			namesDatabase = session.getDatabase(server, "names.nsf", false);
 			if (null == namesDatabase || !namesDatabase.isOpen()) {
 				throw new Exception("Could not open names.nsf");
 			}
 
+			addUsersToAuthorizedGroup(namesDatabase, userNames);
+			// This is required to fix the "Error validating execution rights" error.  The above group does not work as expected
+			addUsersAsServerAdmin(session, namesDatabase, userNames, server);
+		}
+		finally {
+			if (null != namesDatabase) { namesDatabase.recycle();}
+		}
+	}
+
+	/**
+	 * Add the given usernames to the {@link #AUTHORIZED_GROUP} group, with a single save of the group document.
+	 * Users that are already members are skipped.
+	 * @param namesDatabase  names.nsf on the target server
+	 * @param userNames  the usernames to add
+	 */
+	public static void addUsersToAuthorizedGroup(Database namesDatabase, List<String> userNames) throws NotesException, Exception {
+		log ("Adding users " + userNames + " to authorized user group (" + AUTHORIZED_GROUP + ").");
+		View groupView = null;
+		Document groupDoc = null;
+		Vector<?> values = null;
+
+		try {
+
 			debug("namesDatabase.getView(Groups)");
 			groupView = namesDatabase.getView("Groups");
 			if (null == groupView) {
@@ -407,12 +631,22 @@ public class CrossCertifyNotesID
 			}
 
 			debug("groupDoc.getItemValue(Members)");
-			members = groupDoc.getItemValue("Members");
-			if (null == members || members.size() == 0 ||
-			    (members.size() == 1 && members.get(0).toString().trim().isEmpty())) { // default blank entry
-				members = new Vector();  // normalize
+			values = groupDoc.getItemValue("Members");
+			Vector<Object> members = new Vector<Object>();
+			if (null != values && !(values.size() == 1 && values.get(0).toString().trim().isEmpty())) { // skip the default blank entry
+				members.addAll(values);
+			}
+			boolean updated = false;
+			for (String username : userNames) {
+				if (!members.contains(username)) {
+					members.add(username);
+					updated = true;
+				}
+			}
+			if (!updated) {
+				log("Authorized group already contains all users.");
+				return;
 			}
-			members.add(username);
 			debug("groupDoc.replaceItemValue(Members)");
 			groupDoc.replaceItemValue("Members", members);
 
@@ -449,41 +683,31 @@ public class CrossCertifyNotesID
 			finally {
 				if (null != refreshView) { refreshView.recycle(); }
 			}
-
-			session.recycle(members);
 		}
 		finally {
-			if (null != members) { session.recycle(members);}
+			if (null != values) { namesDatabase.recycle(values);}
 			if (null != groupDoc) { groupDoc.recycle();}
 			if (null != groupView) { groupView.recycle();}
-			if (null != namesDatabase) { namesDatabase.recycle();}
 		}
 
 	}
 
 	/**
-	 * Add the given username to the server document, with enough access for DXL Importer and agents to work.
-	 * TODO: This is massive overkill - it should be controlled by the group instead.
-	 * However, the group was not working in our recent tests, so I'm using this as a workaround for now.'
+	 * Add the given usernames to the server document and the names.nsf ACL.
+	 * The server document and the ACL are each saved once for all users.
 	 * @param session  the Domino session to use
-	 * @param username the username to add
+	 * @param namesDatabase  names.nsf on the target server
+	 * @param userNames the usernames to add
 	 * @param server  the target server
 	 */
-	public static void addUserAsServerAdmin(Session session, String username, String server) throws NotesException, Exception {
-		log ("Adding user '" + username + "' to server document as authorized user.");
-		Database namesDatabase = null;
+	public static void addUsersAsServerAdmin(Session session, Database namesDatabase, List<String> userNames, String server) throws NotesException, Exception {
+		log ("Adding users " + userNames + " to server document as authorized users.");
 		View serverView = null;
 		Document serverDoc = null;
 		Name nameObj = null;
 
 		try {
 
-			debug("session.getDatabase(names.nsf)");
-			namesDatabase = session.getDatabase(server, "names.nsf", false);
-			if (null == namesDatabase || !namesDatabase.isOpen()) {
-				throw new Exception("Could not open names.nsf");
-			}
-
 			debug("namesDatabase.getView($Servers)");
 			serverView = namesDatabase.getView("($Servers)");
 			if (null == serverView) {
@@ -506,13 +730,13 @@ public class CrossCertifyNotesID
 			boolean updated = false;
 
 			// update the security fields
-			updated = updateServerSecurityField(serverDoc, "FullAdmin", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "CreateAccess", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "ReplicaAccess", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "UnrestrictedList", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "OnBehalfOfInvokerLst", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "LibsLst", username) ? true : updated;
-			updated = updateServerSecurityField(serverDoc, "RestrictedList", username) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "FullAdmin", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "CreateAccess", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "ReplicaAccess", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "UnrestrictedList", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "OnBehalfOfInvokerLst", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "LibsLst", userNames) ? true : updated;
+			updated = updateServerSecurityField(serverDoc, "RestrictedList", userNames) ? true : updated;
 			// Updating AllowAccess breaks all access to the server, including the admin user.  I suspect I need to set additional related fields.
 			//updateServerSecurityField(serverDoc, "AllowAccess", server);
 
@@ -533,61 +757,66 @@ public class CrossCertifyNotesID
 				log("Server doc has been updated.");
 			}
 
-			// also update the ACL to give the user access to configure the server.
-			updateNamesACL(namesDatabase, username);
+			// also update the ACL to give the users access to configure the server.
+			updateNamesACL(namesDatabase, userNames);
 		}
 		finally {
 			if (null != nameObj) { nameObj.recycle();}
 			if (null != serverDoc) { serverDoc.recycle();}
 			if (null != serverView) { serverView.recycle();}
-			if (null != namesDatabase) { namesDatabase.recycle();}
 		}
 
 	}
 
 	/**
-	 * Add the given userName to the indicated item in the given document.
+	 * Add the given userNames to the indicated item in the given document.
 	 * Handle duplicates and empty existing values
 	 * @param serverDoc  the server document
 	 * @param itemName  the name of the item/field
-	 * @param userName  the name of the user
+	 * @param userNames  the names of the users
+	 * @return <code>true</code> if the item was changed
 	 */
-	protected static boolean updateServerSecurityField(Document serverDoc, String itemName, String userName) throws NotesException {
-		Vector members = null;
+	protected static boolean updateServerSecurityField(Document serverDoc, String itemName, List<String> userNames) throws NotesException {
+		Vector<?> values = null;
 		try {
 
-			members = serverDoc.getItemValue(itemName);
-			if (null == members || members.size() == 0 ||
-			    (members.size() == 1 && members.get(0).toString().trim().isEmpty())) { // default blank entry
-				members = new Vector();  // normalize
+			values = serverDoc.getItemValue(itemName);
+			Vector<Object> members = new Vector<Object>();
+			if (null != values && !(values.size() == 1 && values.get(0).toString().trim().isEmpty())) { // skip the default blank entry
+				members.addAll(values);
 			}
 
-			if (!members.contains(userName)) {
-				members.add(userName);
+			boolean updated = false;
+			for (String userName : userNames) {
+				if (!members.contains(userName)) {
+					members.add(userName);
+					updated = true;
+				}
+			}
+			if (updated) {
 				debug("serverDoc.replaceItemValue('" + itemName + "', " + members + ")");
 				serverDoc.replaceItemValue(itemName, members);
-				return true;
 			}
-			return false;
+			return updated;
 
 		}
 		finally {
-			if (null != members) {
+			if (null != values) {
 				// recycle the vector in case it contains Domino objects
-				serverDoc.recycle(members);
+				serverDoc.recycle(values);
 			}
 		}
 
 	}
 
 	/**
-	 * Add an ACL entry for the user in the given database.
-	 * The user will have Manager access with all roles.
+	 * Add an ACL entry for each user in the given database, with a single save of the ACL.
+	 * The users will have Manager access with all roles.
 	 * This was needed because the user was not properly recognized in AutomaticallyCrossCertifiedUsers, so this could be disabled once that bug is fixed.
 	 * @param  database  the database to update.  Expected to be names.nsf
-	 * @param  userName  the username to add, in canonical format
+	 * @param  userNames  the usernames to add, in canonical format
 	 */
-	protected static boolean updateNamesACL(Database database, String userName) throws NotesException, Exception {
+	protected static boolean updateNamesACL(Database database, List<String> userNames) throws NotesException, Exception {
 		ACL acl = null;
 		FileInputStream fis = null;
 		boolean updated = false;
@@ -618,7 +847,9 @@ public class CrossCertifyNotesID
   ]
 }
 */
-			updated = updateACLFromConfig(acl, json, userName);
+			for (String userName : userNames) {
+				updated = updateACLFromConfig(acl, json, userName) ? true : updated;
+			}
 
 			if (!updated) {
 				log("No ACL updates required.");
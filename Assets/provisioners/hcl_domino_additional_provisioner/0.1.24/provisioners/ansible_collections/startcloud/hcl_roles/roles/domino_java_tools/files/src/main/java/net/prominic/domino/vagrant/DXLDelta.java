@@ -0,0 +1,289 @@
+package net.prominic.domino.vagrant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import lotus.domino.Database;
+import lotus.domino.NotesException;
+
+/**
+ * Detect the notes in a DXL file that changed since the last import.
+ * Each top-level note is canonicalized and hashed with SHA-256.  The hashes are compared with the manifest
+ * written by the previous import (<code>&lt;dxl-file&gt;.hashes</code>), and only the changed notes are imported.
+ * <p>
+ * Values that change on every export without a change in content are ignored:  the <code>noteinfo</code>,
+ * <code>updatedby</code>, <code>revisions</code> and <code>wassignedby</code> elements, and the
+ * <code>$Revisions</code> and <code>$UpdatedBy</code> items.  Notes that were removed from the DXL are not deleted
+ * from the database.
+ * </p>
+ */
+public class DXLDelta {
+
+	public static final String MANIFEST_SUFFIX = ".hashes";
+
+	/** Elements that are ignored in the hash */
+	private static final Set<String> VOLATILE_ELEMENTS = new HashSet<String>(Arrays.asList(
+			"noteinfo", "updatedby", "revisions", "wassignedby"));
+	/** Items that are ignored in the hash */
+	private static final Set<String> VOLATILE_ITEMS = new HashSet<String>(Arrays.asList(
+			"$revisions", "$updatedby"));
+	/** Notes that don't contain LotusScript */
+	private static final Set<String> DATA_NOTES = new HashSet<String>(Arrays.asList(
+			"document", "databaseinfo", "acl"));
+
+	private static final QName NAME_ATTRIBUTE = new QName("name");
+	private static final QName UNID_ATTRIBUTE = new QName("unid");
+
+	/**
+	 * The hashes of all notes in the DXL, and the notes that changed.
+	 */
+	public static class Scan {
+		/** Note key to hash, in DXL order */
+		public final Map<String, String> hashes = new LinkedHashMap<String, String>();
+		/** Keys of the notes that are new or changed */
+		public final Set<String> changed = new HashSet<String>();
+		/** <code>true</code> if a design note changed, so LotusScript needs to be compiled */
+		public boolean designChanged = false;
+
+		/**
+		 * Create a filter for {@link DXLChunker} that only accepts the changed notes.
+		 * The filter must see the notes in the same order as the scan.
+		 */
+		public DXLChunker.NoteFilter createFilter() {
+			final NoteKeys keys = new NoteKeys();
+			return new DXLChunker.NoteFilter() {
+				public boolean accept(List<XMLEvent> note) {
+					return changed.contains(keys.getKey(note));
+				}
+			};
+		}
+	}
+
+	/**
+	 * Hash the notes from the DXL and compare them with the previous hashes.
+	 * @param reader  the DXL events
+	 * @param previous  the hashes from the last import.  May be empty.
+	 * @return the scan result
+	 */
+	public static Scan scan(XMLEventReader reader, final Map<String, String> previous) throws Exception {
+		final Scan scan = new Scan();
+		final NoteKeys keys = new NoteKeys();
+		DXLChunker.forEachNote(reader, new DXLChunker.NoteHandler() {
+			public void handleNote(StartElement root, List<XMLEvent> note) throws Exception {
+				String key = keys.getKey(note);
+				String hash = hashNote(note);
+				scan.hashes.put(key, hash);
+				if (!hash.equals(previous.get(key))) {
+					scan.changed.add(key);
+					if (!DATA_NOTES.contains(note.get(0).asStartElement().getName().getLocalPart())) {
+						scan.designChanged = true;
+					}
+				}
+			}
+		});
+		return scan;
+	}
+
+	/**
+	 * Hash the notes from a DXL file.
+	 * @see #scan(XMLEventReader, Map)
+	 */
+	public static Scan scan(File dxlFile, Map<String, String> previous) throws Exception {
+		return scan(DXLSource.forFile(dxlFile), previous);
+	}
+
+	/**
+	 * Hash the notes from a DXL input, decompressing it if needed.
+	 * @see #scan(XMLEventReader, Map)
+	 */
+	public static Scan scan(DXLSource source, Map<String, String> previous) throws Exception {
+		InputStream in = source.openStream();
+		try {
+			XMLEventReader reader = DXLChunker.createInputFactory().createXMLEventReader(in);
+			try {
+				return scan(reader, previous);
+			}
+			finally {
+				reader.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Identify a database for the manifest.  The replica ID is included, so that a manifest is not reused
+	 * after the database was deleted and created again, or replaced by another replica.
+	 */
+	public static String getDatabaseKey(Database database) throws NotesException {
+		return database.getServer() + "!!" + database.getFilePath() + "!!" + database.getReplicaID();
+	}
+
+	/**
+	 * Read the hashes from the previous import into the given database.
+	 * @param manifestFile  the manifest file
+	 * @param database  identifies the target database (see {@link #getDatabaseKey(Database)}).
+	 *   If the manifest was written for another database, it is deleted.
+	 * @return the hashes, or an empty map if there is no matching manifest
+	 */
+	public static Map<String, String> readManifest(File manifestFile, String database) throws Exception {
+		Map<String, String> hashes = new HashMap<String, String>();
+		if (!manifestFile.exists()) {
+			return hashes;
+		}
+		Properties manifest = new Properties();
+		InputStream in = new FileInputStream(manifestFile);
+		try {
+			manifest.load(in);
+		}
+		finally {
+			in.close();
+		}
+		if (!database.equals(manifest.getProperty("database"))) {
+			System.out.println("Discarding hash manifest '" + manifestFile.getAbsolutePath() + "', since it was written for another database or replica.");
+			if (!manifestFile.delete()) {
+				throw new Exception("Could not delete '" + manifestFile.getAbsolutePath() + "'.");
+			}
+			return hashes;
+		}
+		for (String name : manifest.stringPropertyNames()) {
+			if (name.startsWith("note.")) {
+				hashes.put(name.substring("note.".length()), manifest.getProperty(name));
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * Write the hashes after a successful import.
+	 */
+	public static void writeManifest(File manifestFile, String database, Map<String, String> hashes) throws Exception {
+		Properties manifest = new Properties();
+		manifest.setProperty("database", database);
+		for (Map.Entry<String, String> entry : hashes.entrySet()) {
+			manifest.setProperty("note." + entry.getKey(), entry.getValue());
+		}
+		OutputStream out = new FileOutputStream(manifestFile);
+		try {
+			manifest.store(out, "DXLImport note hashes");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Hash the canonical form of a note.
+	 * Attributes are sorted, whitespace-only text is dropped and volatile elements and items are skipped.
+	 */
+	public static String hashNote(List<XMLEvent> note) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		int skipDepth = 0;
+		for (int i = 0; i < note.size(); i++) {
+			XMLEvent event = note.get(i);
+			if (event.isStartElement()) {
+				StartElement start = event.asStartElement();
+				if (skipDepth > 0 || (i > 0 && isVolatile(start))) {
+					skipDepth++;
+					continue;
+				}
+				StringBuilder builder = new StringBuilder();
+				builder.append('<').append(start.getName().getLocalPart());
+				TreeMap<String, String> attributes = new TreeMap<String, String>();
+				Iterator<?> iterator = start.getAttributes();
+				while (iterator.hasNext()) {
+					Attribute attribute = (Attribute) iterator.next();
+					attributes.put(attribute.getName().getLocalPart(), attribute.getValue());
+				}
+				for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+					builder.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+				}
+				builder.append('>');
+				digest.update(builder.toString().getBytes("UTF-8"));
+			}
+			else if (event.isEndElement()) {
+				if (skipDepth > 0) {
+					skipDepth--;
+					continue;
+				}
+				digest.update(("</" + event.asEndElement().getName().getLocalPart() + ">").getBytes("UTF-8"));
+			}
+			else if (event.isCharacters() && skipDepth == 0) {
+				String text = event.asCharacters().getData();
+				if (!text.trim().isEmpty()) {
+					digest.update(text.getBytes("UTF-8"));
+				}
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static boolean isVolatile(StartElement start) {
+		String name = start.getName().getLocalPart();
+		if (VOLATILE_ELEMENTS.contains(name)) {
+			return true;
+		}
+		if (name.equals("item")) {
+			Attribute itemName = start.getAttributeByName(NAME_ATTRIBUTE);
+			return null != itemName && VOLATILE_ITEMS.contains(itemName.getValue().toLowerCase());
+		}
+		return false;
+	}
+
+	/**
+	 * Computes a stable key for each note:  the UNID from <code>noteinfo</code> if available,
+	 * otherwise the element and its <code>name</code> attribute, otherwise the element and its position.
+	 */
+	protected static class NoteKeys {
+		private int position = 0;
+
+		public String getKey(List<XMLEvent> note) {
+			position++;
+			StartElement start = note.get(0).asStartElement();
+			String type = start.getName().getLocalPart();
+			for (int i = 1; i < note.size(); i++) {
+				XMLEvent event = note.get(i);
+				if (event.isStartElement() && event.asStartElement().getName().getLocalPart().equals("noteinfo")) {
+					Attribute unid = event.asStartElement().getAttributeByName(UNID_ATTRIBUTE);
+					if (null != unid) {
+						return "unid." + unid.getValue();
+					}
+					break;
+				}
+			}
+			Attribute name = start.getAttributeByName(NAME_ATTRIBUTE);
+			if (null != name) {
+				return type + "." + name.getValue();
+			}
+			if (type.equals("databaseinfo") || type.equals("acl")) {
+				return type;
+			}
+			return type + "#" + position;
+		}
+	}
+}
@@ -0,0 +1,419 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import lotus.domino.*;
+
+/**
+ * Export a database to a DXL file that can be imported again with {@link DXLImport}.
+ * <p>
+ * The notes are exported in batches of <code>--batch-size</code> notes, and each batch is written to the output
+ * as soon as it is exported, so the whole export is never held in memory.  The output is compressed with gzip if
+ * <code>--gzip</code> is given or the output file ends with <code>.gz</code>.
+ * </p>
+ * <p>
+ * With <code>--since-file=&lt;file&gt;</code>, only the notes that were modified since the last export are exported
+ * (see Database.getModifiedDocuments).  The time of the export is stored in the file afterwards.  If the file does
+ * not exist yet, or was written for another database, all notes are exported.  Deleted notes are not exported.
+ * An existing output file is never replaced in this mode.  If it exists, the export is written next to it with the
+ * export time in the name, e.g. <code>names-20240131-020000.dxl.gz</code>, so that a fixed output path keeps
+ * the first full export and each later delta.
+ * </p>
+ */
+public class DXLExport {
+
+    private static final String APP_NAME = "DXLExport";
+    public static final String USAGE = "java -jar DXLExport.jar [options] <server> <database-name> <output-file>\n" +
+            "Options:  --batch-size=<notes>  --gzip  --since-file=<file>\n" +
+            "With --since-file, an existing output file is kept and the export is written to <name>-<yyyyMMdd-HHmmss><ext>.";
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /** Suffix for the output while the export is running */
+    public static final String PARTIAL_SUFFIX = ".part";
+
+    /**
+     * Options for an export.
+     */
+    public static class ExportOptions {
+        /** Number of notes that are exported at once */
+        public int batchSize = DEFAULT_BATCH_SIZE;
+        /** Compress the output with gzip */
+        public boolean gzip = false;
+        /** Stores the time of the last export, for incremental exports */
+        public File sinceFile = null;
+        /** The arguments that are not options */
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    public static void main(String[] args) {
+        Session session = null;
+        Database database = null;
+        boolean threadInitialized = false;
+        try {
+            System.out.println("Application '" + APP_NAME + "' started.");
+
+            ExportOptions options = parseOptions(args);
+            if (options.arguments.size() < 3) {
+                System.err.println("ERROR: Not enough arguments.");
+                System.err.println("USAGE:  " + USAGE);
+                System.exit(1);
+            }
+            String server = options.arguments.get(0);
+            String databaseName = options.arguments.get(1);
+            File outputFile = new File(options.arguments.get(2));
+            if (outputFile.getName().toLowerCase().endsWith(".gz")) {
+                options.gzip = true;
+            }
+
+            NotesThread.sinitThread();
+            threadInitialized = true;
+
+            session = NotesWorkerPool.createSession();
+            System.out.println("Running as user: '" + session.getUserName() + "'.");
+
+            database = session.getDatabase(server, databaseName, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database '" + databaseName + "'.");
+            }
+
+            exportDXL(session, database, outputFile, options);
+        }
+        catch (Throwable throwable) {
+            throwable.printStackTrace();
+            System.exit(1);  // trigger an error for scripting
+        }
+        finally {
+            try {
+                if (null != database) {
+                    database.recycle();
+                }
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch(NotesException ex) {
+                ex.printStackTrace();
+            }
+            if (threadInitialized) {
+                NotesThread.stermThread();
+            }
+            System.out.println("Application '" + APP_NAME + "' completed.");
+        }
+    }
+
+    /**
+     * Parse the leading <code>--option=value</code> arguments.
+     * @param args  the command-line arguments
+     * @return the options, with the remaining arguments
+     * @throws Exception if an option is invalid
+     */
+    public static ExportOptions parseOptions(String[] args) throws Exception {
+        ExportOptions options = new ExportOptions();
+        for (String arg : args) {
+            if (!options.arguments.isEmpty() || !arg.startsWith("--")) {
+                options.arguments.add(arg);
+            }
+            else if (arg.startsWith("--batch-size=")) {
+                String value = arg.substring("--batch-size=".length());
+                try {
+                    options.batchSize = Integer.parseInt(value.trim());
+                }
+                catch (NumberFormatException ex) {
+                    options.batchSize = 0;
+                }
+                if (options.batchSize < 1) {
+                    throw new Exception("Invalid batch size:  '" + value + "'.");
+                }
+            }
+            else if (arg.equals("--gzip")) {
+                options.gzip = true;
+            }
+            else if (arg.startsWith("--since-file=")) {
+                options.sinceFile = new File(arg.substring("--since-file=".length()));
+            }
+            else {
+                throw new Exception("Unknown option '" + arg + "'.  USAGE:  " + USAGE);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Export the database to the output file.
+     * The output is written to <code>&lt;output-file&gt;.part</code> first, and renamed when the export completes.
+     * @return the number of exported notes.  If no notes were modified since the last export, no file is written.
+     */
+    public static int exportDXL(Session session, Database database, File outputFile, ExportOptions options) throws NotesException, Exception {
+        String databaseKey = DXLDelta.getDatabaseKey(database);
+        Long since = null;
+        if (null != options.sinceFile) {
+            since = readSinceTime(options.sinceFile, databaseKey);
+        }
+
+        List<String> noteIDs = new ArrayList<String>();
+        long until;
+        if (null == since) {
+            System.out.println("Exporting all notes.");
+            until = collectNoteIDs(database, noteIDs);
+        }
+        else {
+            System.out.println("Exporting the notes modified since " + new Date(since) + ".");
+            until = collectModifiedNoteIDs(session, database, since, noteIDs);
+        }
+
+        int exportedNotes = 0;
+        if (noteIDs.isEmpty()) {
+            System.out.println("No notes to export.");
+        }
+        else {
+            if (null != options.sinceFile && outputFile.exists()) {
+                // keep the earlier export, since an incremental export only has the modified notes
+                outputFile = getTimestampedFile(outputFile, until);
+            }
+            File partialFile = new File(outputFile.getAbsolutePath() + PARTIAL_SUFFIX);
+            exportedNotes = exportNotes(session, database, noteIDs, partialFile, options);
+            if (outputFile.exists() && !outputFile.delete()) {
+                throw new Exception("Could not replace '" + outputFile.getAbsolutePath() + "'.");
+            }
+            if (!partialFile.renameTo(outputFile)) {
+                throw new Exception("Could not rename '" + partialFile.getAbsolutePath() + "' to '" + outputFile.getAbsolutePath() + "'.");
+            }
+            System.out.println("Exported " + exportedNotes + " notes to '" + outputFile.getAbsolutePath() + "'.");
+        }
+
+        if (null != options.sinceFile) {
+            writeSinceTime(options.sinceFile, databaseKey, until);
+        }
+        return exportedNotes;
+    }
+
+    /**
+     * Get an output file name that includes the export time, e.g. <code>names-20240131-020000.dxl.gz</code>.
+     * A sequence number is added if that file exists too.
+     */
+    protected static File getTimestampedFile(File outputFile, long time) {
+        String name = outputFile.getName();
+        String extension = "";
+        if (name.toLowerCase().endsWith(".gz")) {
+            extension = name.substring(name.length() - 3);
+            name = name.substring(0, name.length() - 3);
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            extension = name.substring(dot) + extension;
+            name = name.substring(0, dot);
+        }
+        String baseName = name + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(time));
+        File directory = outputFile.getAbsoluteFile().getParentFile();
+        File file = new File(directory, baseName + extension);
+        for (int sequence = 2; file.exists(); sequence++) {
+            file = new File(directory, baseName + "-" + sequence + extension);
+        }
+        return file;
+    }
+
+    /**
+     * Collect the IDs of all notes in the database.
+     * @return the build time of the collection, for the next incremental export
+     */
+    protected static long collectNoteIDs(Database database, List<String> noteIDs) throws NotesException {
+        NoteCollection collection = database.createNoteCollection(false);
+        try {
+            collection.selectAllNotes(true);
+            collection.buildCollection();
+            String noteID = collection.getFirstNoteID();
+            while (null != noteID && !noteID.isEmpty()) {
+                noteIDs.add(noteID);
+                noteID = collection.getNextNoteID(noteID);
+            }
+            DateTime buildTime = collection.getLastBuildTime();
+            try {
+                return buildTime.toJavaDate().getTime();
+            }
+            finally {
+                buildTime.recycle();
+            }
+        }
+        finally {
+            collection.recycle();
+        }
+    }
+
+    /**
+     * Collect the IDs of the notes that were modified since the given time.  Deletion stubs are skipped.
+     * @return the end time of the search, for the next incremental export
+     */
+    protected static long collectModifiedNoteIDs(Session session, Database database, long since, List<String> noteIDs) throws NotesException {
+        DateTime sinceTime = session.createDateTime(new Date(since));
+        DocumentCollection modified = null;
+        try {
+            modified = database.getModifiedDocuments(sinceTime, Database.DBMOD_DOC_ALL);
+            Document document = modified.getFirstDocument();
+            while (null != document) {
+                if (document.isValid() && !document.isDeleted()) {
+                    noteIDs.add(document.getNoteID());
+                }
+                Document nextDocument = modified.getNextDocument(document);
+                document.recycle();
+                document = nextDocument;
+            }
+            DateTime untilTime = modified.getUntilTime();
+            try {
+                return untilTime.toJavaDate().getTime();
+            }
+            finally {
+                untilTime.recycle();
+            }
+        }
+        finally {
+            if (null != modified) {
+                modified.recycle();
+            }
+            sinceTime.recycle();
+        }
+    }
+
+    /**
+     * Export the notes in batches and stream them to a single DXL file.
+     * Each batch is exported as a separate DXL document, and its notes are copied under one root element.
+     */
+    protected static int exportNotes(Session session, Database database, List<String> noteIDs, File file, ExportOptions options) throws NotesException, Exception {
+        final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        final XMLEvent lineBreak = eventFactory.createCharacters("\n");
+        // the handler is called from the note loop, so keep the state in arrays
+        final StartElement[] root = new StartElement[1];
+        final boolean[] databaseInfoWritten = new boolean[] { false };
+        final int[] exportedNotes = new int[] { 0 };
+
+        DxlExporter exporter = session.createDxlExporter();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (options.gzip) {
+                out = new GZIPOutputStream(out);
+            }
+            exporter.setOutputDOCTYPE(false);
+            final XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+
+            for (int start = 0; start < noteIDs.size(); start += options.batchSize) {
+                List<String> batchIDs = noteIDs.subList(start, Math.min(start + options.batchSize, noteIDs.size()));
+                String dxl;
+                NoteCollection batch = database.createNoteCollection(false);
+                try {
+                    for (String noteID : batchIDs) {
+                        batch.add(Integer.parseInt(noteID, 16));
+                    }
+                    dxl = exporter.exportDxl(batch);
+                }
+                catch (NotesException ex) {
+                    System.out.println(exporter.getLog());
+                    throw new Exception("Could not export notes " + (start + 1) + " to " + (start + batchIDs.size()) + ":  " + ex.text, ex);
+                }
+                finally {
+                    batch.recycle();
+                }
+
+                XMLEventReader reader = DXLChunker.createInputFactory().createXMLEventReader(new StringReader(dxl));
+                try {
+                    DXLChunker.forEachNote(reader, new DXLChunker.NoteHandler() {
+                        public void handleNote(StartElement batchRoot, List<XMLEvent> note) throws Exception {
+                            if (null == root[0]) {
+                                root[0] = batchRoot;
+                                writer.add(root[0]);
+                                writer.add(lineBreak);
+                            }
+                            if (note.get(0).asStartElement().getName().getLocalPart().equals("databaseinfo")) {
+                                // repeated in every batch
+                                if (databaseInfoWritten[0]) {
+                                    return;
+                                }
+                                databaseInfoWritten[0] = true;
+                            }
+                            for (XMLEvent event : note) {
+                                writer.add(event);
+                            }
+                            writer.add(lineBreak);
+                            exportedNotes[0]++;
+                        }
+                    });
+                }
+                finally {
+                    reader.close();
+                }
+                System.out.println("Exported " + (start + batchIDs.size()) + " of " + noteIDs.size() + " notes.");
+            }
+
+            if (null != root[0]) {
+                writer.add(eventFactory.createEndElement(root[0].getName(), null));
+            }
+            writer.add(eventFactory.createEndDocument());
+            writer.close();
+        }
+        finally {
+            out.close();
+            exporter.recycle();
+        }
+        return exportedNotes[0];
+    }
+
+    /**
+     * Read the time of the last export of the given database.
+     * @return the time in milliseconds, or <code>null</code> if the file does not exist or was written for another database
+     */
+    protected static Long readSinceTime(File sinceFile, String databaseKey) throws Exception {
+        if (!sinceFile.exists()) {
+            return null;
+        }
+        Properties state = new Properties();
+        InputStream in = new FileInputStream(sinceFile);
+        try {
+            state.load(in);
+        }
+        finally {
+            in.close();
+        }
+        if (!databaseKey.equals(state.getProperty("database"))) {
+            System.out.println("Ignoring '" + sinceFile.getAbsolutePath() + "', since it was written for another database.");
+            return null;
+        }
+        try {
+            return Long.valueOf(state.getProperty("until", "").trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new Exception("Invalid export time in '" + sinceFile.getAbsolutePath() + "'.");
+        }
+    }
+
+    protected static void writeSinceTime(File sinceFile, String databaseKey, long until) throws Exception {
+        Properties state = new Properties();
+        state.setProperty("database", databaseKey);
+        state.setProperty("until", Long.toString(until));
+        OutputStream out = new FileOutputStream(sinceFile);
+        try {
+            state.store(out, "DXLExport time of the last export:  " + new Date(until));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
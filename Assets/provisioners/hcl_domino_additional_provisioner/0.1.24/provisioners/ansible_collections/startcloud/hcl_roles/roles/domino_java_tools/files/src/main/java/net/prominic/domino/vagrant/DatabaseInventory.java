@@ -0,0 +1,478 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONObject;
+
+import lotus.domino.*;
+
+/**
+ * Keep an on-disk index of the databases on a server:  path, title, replica ID, templates, size and last-modified time.
+ * <p>
+ * The database directory is walked once, and the databases are opened on a pool of Notes threads.
+ * On later runs, the database files are only checked with a file system stat, and a database is only opened again if
+ * its file modification time changed.  This needs the data directory of the server, so when the index is built for
+ * a remote server every database is opened again.  Use <code>--full</code> to ignore the existing index.
+ * </p>
+ * <p>
+ * The index is a JSON-lines file:  a header line, then one line per database.  It can be read with {@link #load(File)},
+ * or queried without starting Notes with <code>--query</code>.
+ * </p>
+ */
+public class DatabaseInventory {
+
+    private static final String APP_NAME = "DatabaseInventory";
+    public static final String USAGE = "java -jar DatabaseInventory.jar [--index=<file>] [--workers=<count>] [--full] [<server>]\n" +
+            "       java -jar DatabaseInventory.jar --query [--index=<file>] [--path=<text>] [--replica=<id>] [--template=<name>] [--min-size=<bytes>] [<server>]";
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * Options for a refresh or a query.
+     */
+    public static class InventoryOptions {
+        /** The index file.  Defaults to {@link #getDefaultIndexFile(String)} */
+        public File indexFile = null;
+        public int workers = DEFAULT_WORKERS;
+        /** Open every database, even if its file did not change */
+        public boolean full = false;
+        /** Read the index instead of refreshing it */
+        public boolean query = false;
+        /** Query filters.  <code>null</code> matches everything */
+        public String path = null;
+        public String replicaID = null;
+        public String template = null;
+        public long minSize = -1;
+        /** The arguments that are not options */
+        public List<String> arguments = new ArrayList<String>();
+    }
+
+    /**
+     * One database in the index.
+     */
+    public static class Entry {
+        public final String path;
+        public String title = null;
+        public String replicaID = null;
+        public String templateName = null;
+        public String designTemplateName = null;
+        public long size = -1;
+        /** Database.getLastModified in milliseconds */
+        public long lastModified = -1;
+        /** The modification time of the file, or -1 if the file is not local */
+        public long fileModified = -1;
+        /** Why the database could not be read, or <code>null</code> */
+        public String error = null;
+
+        public Entry(String path) {
+            this.path = path;
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("path", path);
+            json.put("title", null == title ? JSONObject.NULL : title);
+            json.put("replicaID", null == replicaID ? JSONObject.NULL : replicaID);
+            json.put("template", null == templateName ? JSONObject.NULL : templateName);
+            json.put("designTemplate", null == designTemplateName ? JSONObject.NULL : designTemplateName);
+            json.put("size", size);
+            json.put("lastModified", lastModified);
+            json.put("fileModified", fileModified);
+            if (null != error) {
+                json.put("error", error);
+            }
+            return json;
+        }
+
+        public static Entry fromJSON(JSONObject json) {
+            Entry entry = new Entry(json.getString("path"));
+            entry.title = optString(json, "title");
+            entry.replicaID = optString(json, "replicaID");
+            entry.templateName = optString(json, "template");
+            entry.designTemplateName = optString(json, "designTemplate");
+            entry.size = json.optLong("size", -1);
+            entry.lastModified = json.optLong("lastModified", -1);
+            entry.fileModified = json.optLong("fileModified", -1);
+            entry.error = optString(json, "error");
+            return entry;
+        }
+
+        private static String optString(JSONObject json, String key) {
+            return json.isNull(key) ? null : json.getString(key);
+        }
+    }
+
+    public static void main(String[] args) {
+        Session session = null;
+        boolean threadInitialized = false;
+        try {
+            InventoryOptions options = parseOptions(args);
+            String server = options.arguments.isEmpty() ? "" : options.arguments.get(0);
+            File indexFile = null == options.indexFile ? getDefaultIndexFile(server) : options.indexFile;
+
+            if (options.query) {
+                // answered from the index alone, so Notes is not started
+                for (Entry entry : load(indexFile).values()) {
+                    if (matches(entry, options)) {
+                        System.out.println(entry.toJSON().toString());
+                    }
+                }
+                return;
+            }
+
+            System.out.println("Application '" + APP_NAME + "' started.");
+
+            NotesThread.sinitThread();
+            threadInitialized = true;
+
+            session = NotesWorkerPool.createSession();
+            System.out.println("Running as user: '" + session.getUserName() + "'.");
+
+            if (!refresh(session, server, indexFile, options)) {
+                System.exit(1);
+            }
+        }
+        catch (Throwable throwable) {
+            throwable.printStackTrace();
+            System.exit(1);  // trigger an error for scripting
+        }
+        finally {
+            try {
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch(NotesException ex) {
+                ex.printStackTrace();
+            }
+            if (threadInitialized) {
+                NotesThread.stermThread();
+                System.out.println("Application '" + APP_NAME + "' completed.");
+            }
+        }
+    }
+
+    /**
+     * Parse the leading <code>--option=value</code> arguments.
+     * @param args  the command-line arguments
+     * @return the options, with the remaining arguments
+     * @throws Exception if an option is invalid
+     */
+    public static InventoryOptions parseOptions(String[] args) throws Exception {
+        InventoryOptions options = new InventoryOptions();
+        for (String arg : args) {
+            if (!options.arguments.isEmpty() || !arg.startsWith("--")) {
+                options.arguments.add(arg);
+            }
+            else if (arg.startsWith("--index=")) {
+                options.indexFile = new File(arg.substring("--index=".length()));
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = (int) CheckDatabase.parseNumber(arg, "--workers=", 1);
+            }
+            else if (arg.equals("--full")) {
+                options.full = true;
+            }
+            else if (arg.equals("--query")) {
+                options.query = true;
+            }
+            else if (arg.startsWith("--path=")) {
+                options.path = arg.substring("--path=".length());
+            }
+            else if (arg.startsWith("--replica=")) {
+                options.replicaID = arg.substring("--replica=".length());
+            }
+            else if (arg.startsWith("--template=")) {
+                options.template = arg.substring("--template=".length());
+            }
+            else if (arg.startsWith("--min-size=")) {
+                options.minSize = CheckDatabase.parseNumber(arg, "--min-size=", 0);
+            }
+            else {
+                throw new Exception("Unknown option '" + arg + "'.  USAGE:  " + USAGE);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Get the index file for a server:  <code>~/.domino-inventory/&lt;server&gt;.jsonl</code>, or <code>local.jsonl</code>
+     * for the local data directory.
+     */
+    public static File getDefaultIndexFile(String server) {
+        String name = server.trim().isEmpty() ? "local" : EffectiveAccess.normalize(server).replaceAll("[^a-z0-9._-]", "_");
+        return new File(new File(System.getProperty("user.home"), ".domino-inventory"), name + ".jsonl");
+    }
+
+    /**
+     * Update the index.  Databases whose files did not change are copied from the existing index.
+     * @return <code>true</code> if all databases could be read
+     */
+    public static boolean refresh(Session session, String server, File indexFile, InventoryOptions options) throws Exception {
+        long start = System.currentTimeMillis();
+        Map<String, Entry> previous = options.full || !indexFile.exists() ? new LinkedHashMap<String, Entry>() : load(indexFile);
+
+        // the files can only be checked if they are in the local data directory
+        File dataDirectory = null;
+        if (server.trim().isEmpty() || EffectiveAccess.normalize(server).equals(EffectiveAccess.normalize(session.getServerName()))) {
+            dataDirectory = new File(CreateNamesDatabase.getDataDirectory(session));
+        }
+        else {
+            System.out.println("Server '" + server + "' is not local.  All databases will be opened.");
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        List<Entry> pending = new ArrayList<Entry>();
+        Set<String> paths = new HashSet<String>();
+        for (String path : CheckDatabase.listDatabases(session, server)) {
+            paths.add(path);
+            long fileModified = -1;
+            long fileSize = -1;
+            if (null != dataDirectory) {
+                File file = new File(path);
+                if (!file.isAbsolute()) {
+                    file = new File(dataDirectory, path);
+                }
+                fileModified = file.lastModified();
+                fileSize = file.length();
+                if (fileModified <= 0) {
+                    fileModified = -1;
+                    fileSize = -1;
+                }
+            }
+            Entry entry = previous.get(path);
+            if (null != entry && null == entry.error && fileModified > 0 && entry.fileModified == fileModified) {
+                entries.add(entry);
+                continue;
+            }
+            entry = new Entry(path);
+            entry.fileModified = fileModified;
+            entry.size = fileSize;
+            entries.add(entry);
+            pending.add(entry);
+        }
+        int removed = 0;
+        for (String path : previous.keySet()) {
+            if (!paths.contains(path)) {
+                removed++;
+            }
+        }
+
+        readEntries(server, pending, options.workers);
+        save(indexFile, server, entries);
+
+        int errors = 0;
+        for (Entry entry : pending) {
+            if (null != entry.error) {
+                errors++;
+                System.out.println("Could not read '" + entry.path + "':  " + entry.error);
+            }
+        }
+        System.out.println("Indexed " + entries.size() + " database(s) in " + (System.currentTimeMillis() - start) + " ms:  " +
+                (entries.size() - pending.size()) + " unchanged, " + pending.size() + " opened, " + removed + " removed, " +
+                errors + " failed.  Index:  '" + indexFile.getAbsolutePath() + "'.");
+        return errors == 0;
+    }
+
+    /**
+     * Open the databases on a pool of Notes threads, and store their properties in the entries.
+     */
+    protected static void readEntries(final String server, List<Entry> pending, int workers) throws Exception {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int workerCount = Math.min(Math.max(1, workers), pending.size());
+        // the databases are taken from a shared queue, so that a slow open does not hold up the databases behind it
+        final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>(pending);
+        final AtomicReference<String> sessionError = new AtomicReference<String>();
+
+        ExecutorService pool = NotesWorkerPool.create(APP_NAME, workerCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workerCount; i++) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        Session session = null;
+                        try {
+                            session = NotesWorkerPool.createSession();
+                            Entry entry;
+                            while (null != (entry = queue.poll())) {
+                                readEntry(session, server, entry);
+                            }
+                        }
+                        catch (NotesException ex) {
+                            // leave the queue to the other workers
+                            sessionError.set(ex.text);
+                        }
+                        finally {
+                            try {
+                                if (null != session) {
+                                    session.recycle();
+                                }
+                            }
+                            catch (NotesException ex) {
+                                ex.printStackTrace();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            NotesWorkerPool.shutdown(pool);
+        }
+        // only left if no worker could create a session
+        for (Entry entry : queue) {
+            entry.error = sessionError.get();
+        }
+    }
+
+    /**
+     * Open one database and read its properties.  Errors are stored in the entry.
+     */
+    protected static void readEntry(Session session, String server, Entry entry) {
+        Database database = null;
+        DateTime lastModified = null;
+        try {
+            database = session.getDatabase(server, entry.path, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database.");
+            }
+            entry.title = database.getTitle();
+            entry.replicaID = database.getReplicaID();
+            entry.templateName = database.getTemplateName();
+            entry.designTemplateName = database.getDesignTemplateName();
+            if (entry.size < 0) {
+                entry.size = (long) database.getSize();
+            }
+            lastModified = database.getLastModified();
+            if (null != lastModified) {
+                entry.lastModified = lastModified.toJavaDate().getTime();
+            }
+        }
+        catch (NotesException ex) {
+            entry.error = ex.text;
+        }
+        catch (Exception ex) {
+            entry.error = ex.getMessage();
+        }
+        finally {
+            try {
+                if (null != lastModified) {
+                    lastModified.recycle();
+                }
+                if (null != database) {
+                    database.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read an index file.
+     * @return the entries by path, in directory order
+     * @throws Exception if the file could not be read
+     */
+    public static Map<String, Entry> load(File indexFile) throws Exception {
+        if (!indexFile.exists()) {
+            throw new Exception("Index not found at:  '" + indexFile.getAbsolutePath() + "'.");
+        }
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+        try {
+            String line;
+            boolean header = true;
+            while (null != (line = reader.readLine())) {
+                if (header) {
+                    // the header only describes the index
+                    header = false;
+                    continue;
+                }
+                if (!line.trim().isEmpty()) {
+                    Entry entry = Entry.fromJSON(new JSONObject(line));
+                    entries.put(entry.path, entry);
+                }
+            }
+        }
+        catch (Exception ex) {
+            throw new Exception("Could not read index '" + indexFile.getAbsolutePath() + "'.", ex);
+        }
+        finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Write the index to a temporary file, then replace the old index, so that readers never see a partial index.
+     */
+    public static void save(File indexFile, String server, List<Entry> entries) throws Exception {
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new Exception("Could not create directory '" + directory.getAbsolutePath() + "'.");
+        }
+        File tempFile = new File(directory, indexFile.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            JSONObject header = new JSONObject();
+            header.put("server", server);
+            header.put("updated", System.currentTimeMillis());
+            header.put("count", entries.size());
+            writer.write(header.toString());
+            writer.write("\n");
+            for (Entry entry : entries) {
+                writer.write(entry.toJSON().toString());
+                writer.write("\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Check an entry against the query filters.  Text filters are case-insensitive.
+     */
+    public static boolean matches(Entry entry, InventoryOptions options) {
+        if (null != options.path && !entry.path.toLowerCase().contains(options.path.toLowerCase())) {
+            return false;
+        }
+        if (null != options.replicaID && !options.replicaID.equalsIgnoreCase(entry.replicaID)) {
+            return false;
+        }
+        if (null != options.template && !options.template.equalsIgnoreCase(entry.templateName) &&
+                !options.template.equalsIgnoreCase(entry.designTemplateName)) {
+            return false;
+        }
+        if (options.minSize >= 0 && entry.size < options.minSize) {
+            return false;
+        }
+        return true;
+    }
+}
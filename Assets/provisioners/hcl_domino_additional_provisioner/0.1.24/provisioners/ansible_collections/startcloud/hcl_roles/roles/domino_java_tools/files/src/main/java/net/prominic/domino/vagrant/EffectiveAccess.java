@@ -0,0 +1,310 @@
+package net.prominic.domino.vagrant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lotus.domino.ACL;
+import lotus.domino.ACLEntry;
+import lotus.domino.Database;
+import lotus.domino.Document;
+import lotus.domino.NotesException;
+import lotus.domino.View;
+
+/**
+ * Evaluate the access of users against ACLs that were read once, instead of calling
+ * <code>queryAccess</code>, <code>queryAccessPrivileges</code> and <code>queryAccessRoles</code>
+ * for every user and database.
+ * <p>
+ * The group documents of the directory are read once.  The names list of a user (the user name, the matching
+ * wildcards and all nested groups) is resolved the first time the user is evaluated and cached afterwards.
+ * The rules follow the Domino precedence:  an entry for the user name wins, then the highest of the matching
+ * groups, then the highest of the matching wildcard entries, then <code>-Default-</code>.
+ * Roles are combined from all matching entries of the winning kind, and privileges from the entries with the
+ * winning level.  Secondary directories (Directory Assistance) are not read and the user type of the entries
+ * is not checked, so the result is an approximation of <code>queryAccess</code>.
+ * </p>
+ * <p>
+ * A built instance may be shared by several threads.
+ * </p>
+ */
+public class EffectiveAccess {
+
+	public static final String GROUPS_VIEW = "($VIMGroups)";
+	public static final String DEFAULT_ENTRY = "-default-";
+
+	/**
+	 * One ACL entry, copied so that it can be used after the database is closed.
+	 */
+	public static class Entry {
+		public final String name;
+		public final int level;
+		public final int privileges;
+		public final List<String> roles;
+
+		public Entry(String name, int level, int privileges, List<String> roles) {
+			this.name = normalize(name);
+			this.level = level;
+			this.privileges = privileges;
+			this.roles = roles;
+		}
+	}
+
+	/**
+	 * The effective access of one user.
+	 */
+	public static class Access {
+		public final int level;
+		/** the Database.DBACL_* bits */
+		public final int privileges;
+		public final List<String> roles;
+
+		public Access(int level, int privileges, List<String> roles) {
+			this.level = level;
+			this.privileges = privileges;
+			this.roles = roles;
+		}
+	}
+
+	/** normalized member name -> the groups that list it */
+	private final Map<String, Set<String>> memberOf;
+	private final Map<String, Set<String>> namesLists = new ConcurrentHashMap<String, Set<String>>();
+
+	public EffectiveAccess(Map<String, Set<String>> memberOf) {
+		this.memberOf = memberOf;
+	}
+
+	/**
+	 * Read the groups from the directory.
+	 * @param directory  the Domino directory, i.e. names.nsf on the audited server
+	 * @return the new instance
+	 * @throws Exception if the groups view could not be read
+	 */
+	public static EffectiveAccess build(Database directory) throws Exception {
+		long start = System.currentTimeMillis();
+		Map<String, Set<String>> memberOf = new HashMap<String, Set<String>>();
+		View view = directory.getView(GROUPS_VIEW);
+		if (null == view) {
+			throw new Exception("Could not open view '" + GROUPS_VIEW + "' in '" + directory.getFilePath() + "'.");
+		}
+		int groups = 0;
+		try {
+			view.setAutoUpdate(false);
+			Document document = view.getFirstDocument();
+			while (null != document) {
+				String groupName = normalize(document.getItemValueString("ListName"));
+				if (!groupName.isEmpty()) {
+					groups++;
+					for (Object member : document.getItemValue("Members")) {
+						String memberName = normalize(String.valueOf(member));
+						if (memberName.isEmpty()) {
+							continue;
+						}
+						Set<String> memberGroups = memberOf.get(memberName);
+						if (null == memberGroups) {
+							memberGroups = new HashSet<String>();
+							memberOf.put(memberName, memberGroups);
+						}
+						memberGroups.add(groupName);
+					}
+				}
+				Document next = view.getNextDocument(document);
+				document.recycle();
+				document = next;
+			}
+		}
+		finally {
+			view.recycle();
+		}
+		System.out.println("Read " + groups + " group(s) in " + (System.currentTimeMillis() - start) + " ms.");
+		return new EffectiveAccess(memberOf);
+	}
+
+	/**
+	 * Get the names that an ACL entry may match for the user:  the name itself, the wildcards and all nested groups.
+	 * The result is cached per user.
+	 */
+	public Set<String> getNamesList(String userName) {
+		String user = normalize(userName);
+		Set<String> names = namesLists.get(user);
+		if (null != names) {
+			return names;
+		}
+		names = new LinkedHashSet<String>();
+		Deque<String> pending = new ArrayDeque<String>();
+		pending.add(user);
+		pending.addAll(getWildcards(user));
+		while (!pending.isEmpty()) {
+			String name = pending.poll();
+			if (!names.add(name)) {
+				// already expanded, or a circular group
+				continue;
+			}
+			Set<String> groups = memberOf.get(name);
+			if (null != groups) {
+				pending.addAll(groups);
+			}
+		}
+		names = Collections.unmodifiableSet(names);
+		namesLists.put(user, names);
+		return names;
+	}
+
+	/**
+	 * Get the effective access of the user in an ACL that was read with {@link #readACL(Database)}.
+	 */
+	public Access evaluate(String userName, List<Entry> acl) {
+		String user = normalize(userName);
+		Set<String> names = getNamesList(userName);
+		List<Entry> groups = new ArrayList<Entry>();
+		List<Entry> wildcards = new ArrayList<Entry>();
+		Entry defaultEntry = null;
+		for (Entry entry : acl) {
+			if (entry.name.equals(user)) {
+				return new Access(entry.level, entry.privileges, entry.roles);
+			}
+			else if (entry.name.equals(DEFAULT_ENTRY)) {
+				defaultEntry = entry;
+			}
+			else if (names.contains(entry.name)) {
+				if (entry.name.startsWith("*")) {
+					wildcards.add(entry);
+				}
+				else {
+					groups.add(entry);
+				}
+			}
+		}
+		if (!groups.isEmpty()) {
+			return combine(groups);
+		}
+		if (!wildcards.isEmpty()) {
+			return combine(wildcards);
+		}
+		if (null != defaultEntry) {
+			return new Access(defaultEntry.level, defaultEntry.privileges, defaultEntry.roles);
+		}
+		return new Access(ACL.LEVEL_NOACCESS, 0, Collections.<String>emptyList());
+	}
+
+	private static Access combine(List<Entry> entries) {
+		int level = ACL.LEVEL_NOACCESS;
+		for (Entry entry : entries) {
+			level = Math.max(level, entry.level);
+		}
+		int privileges = 0;
+		Set<String> roles = new LinkedHashSet<String>();
+		for (Entry entry : entries) {
+			if (entry.level == level) {
+				privileges |= entry.privileges;
+			}
+			roles.addAll(entry.roles);
+		}
+		return new Access(level, privileges, new ArrayList<String>(roles));
+	}
+
+	/**
+	 * Copy the entries of the database ACL.
+	 */
+	public static List<Entry> readACL(Database database) throws NotesException {
+		List<Entry> entries = new ArrayList<Entry>();
+		ACL acl = database.getACL();
+		try {
+			ACLEntry entry = acl.getFirstEntry();
+			while (null != entry) {
+				List<String> roles = new ArrayList<String>();
+				for (Object role : entry.getRoles()) {
+					roles.add(String.valueOf(role));
+				}
+				entries.add(new Entry(entry.getName(), entry.getLevel(), getPrivileges(entry), roles));
+				ACLEntry next = acl.getNextEntry(entry);
+				entry.recycle();
+				entry = next;
+			}
+		}
+		finally {
+			acl.recycle();
+		}
+		return entries;
+	}
+
+	/**
+	 * Get the privileges of an entry as Database.DBACL_* bits, like <code>queryAccessPrivileges</code>.
+	 */
+	public static int getPrivileges(ACLEntry entry) throws NotesException {
+		int privileges = 0;
+		if (entry.isCanCreateDocuments()) {
+			privileges |= Database.DBACL_CREATE_DOCS;
+		}
+		if (entry.isCanDeleteDocuments()) {
+			privileges |= Database.DBACL_DELETE_DOCS;
+		}
+		if (entry.isCanCreatePersonalAgent()) {
+			privileges |= Database.DBACL_CREATE_PRIV_AGENTS;
+		}
+		if (entry.isCanCreatePersonalFolder()) {
+			privileges |= Database.DBACL_CREATE_PRIV_FOLDERS_VIEWS;
+		}
+		if (entry.isCanCreateSharedFolder()) {
+			privileges |= Database.DBACL_CREATE_SHARED_FOLDERS_VIEWS;
+		}
+		if (entry.isCanCreateLSOrJavaAgent()) {
+			privileges |= Database.DBACL_CREATE_SCRIPT_AGENTS;
+		}
+		if (entry.isPublicReader()) {
+			privileges |= Database.DBACL_READ_PUBLIC_DOCS;
+		}
+		if (entry.isPublicWriter()) {
+			privileges |= Database.DBACL_WRITE_PUBLIC_DOCS;
+		}
+		if (entry.isCanReplicateOrCopyDocuments()) {
+			privileges |= Database.DBACL_REPLICATE_COPY_DOCS;
+		}
+		return privileges;
+	}
+
+	/**
+	 * Convert a name to the lower-case abbreviated form, so that <code>CN=Jane Doe/O=Org</code> and
+	 * <code>Jane Doe/Org</code> are equal.
+	 */
+	public static String normalize(String name) {
+		if (null == name) {
+			return "";
+		}
+		String[] parts = name.trim().split("/");
+		StringBuilder result = new StringBuilder();
+		for (String part : parts) {
+			int index = part.indexOf('=');
+			if (index > 0 && index <= 2) {
+				part = part.substring(index + 1);
+			}
+			if (result.length() > 0) {
+				result.append('/');
+			}
+			result.append(part.trim());
+		}
+		return result.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Get the wildcard entries that match a hierarchical name, e.g. <code>*&#47;sales/org</code> and <code>*&#47;org</code>.
+	 */
+	protected static List<String> getWildcards(String name) {
+		List<String> wildcards = new ArrayList<String>();
+		int index = name.indexOf('/');
+		while (index >= 0) {
+			wildcards.add("*" + name.substring(index));
+			index = name.indexOf('/', index + 1);
+		}
+		return wildcards;
+	}
+}
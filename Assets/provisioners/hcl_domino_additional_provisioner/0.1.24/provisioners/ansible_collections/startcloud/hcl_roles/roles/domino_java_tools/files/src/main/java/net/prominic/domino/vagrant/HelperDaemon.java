@@ -0,0 +1,514 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import lotus.domino.*;
+
+/**
+ * Long-lived helper process that hosts the net.prominic.domino.vagrant tools in one warm JVM.
+ * The daemon keeps a single initialized Notes thread, one Session and the Database handles that it has opened.
+ * The tools delegate to it through {@link HelperDaemonClient}, so back-to-back operations don't pay for
+ * JVM startup and Notes initialization every time.
+ *
+ * Usage:
+ *   <code>java -jar HelperDaemon.jar</code> to run the daemon in the foreground
+ *   <code>java -jar HelperDaemon.jar stop</code> to stop a running daemon
+ *
+ * The daemon listens on a loopback-only socket.  The port and a random access token are written to the connection
+ * file ({@link HelperDaemonClient#DEFAULT_INFO_FILE}), which is only readable by the user that runs the daemon.
+ * The client ignores a connection file that is owned by another user or readable by others.
+ * Commands are run one at a time on the Notes thread.
+ */
+public class HelperDaemon {
+
+	private static final String APP_NAME = "HelperDaemon";
+
+	/** Prefix for the last line of every response.  The exit status of the command follows it. */
+	public static final String EXIT_MARKER = "##HelperDaemon-exit:";
+	public static final String SHUTDOWN_COMMAND = "shutdown";
+
+	/** Reuse the generated properties file for CrossCertifyNotesID by default */
+	protected static final String DEFAULT_PROPERTIES_FILE = "CrossCertifyNotesID.properties";
+	protected static String dataDirectory = null;
+	protected static String settingsFile = null;
+	protected static int idleMinutes = 30;
+	protected static boolean debugMode = true;
+
+	private static Session session = null;
+	/** Open databases, keyed by server and file path */
+	private static final Map<String, Database> databases = new HashMap<String, Database>();
+	private static String token = null;
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equalsIgnoreCase("stop")) {
+			int status = HelperDaemonClient.delegate(SHUTDOWN_COMMAND, new String[0]);
+			if (status == HelperDaemonClient.NOT_DELEGATED) {
+				log("No HelperDaemon is running.");
+				status = 0;
+			}
+			System.exit(status);
+		}
+
+		log("Application '" + APP_NAME + "' started.");
+		ServerSocket serverSocket = null;
+		File infoFile = HelperDaemonClient.getInfoFile();
+		boolean threadInitialized = false;
+		int status = 0;
+		try {
+			loadProperties();
+
+			debug("NotesThread.sinitThread()");
+			NotesThread.sinitThread();
+			threadInitialized = true;
+
+			// If a password is available on the command line, use that when creating the session
+			// Otherwise use the admin password from setup.json, like CrossCertifyNotesID
+			String password = System.getenv("PASSWORD");
+			if (null == password || password.trim().isEmpty()) {
+				password = readAdminPassword();
+			}
+			debug("NotesFactory.createSession");
+			if (null == password) {
+				session = NotesFactory.createSession();
+			}
+			else {
+				session = NotesFactory.createSession((String)null, (String)null, password);
+			}
+			log("Running on Notes Version: '" + session.getNotesVersion() + "' as user '" + session.getUserName() + "'.");
+
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			serverSocket.setSoTimeout(idleMinutes * 60 * 1000);
+			token = new BigInteger(130, new SecureRandom()).toString(32);
+			writeInfoFile(infoFile, serverSocket.getLocalPort());
+			log("Listening on port " + serverSocket.getLocalPort() + ".  Connection file:  '" + infoFile.getAbsolutePath() + "'.");
+
+			boolean running = true;
+			while (running) {
+				Socket socket = null;
+				try {
+					socket = serverSocket.accept();
+					running = handleConnection(socket);
+				}
+				catch (SocketTimeoutException ex) {
+					log("No commands received for " + idleMinutes + " minutes.  Shutting down.");
+					running = false;
+				}
+				finally {
+					if (null != socket) { socket.close(); }
+				}
+			}
+		}
+		catch (Throwable t) {
+			log(t);
+			// exit after the cleanup, so that clients don't keep connecting to a dead port
+			status = 1;
+		}
+		finally {
+			infoFile.delete();
+			try {
+				if (null != serverSocket) { serverSocket.close(); }
+				recycleDatabases();
+				if (null != session) {
+					debug("session.recycle()");
+					session.recycle();
+				}
+			}
+			catch (Exception ex) {
+				log(ex);
+			}
+			if (threadInitialized) {
+				debug("NotesThread.stermThread()");
+				NotesThread.stermThread();
+			}
+			log("Application '" + APP_NAME + "' completed.");
+		}
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Read and run a single command from the given connection.
+	 * Output from the command is sent back to the client, followed by {@link #EXIT_MARKER} and the exit status.
+	 * @param socket  the client connection
+	 * @return <code>false</code> if the daemon should shut down
+	 */
+	protected static boolean handleConnection(Socket socket) throws Exception {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		PrintStream clientOut = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+		String line = reader.readLine();
+		if (null == line) {
+			return true;
+		}
+		JSONObject request = (JSONObject)new JSONTokener(line).nextValue();
+		if (!HelperDaemonClient.isTokenEqual(token, request.optString("token"))) {
+			log("Rejected a request with an invalid token.");
+			clientOut.println("Invalid HelperDaemon token.");
+			clientOut.println(EXIT_MARKER + "1");
+			return true;
+		}
+
+		String command = request.getString("command");
+		JSONArray requestArgs = request.optJSONArray("args");
+		String[] args = new String[null == requestArgs ? 0 : requestArgs.length()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = requestArgs.getString(i);
+		}
+		if (SHUTDOWN_COMMAND.equals(command)) {
+			log("Shutdown requested.");
+			clientOut.println("HelperDaemon is shutting down.");
+			clientOut.println(EXIT_MARKER + "0");
+			return false;
+		}
+
+		log("Running command '" + command + "'.");
+		long start = System.currentTimeMillis();
+		Map<String, String> originalProperties = applyProperties(request.optJSONObject("properties"));
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+		int status = 1;
+		try {
+			// The tools log through System.out/System.err, so send that output to the client while the command runs
+			System.setOut(clientOut);
+			System.setErr(clientOut);
+			status = runCommand(command, args);
+		}
+		catch (Throwable t) {
+			t.printStackTrace(clientOut);
+			status = 1;
+		}
+		finally {
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+			restoreProperties(originalProperties);
+		}
+		log("Command '" + command + "' completed with status " + status + " in " + (System.currentTimeMillis() - start) + "ms.");
+		clientOut.println(EXIT_MARKER + status);
+		return true;
+	}
+
+	/**
+	 * Run the given tool against the daemon session.
+	 * Each command matches the behavior of the main() method of the tool, including its exit status.
+	 * @param command  the tool name
+	 * @param args  the command-line arguments for the tool
+	 * @return the exit status
+	 * @throws Exception if the command failed
+	 */
+	protected static int runCommand(String command, String[] args) throws Exception {
+		if (command.equals("CheckDatabase")) {
+			if (args.length < 2) {
+				System.out.println("Insufficient Arguments.  Usage: ");
+				System.out.println("java -jar CheckDatabase.jar <server> <database> [acl_username]");
+				return 1;
+			}
+			try {
+				String testUser = args.length >= 3 ? args[2] : session.getUserName();
+				CheckDatabase.checkServer(session, args[0]);
+				CheckDatabase.checkDatabase(session, getDatabase(args[0], args[1]), testUser);
+			}
+			catch (Exception ex) {
+				System.out.println("FAILED!");
+				ex.printStackTrace();
+			}
+			return 0;
+		}
+		else if (command.equals("CreateDatabase")) {
+			CreateDatabase.CreateOptions options = CreateDatabase.parseOptions(args);
+			if (null != options.manifestFile) {
+				// the workers open their own sessions
+				return CreateDatabase.createDatabases(CreateDatabase.readManifest(options.manifestFile, options.profile), options.workers) ? 0 : 1;
+			}
+			if (options.arguments.size() < 2) {
+				throw new Exception("USAGE:  " + CreateDatabase.USAGE);
+			}
+			CreateDatabase.createDatabase(session, options.arguments.get(0), options.arguments.get(1), options.profile);
+			System.out.println(options.arguments.get(1) + " is ready for use.");
+			return 0;
+		}
+		else if (command.equals("DXLImport")) {
+			DXLImport.ImportOptions options = DXLImport.parseOptions(args);
+			if (options.validateOnly) {
+				return DXLImport.validateOnly(options) ? 0 : 1;
+			}
+			if (options.isBatch()) {
+				// the workers open their own sessions
+				return DXLImport.importBatch(DXLImport.readJobs(options), options) ? 0 : 1;
+			}
+			if (options.arguments.size() < 3) {
+				throw new Exception("USAGE:  " + DXLImport.USAGE);
+			}
+			File dxlFile = new File(options.arguments.get(2));
+			if (!dxlFile.exists()) {
+				throw new Exception("DXL file not found at:  '" + dxlFile.getAbsolutePath() + ".");
+			}
+			Database database = getDatabase(options.arguments.get(0), options.arguments.get(1));
+			if (null == database) {
+				throw new Exception("Could not open database '" + options.arguments.get(1) + "'.");
+			}
+			DXLImport.importDXL(session, database, dxlFile, options);
+			return 0;
+		}
+		else if (command.equals("PushUserIDtoIDVault")) {
+			List<String> arguments = new ArrayList<String>();
+			for (String arg : args) {
+				if (!arg.startsWith("--")) {
+					arguments.add(arg);
+				}
+			}
+			if (arguments.size() < 4) {
+				System.out.println("Insufficient Arguments. Usage: ");
+				System.out.println(PushUserIDtoIDVault.USAGE);
+				return 1;
+			}
+			try {
+				PushUserIDtoIDVault.uploadIDToVault(session, arguments.get(0), arguments.get(1), arguments.get(2), arguments.get(3),
+						PushUserIDtoIDVault.getDigestCache(args), PushUserIDtoIDVault.isForced(args));
+			}
+			catch (Exception ex) {
+				System.out.println("FAILED!");
+				ex.printStackTrace();
+			}
+			return 0;
+		}
+		else if (command.equals("CrossCertifyNotesID")) {
+			CrossCertifyNotesID.loadProperties();
+			CrossCertifyNotesID.run(session, args);
+			return 0;
+		}
+		else if (command.equals("CreateUser")) {
+			try {
+				CreateUser.loadSharedProperties();
+				if (args.length < 1) {
+					throw new Exception("No properties file specified for the new user.");
+				}
+				if (args[0].equals(BulkUserRegistration.BULK_OPTION)) {
+					if (args.length < 2) {
+						throw new Exception("USAGE:  " + BulkUserRegistration.USAGE);
+					}
+					Properties bulkSettings = args.length >= 3 ? CreateUser.readUserProperties(args[2]) : new Properties();
+					BulkUserRegistration.registerUsers(session, CreateUser.readServerSetup(), new File(args[1]), bulkSettings);
+				}
+				else {
+					CreateUser.createUser(session, CreateUser.readServerSetup(), CreateUser.readUserProperties(args[0]));
+				}
+			}
+			catch (Exception ex) {
+				ex.printStackTrace();
+			}
+			return 0;
+		}
+		else {
+			throw new Exception("Unsupported HelperDaemon command:  '" + command + "'.");
+		}
+	}
+
+	/**
+	 * Get an open database from the cache, or open it with the daemon session.
+	 * @param server  the server name
+	 * @param databaseName  the database file path
+	 * @return the open database, or <code>null</code> if it could not be opened.
+	 */
+	protected static Database getDatabase(String server, String databaseName) throws NotesException {
+		String key = server.toLowerCase() + "!!" + databaseName.toLowerCase();
+		Database database = databases.get(key);
+		if (null != database && database.isOpen()) {
+			debug("Reusing database handle for '" + key + "'.");
+			return database;
+		}
+		debug("session.getDatabase('" + server + "', '" + databaseName + "')");
+		database = session.getDatabase(server, databaseName, false);
+		if (null == database || !database.isOpen()) {
+			return null;
+		}
+		databases.put(key, database);
+		return database;
+	}
+
+	protected static void recycleDatabases() {
+		Iterator<Database> iterator = databases.values().iterator();
+		while (iterator.hasNext()) {
+			try {
+				iterator.next().recycle();
+			}
+			catch (NotesException ex) {
+				log(ex);
+			}
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Write the port and access token to the connection file, readable only by the current user.
+	 */
+	protected static void writeInfoFile(File infoFile, int port) throws Exception {
+		Properties info = new Properties();
+		info.setProperty("port", Integer.toString(port));
+		info.setProperty("token", token);
+		if (infoFile.exists()) {
+			infoFile.delete();
+		}
+		Files.createFile(infoFile.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		FileOutputStream fos = new FileOutputStream(infoFile);
+		try {
+			info.store(fos, APP_NAME + " connection");
+		}
+		finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Set the system properties forwarded by the client.
+	 * @return the original values, to be passed to {@link #restoreProperties(Map)}
+	 */
+	protected static Map<String, String> applyProperties(JSONObject properties) {
+		Map<String, String> originalValues = new HashMap<String, String>();
+		if (null == properties) {
+			return originalValues;
+		}
+		Iterator<?> keys = properties.keys();
+		while (keys.hasNext()) {
+			String key = keys.next().toString();
+			originalValues.put(key, System.getProperty(key));
+			System.setProperty(key, properties.getString(key));
+		}
+		return originalValues;
+	}
+
+	protected static void restoreProperties(Map<String, String> originalValues) {
+		for (Map.Entry<String, String> entry : originalValues.entrySet()) {
+			if (null == entry.getValue()) {
+				System.clearProperty(entry.getKey());
+			}
+			else {
+				System.setProperty(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Load the application properties, from the first available source here:<ul>
+	 *   <li>The file configured by the <code>app.properties.file</code> property (set with <code>-Dapp.properties.file=%file%</code>)</li>
+	 *   <li>The default file: <code>./CrossCertifyNotesID.properties</code>
+	 *   <li>Default values defined in this class.
+	 * </ul>
+	 */
+	public static void loadProperties() {
+
+		String propertiesFileName = System.getProperty("app.properties.file");
+		debug ("propertiesFileName='" + propertiesFileName + "'.");
+		if (null == propertiesFileName || propertiesFileName.isEmpty()) {
+			propertiesFileName = DEFAULT_PROPERTIES_FILE;
+		}
+
+		Properties properties = new Properties();
+		File propertiesFile = new File(propertiesFileName);
+		if (propertiesFile.exists()) {
+			log("Loading properties file '" + propertiesFile.getAbsolutePath() + "'.");
+			FileInputStream fis = null;
+			try {
+				fis = new FileInputStream(propertiesFile);
+				properties.load(fis);
+			}
+			catch (Exception ex) {
+				log("Could not load properties file '" + propertiesFile.getAbsolutePath() + "'.  Using defaults..." );
+			}
+			finally {
+				if (null != fis) {
+					try {
+						fis.close();
+					}
+					catch (Exception ex) {
+						// ignore
+					}
+				}
+			}
+		}
+		else {
+			log("Properties file '" + propertiesFile.getAbsolutePath() + "' does not exist.  Using defaults...");
+		}
+
+		// read the properties
+		dataDirectory = properties.getProperty("data.directory", "/local/notesdata");
+		settingsFile = properties.getProperty("domino.setup.file", dataDirectory + "/setup.json");
+		String idleStr = properties.getProperty("helper.daemon.idle.minutes", "30");
+		try {
+			idleMinutes = Integer.parseInt(idleStr.trim());
+		}
+		catch (NumberFormatException ex) {
+			log("Invalid value for helper.daemon.idle.minutes:  '" + idleStr + "'.  Using " + idleMinutes + ".");
+		}
+		String debugStr = properties.getProperty("debug", "false");
+		if (null != debugStr && debugStr.equalsIgnoreCase("true")) {
+			debugMode = true;
+		}
+		else {
+			debugMode = false;
+		}
+	}
+
+	/**
+	 * Read the admin password from the configured {@link #settingsFile}.
+	 * @return the password, or <code>null</code> if the file is not available
+	 */
+	protected static String readAdminPassword() {
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(settingsFile);
+			JSONObject json = (JSONObject)new JSONTokener(fis).nextValue();
+			return json.getJSONObject("serverSetup").getJSONObject("admin").getString("password");
+		}
+		catch (Exception ex) {
+			log("Could not read the admin password from '" + settingsFile + "'.  Using the default session.");
+			return null;
+		}
+		finally {
+			if (null != fis) {
+				try {
+					fis.close();
+				}
+				catch (Exception ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
+
+	protected static void log(String message) {
+		System.out.println(message);
+	}
+	protected static void debug(String message) {
+		final String debugPrefix = "    (debug)";
+		if (debugMode) {
+			log(debugPrefix + message);
+		}
+	}
+	protected static void log(Throwable t) {
+		t.printStackTrace(System.out);
+	}
+}
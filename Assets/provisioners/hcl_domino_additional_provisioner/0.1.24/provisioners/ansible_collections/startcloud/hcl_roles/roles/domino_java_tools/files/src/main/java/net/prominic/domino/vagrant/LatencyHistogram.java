@@ -0,0 +1,125 @@
+package net.prominic.domino.vagrant;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+/**
+ * A fixed-size histogram of latencies in microseconds.
+ * Values below 128 are counted exactly.  Larger values are counted in 64 buckets per power of two,
+ * so a reported percentile is at most about 1.6% above the real value.  Memory use does not depend
+ * on the number of samples.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count = 0;
+	private long max = 0;
+	private long total = 0;
+
+	/**
+	 * Record one sample.
+	 * @param micros  the latency in microseconds.  Negative values are counted as 0.
+	 */
+	public void record(long micros) {
+		if (micros < 0) {
+			micros = 0;
+		}
+		counts[getIndex(micros)]++;
+		count++;
+		total += micros;
+		if (micros > max) {
+			max = micros;
+		}
+	}
+
+	/**
+	 * Add the samples of another histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		if (other.max > max) {
+			max = other.max;
+		}
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the value at a percentile, e.g. <code>99.0</code>.
+	 * @return the upper bound of the bucket that holds the percentile, or 0 if there are no samples
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(getUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Summarize the histogram in milliseconds:  count, mean, p50, p95, p99 and max.
+	 */
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("count", count);
+		json.put("mean", count == 0 ? 0.0 : toMillis(total / count));
+		json.put("p50", toMillis(getPercentile(50)));
+		json.put("p95", toMillis(getPercentile(95)));
+		json.put("p99", toMillis(getPercentile(99)));
+		json.put("max", toMillis(max));
+		return json;
+	}
+
+	private static double toMillis(long micros) {
+		return Math.round(micros / 10.0) / 100.0;
+	}
+
+	private static int getIndex(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		// shift the value so that it is in [64, 128)
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+	}
+
+	private static long getUpperBound(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
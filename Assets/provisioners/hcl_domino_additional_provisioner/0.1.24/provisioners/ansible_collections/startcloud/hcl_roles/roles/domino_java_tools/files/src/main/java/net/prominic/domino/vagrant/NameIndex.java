@@ -0,0 +1,92 @@
+package net.prominic.domino.vagrant;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.Vector;
+
+import lotus.domino.NotesException;
+import lotus.domino.View;
+
+/**
+ * Case-insensitive set of the names in the first sorted column of a view, like ($Users).
+ * This replaces one getDocumentByKey lookup per name with a single scan of the view,
+ * which is much faster when many names are checked.
+ * The index is not synchronized with the view, so call {@link #add(String)} for names that are registered
+ * after it was built.
+ */
+public class NameIndex {
+
+	private final Set<String> names = new HashSet<String>();
+
+	/**
+	 * Build the index from the first column of the given view.
+	 * Multi-value columns add every value.
+	 * @param keyView  a view sorted by the names, e.g. ($Users)
+	 * @return the new index
+	 * @throws NotesException if the view could not be read
+	 */
+	public static NameIndex build(View keyView) throws NotesException {
+		return build(keyView, false);
+	}
+
+	/**
+	 * @param keyView  a view sorted by the names, e.g. ($Users)
+	 * @param verbose  if <code>true</code>, print the number of names and the time it took
+	 * @see #build(View)
+	 */
+	public static NameIndex build(View keyView, boolean verbose) throws NotesException {
+		NameIndex index = new NameIndex();
+		long start = System.currentTimeMillis();
+		ViewColumnReader reader = new ViewColumnReader(keyView);
+		try {
+			for (ViewColumnReader.Row row : reader) {
+				if (row.getColumnValues().isEmpty()) {
+					continue;
+				}
+				Object value = row.getColumnValues().get(0);
+				if (value instanceof Vector) {
+					for (Object curValue : (Vector<?>) value) {
+						index.add(String.valueOf(curValue));
+					}
+				}
+				else if (null != value) {
+					index.add(value.toString());
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if (verbose) {
+			System.out.println("Indexed " + index.size() + " names in " + (System.currentTimeMillis() - start) + " ms.");
+		}
+		return index;
+	}
+
+	/**
+	 * Check if the name is in the index.  The check is case-insensitive, like getDocumentByKey.
+	 */
+	public boolean contains(String name) {
+		return null != name && names.contains(normalize(name));
+	}
+
+	/**
+	 * Add a name to the index.
+	 * @return <code>true</code> if the name was not indexed yet
+	 */
+	public boolean add(String name) {
+		if (null == name || name.trim().isEmpty()) {
+			return false;
+		}
+		return names.add(normalize(name));
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	protected static String normalize(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+}
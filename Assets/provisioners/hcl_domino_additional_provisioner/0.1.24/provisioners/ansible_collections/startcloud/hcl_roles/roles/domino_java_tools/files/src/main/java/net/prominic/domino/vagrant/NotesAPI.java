@@ -44,6 +44,27 @@ public interface NotesAPI extends Library {
     }
   }
 
+  // DBREPLICAINFO structure from Notes API
+  @Structure.FieldOrder({ "ID", "Flags", "CutoffInterval", "Cutoff" })
+  public static class DBREPLICAINFO extends Structure {
+
+    public TIMEDATE ID = new TIMEDATE();
+    public short Flags;
+    public short CutoffInterval;
+    public TIMEDATE Cutoff = new TIMEDATE();
+
+    public DBREPLICAINFO() {
+      super();
+    }
+  }
+
+  // Database handles are passed as long, which also works for the 32-bit DBHANDLE on 64-bit platforms
+  short NSFDbOpen(String PathName, LongByReference rethDB);
+  short NSFDbClose(long hDB);
+  short NSFDbReplicaInfoGet(long hDB, DBREPLICAINFO ReplicationInfo);
+  short NSFDbReplicaInfoSet(long hDB, DBREPLICAINFO ReplicationInfo);
+  void OSCurrentTIMEDATE(TIMEDATE retTimeDate);
+
   int REGNewServer(
     Pointer hCertCtx,
     int MakeIDType,
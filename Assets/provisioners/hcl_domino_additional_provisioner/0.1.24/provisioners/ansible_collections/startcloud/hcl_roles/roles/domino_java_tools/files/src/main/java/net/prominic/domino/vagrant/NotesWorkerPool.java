@@ -0,0 +1,91 @@
+package net.prominic.domino.vagrant;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lotus.domino.NotesException;
+import lotus.domino.NotesFactory;
+import lotus.domino.NotesThread;
+import lotus.domino.Session;
+
+/**
+ * Fixed-size thread pool for the helper tools.
+ * The workers are {@link NotesThread} instances, so each worker is initialized for Notes access
+ * when it starts and terminated when the pool shuts down.
+ * Notes objects should not be shared between workers unless the API explicitly allows it, so each worker
+ * opens its own session with {@link #createSession()}.
+ */
+public class NotesWorkerPool {
+
+	/**
+	 * Create a pool with the given number of Notes workers.
+	 * @param name  the prefix for the worker thread names
+	 * @param workers  the number of workers.  Values less than 1 are treated as 1.
+	 * @return the new pool.  Call {@link #shutdown(ExecutorService)} when done.
+	 */
+	public static ExecutorService create(final String name, int workers) {
+		final AtomicInteger counter = new AtomicInteger(0);
+		return Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				NotesThread thread = new NotesThread(runnable, name + "-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting work and wait for the running tasks to finish, so that all workers have
+	 * released their Notes resources before the caller terminates its own Notes thread.
+	 */
+	public static void shutdown(ExecutorService pool) {
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.out.println("Waiting for " + pool + " to finish...");
+			}
+		}
+		catch (InterruptedException ex) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Create a session for the current thread.
+	 * If a password is available in the <code>PASSWORD</code> environment variable, use that when creating the session.
+	 */
+	public static Session createSession() throws NotesException {
+		String password = System.getenv("PASSWORD");
+		if (null == password || password.trim().isEmpty()) {
+			System.out.println("No password found.");
+			return NotesFactory.createSession();
+		}
+		else {
+			System.out.println("Password found.");
+			return NotesFactory.createSession((String)null, (String)null, password);
+		}
+	}
+
+	/**
+	 * Parse a worker count property.
+	 * @param value  the configured value, possibly empty
+	 * @param defaultValue  used if the value is empty or invalid
+	 */
+	public static int parseWorkerCount(String value, int defaultValue) {
+		if (null == value || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int workers = Integer.parseInt(value.trim());
+			return workers > 0 ? workers : defaultValue;
+		}
+		catch (NumberFormatException ex) {
+			System.out.println("Invalid worker count '" + value + "'.  Using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+}
@@ -1,5 +1,21 @@
 package net.prominic.domino.vagrant;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import lotus.domino.NotesException;
 import lotus.domino.NotesFactory;
 import lotus.domino.NotesThread;
@@ -9,39 +25,228 @@ import lotus.domino.IDVault;
 /**
  * Upload a user ID file to the Domino ID Vault.
  * The user must first be added into ID Vault by policy.
+ * <p>
+ * With <code>--batch=&lt;manifest&gt;</code>, the IDs listed in a CSV (with a header row) or JSON-lines manifest
+ * are pushed concurrently, with one session per worker.  Each record has the keys <code>idFile</code>,
+ * <code>username</code>, <code>password</code> and optionally <code>server</code>.  Relative <code>idFile</code> paths
+ * are resolved against the directory of the manifest.  Pushes that failed with a transient error (see
+ * {@link #isTransient(Exception)}) are retried, and the result of each record is written to a JSON file.
+ * Passwords are never written to the result file.
+ * </p>
+ * <p>
+ * The SHA-256 digest of each successfully pushed ID is stored in a {@link VaultDigestCache}, and an ID that is
+ * unchanged since its last push is skipped without contacting the vault.  Use <code>--force</code> to push and verify
+ * it anyway, <code>--digest-cache=&lt;file&gt;</code> to use another cache file, or <code>--no-digest-cache</code>
+ * to disable the cache.
+ * </p>
  */
 public class PushUserIDtoIDVault {
 
+    private static final String APP_NAME = "PushUserIDtoIDVault";
+    public static final String USAGE = "java -jar PushUserIDtoIDVault.jar <id_file_path> <username> <password> <server_name> " +
+            "[--force] [--digest-cache=<file>|--no-digest-cache]";
+    public static final String BATCH_USAGE = "java -jar PushUserIDtoIDVault.jar --batch=<manifest.csv|manifest.jsonl> [--workers=<count>] " +
+            "[--retries=<count>] [--results=<file.json>] [--force] [--digest-cache=<file>|--no-digest-cache] [<server_name>]";
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_RETRIES = 2;
+    /** The delay before the first retry.  It doubles for each further retry */
+    public static final long RETRY_DELAY_MILLIS = 500;
+
+    /** Parts of the error messages that are worth a retry, in lower case.  Other Notes errors fail the record at once. */
+    protected static final String[] TRANSIENT_ERRORS = {
+        "not responding", "unable to find path", "network", "timed out", "timeout", "connection", "remote system",
+        "server is busy", "in use", "try again"
+    };
+
+    /**
+     * Options for a batch upload.
+     */
+    public static class BatchOptions {
+        public File manifestFile = null;
+        public int workers = DEFAULT_WORKERS;
+        public int retries = DEFAULT_RETRIES;
+        /** Defaults to the manifest with <code>.results.json</code> appended */
+        public File resultsFile = null;
+        /** The vault server for records without a <code>server</code> */
+        public String serverName = null;
+        /** Push the IDs even if they did not change */
+        public boolean force = false;
+        /** The cache of pushed IDs, or <code>null</code> if it is disabled */
+        public VaultDigestCache digestCache = null;
+    }
+
+    /**
+     * One ID from the manifest, and the result of the push.
+     */
+    public static class BatchEntry {
+        public final int record;
+        public final String idFilePath;
+        public final String username;
+        public final String password;
+        public final String serverName;
+        /** pending, uploaded, synced, unchanged or failed */
+        public String status = "pending";
+        public int attempts = 0;
+        public long millis = -1;
+        public String error = null;
+
+        public BatchEntry(int record, String idFilePath, String username, String password, String serverName) {
+            this.record = record;
+            this.idFilePath = idFilePath;
+            this.username = username;
+            this.password = password;
+            this.serverName = serverName;
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("record", record);
+            json.put("idFile", null == idFilePath ? JSONObject.NULL : idFilePath);
+            json.put("username", null == username ? JSONObject.NULL : username);
+            json.put("server", null == serverName ? JSONObject.NULL : serverName);
+            json.put("status", status);
+            json.put("attempts", attempts);
+            json.put("millis", millis);
+            if (null != error) {
+                json.put("error", error);
+            }
+            return json;
+        }
+    }
+
     public static void main(String[] args) {
-        if (args.length < 4) {
+        // batches run locally, so the daemon isn't tied up for the whole batch
+        if (isBatchMode(args)) {
+            try {
+                System.exit(pushBatch(parseBatchOptions(args)) ? 0 : 1);
+            }
+            catch (Throwable throwable) {
+                System.out.println("FAILED!");
+                throwable.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        // hand the command to a running HelperDaemon if one is available
+        int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+        if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+            System.exit(daemonStatus);
+        }
+
+        List<String> arguments = new ArrayList<String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                arguments.add(arg);
+            }
+            else if (!arg.equals("--force") && !arg.startsWith("--digest-cache=") && !arg.equals("--no-digest-cache")) {
+                System.out.println("Unknown argument '" + arg + "'.  Usage: ");
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+        }
+        if (arguments.size() < 4) {
             System.out.println("Insufficient Arguments. Usage: ");
-            System.out.println("java -jar PushUserIDtoIDVault.jar <id_file_path> <username> <password> <server_name>");
+            System.out.println(USAGE);
             System.exit(1);
         }
 
-        String idFilePath = args[0];
-        String username = args[1];
-        String password = args[2];
-        String serverName = args[3];
+        String idFilePath = arguments.get(0);
+        String username = arguments.get(1);
+        String password = arguments.get(2);
+        String serverName = arguments.get(3);
 
+        Session session = null;
         try {
             NotesThread.sinitThread();
-            Session session = NotesFactory.createSession();
+            session = NotesFactory.createSession();
             System.out.println("Running on Notes Version: '" + session.getNotesVersion() + "'.");
 
-            uploadIDToVault(session, idFilePath, username, password, serverName);
+            uploadIDToVault(session, idFilePath, username, password, serverName, getDigestCache(args), isForced(args));
         }
         catch (Throwable throwable) {
             System.out.println("FAILED!");
             throwable.printStackTrace();
         }
         finally {
+            if (null != session) {
+                try {
+                    session.recycle();
+                } catch (NotesException e) {
+                    // Ignore recycling errors
+                }
+            }
             NotesThread.stermThread();
         }
     }
 
-    public static void uploadIDToVault(Session session, String idFilePath, String username, String password, String serverName) 
+    /**
+     * Check if the arguments are for the batch mode.
+     */
+    public static boolean isBatchMode(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--batch=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isForced(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--force")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the digest cache for the <code>--digest-cache=&lt;file&gt;</code> and <code>--no-digest-cache</code> options.
+     * @return the cache, or <code>null</code> if it is disabled or could not be read
+     */
+    public static VaultDigestCache getDigestCache(String[] args) {
+        File cacheFile = VaultDigestCache.DEFAULT_FILE;
+        for (String arg : args) {
+            if (arg.equals("--no-digest-cache")) {
+                return null;
+            }
+            else if (arg.startsWith("--digest-cache=")) {
+                cacheFile = new File(arg.substring("--digest-cache=".length()));
+            }
+        }
+        try {
+            // a new instance for each command, since the daemon runs many commands in one process
+            return new VaultDigestCache(cacheFile);
+        }
+        catch (Exception ex) {
+            System.out.println("Could not read the digest cache.  Pushing all IDs:  " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Push an ID with the default digest cache.
+     */
+    public static void uploadIDToVault(Session session, String idFilePath, String username, String password, String serverName)
             throws NotesException {
+        uploadIDToVault(session, idFilePath, username, password, serverName, getDigestCache(new String[0]), false);
+    }
+
+    /**
+     * Push an ID, unless the digest cache shows that the same file was already pushed.
+     * @param digestCache  the cache of pushed IDs, or <code>null</code> to always push
+     * @param force  push and verify the ID even if it is unchanged
+     */
+    public static void uploadIDToVault(Session session, String idFilePath, String username, String password, String serverName,
+            VaultDigestCache digestCache, boolean force) throws NotesException {
+        String digest = getDigest(digestCache, idFilePath);
+        if (null != digest && !force && digestCache.isUnchanged(username, serverName, digest)) {
+            System.out.println("ID for user '" + username + "' is unchanged since the last push.  Skipping the vault.");
+            System.out.println("SUCCESSFUL!");
+            return;
+        }
+
         IDVault idVault = null;
         try {
             idVault = session.getIDVault();
@@ -49,33 +254,27 @@ public class PushUserIDtoIDVault {
                 throw new Exception("Unable to access ID Vault.");
             }
 
-            // Check if ID is already in vault
-            boolean isInVault = idVault.isIDInVault(username, serverName);
-            if (isInVault) {
-                System.out.println("ID for user '" + username + "' is already in the vault. Attempting to sync...");
-                idVault.syncUserIDFile(idFilePath, username, password, serverName);
+            System.out.println("Pushing ID for user '" + username + "' to vault...");
+            String result = pushToVault(idVault, idFilePath, username, password, serverName);
+            if (result.equals("synced")) {
                 System.out.println("Successfully synchronized ID in vault.");
             } else {
-                System.out.println("Uploading ID for user '" + username + "' to vault...");
-                idVault.putUserIDFile(idFilePath, username, password, serverName);
                 System.out.println("Successfully uploaded ID to vault.");
             }
-
-            // Verify the ID is now in the vault
-            if (idVault.isIDInVault(username, serverName)) {
-                String vaultServer = idVault.getServerName();
-                System.out.println("SUCCESSFUL!");
-                System.out.println("ID for user '" + username + "' is confirmed to be in the vault on server '" + vaultServer + "'.");
-            } else {
-                throw new Exception("Failed to verify ID in vault after upload/sync operation.");
-            }
+            // a sync can rewrite the ID file, so store the digest of the file as it is now
+            updateDigestCache(digestCache, username, serverName, getDigest(digestCache, idFilePath));
+            String vaultServer = idVault.getServerName();
+            System.out.println("SUCCESSFUL!");
+            System.out.println("ID for user '" + username + "' is confirmed to be in the vault on server '" + vaultServer + "'.");
         }
         catch (NotesException ex) {
+            updateDigestCache(digestCache, username, serverName, null);
             System.out.println("FAILED!");
             System.out.println("Notes Error: " + ex.text);
             throw ex;
         }
         catch (Exception ex) {
+            updateDigestCache(digestCache, username, serverName, null);
             System.out.println("FAILED!");
             System.out.println("Error: " + ex.getMessage());
             throw new NotesException(0, ex.getMessage());
@@ -88,9 +287,339 @@ public class PushUserIDtoIDVault {
                     // Ignore recycling errors
                 }
             }
+            // the session belongs to the caller, so it is not recycled here
+        }
+    }
+
+    /**
+     * Upload the ID, or sync it if it is already in the vault, and verify that it is in the vault afterwards.
+     * @return <code>uploaded</code> or <code>synced</code>
+     * @throws Exception if the push failed, or the ID is not in the vault afterwards
+     */
+    public static String pushToVault(IDVault idVault, String idFilePath, String username, String password, String serverName)
+            throws Exception {
+        String result;
+        if (idVault.isIDInVault(username, serverName)) {
+            idVault.syncUserIDFile(idFilePath, username, password, serverName);
+            result = "synced";
+        } else {
+            idVault.putUserIDFile(idFilePath, username, password, serverName);
+            result = "uploaded";
+        }
+        if (!idVault.isIDInVault(username, serverName)) {
+            throw new Exception("Failed to verify ID in vault after upload/sync operation.");
+        }
+        return result;
+    }
+
+    /**
+     * Compute the digest of an ID file for the cache.
+     * @return the digest, or <code>null</code> if the cache is disabled or the file could not be read
+     */
+    protected static String getDigest(VaultDigestCache digestCache, String idFilePath) {
+        if (null == digestCache) {
+            return null;
+        }
+        try {
+            return VaultDigestCache.digest(new File(idFilePath));
+        }
+        catch (Exception ex) {
+            System.out.println("Could not compute the digest of '" + idFilePath + "':  " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store the digest after a successful push, or remove the user from the cache if the digest is <code>null</code>.
+     * Errors are reported, but don't fail the push.
+     */
+    protected static void updateDigestCache(VaultDigestCache digestCache, String username, String serverName, String digest) {
+        if (null == digestCache) {
+            return;
+        }
+        try {
+            if (null == digest) {
+                digestCache.remove(username, serverName);
+            }
+            else {
+                digestCache.record(username, serverName, digest);
+            }
+        }
+        catch (Exception ex) {
+            System.out.println("Could not update the digest cache '" + digestCache.getFile().getAbsolutePath() + "':  " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Parse the batch arguments.
+     */
+    public static BatchOptions parseBatchOptions(String[] args) throws Exception {
+        BatchOptions options = new BatchOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--batch=")) {
+                options.manifestFile = new File(arg.substring("--batch=".length()));
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = (int) CheckDatabase.parseNumber(arg, "--workers=", 1);
+            }
+            else if (arg.startsWith("--retries=")) {
+                options.retries = (int) CheckDatabase.parseNumber(arg, "--retries=", 0);
+            }
+            else if (arg.startsWith("--results=")) {
+                options.resultsFile = new File(arg.substring("--results=".length()));
+            }
+            else if (arg.equals("--force")) {
+                options.force = true;
+            }
+            else if (arg.startsWith("--digest-cache=") || arg.equals("--no-digest-cache")) {
+                // read below
+                continue;
+            }
+            else if (arg.startsWith("--")) {
+                throw new Exception("Unknown argument '" + arg + "'.  USAGE:  " + BATCH_USAGE);
+            }
+            else if (null == options.serverName) {
+                options.serverName = arg;
+            }
+            else {
+                throw new Exception("Unexpected argument '" + arg + "'.  USAGE:  " + BATCH_USAGE);
+            }
+        }
+        if (null == options.manifestFile) {
+            throw new Exception("No manifest specified.  USAGE:  " + BATCH_USAGE);
+        }
+        if (null == options.resultsFile) {
+            options.resultsFile = new File(options.manifestFile.getPath() + ".results.json");
+        }
+        options.digestCache = getDigestCache(args);
+        return options;
+    }
+
+    /**
+     * Read the manifest.  Records with missing values are marked as failed, so that they appear in the results.
+     */
+    public static List<BatchEntry> readManifest(File manifestFile, String defaultServer) throws Exception {
+        if (!manifestFile.exists()) {
+            throw new Exception("Manifest file not found at:  '" + manifestFile.getAbsolutePath() + "'.");
+        }
+        List<BatchEntry> entries = new ArrayList<BatchEntry>();
+        BulkUserRegistration.RecordReader reader = new BulkUserRegistration.RecordReader(manifestFile, new Properties());
+        try {
+            Properties record;
+            while (null != (record = reader.next())) {
+                BatchEntry entry = new BatchEntry(reader.getRecordNumber(), resolvePath(manifestFile, record.getProperty("idFile")),
+                        record.getProperty("username"), record.getProperty("password"), record.getProperty("server", defaultServer));
+                if (null == entry.idFilePath || null == entry.username || null == entry.password || null == entry.serverName) {
+                    entry.status = "failed";
+                    entry.error = "The record needs idFile, username, password and server.";
+                }
+                else if (!new File(entry.idFilePath).exists()) {
+                    entry.status = "failed";
+                    entry.error = "ID file not found at:  '" + entry.idFilePath + "'.";
+                }
+                entries.add(entry);
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Resolve a relative path against the directory of the manifest, so that it does not depend on the working directory.
+     */
+    protected static String resolvePath(File manifestFile, String path) {
+        if (null == path || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(manifestFile.getAbsoluteFile().getParentFile(), path).getPath();
+    }
+
+    /**
+     * Check if a failed push is worth a retry.
+     * Errors without a Notes error, like a failed verification or an unavailable vault, are retried.  Notes errors are
+     * only retried if the message matches {@link #TRANSIENT_ERRORS}, so that a wrong password or an unknown user fails at once.
+     */
+    public static boolean isTransient(Exception ex) {
+        if (!(ex instanceof NotesException)) {
+            return true;
+        }
+        String message = String.valueOf(((NotesException) ex).text).toLowerCase();
+        for (String error : TRANSIENT_ERRORS) {
+            if (message.contains(error)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Push the IDs from the manifest on a pool of Notes threads and write the results.
+     * @return <code>true</code> if all IDs are in the vault
+     */
+    public static boolean pushBatch(BatchOptions options) throws Exception {
+        List<BatchEntry> entries = readManifest(options.manifestFile, options.serverName);
+        final Queue<BatchEntry> queue = new ConcurrentLinkedQueue<BatchEntry>();
+        for (BatchEntry entry : entries) {
+            if (entry.status.equals("pending")) {
+                queue.add(entry);
+            }
+        }
+        final int total = queue.size();
+        final BatchOptions batchOptions = options;
+        final AtomicInteger done = new AtomicInteger(0);
+        int workerCount = Math.min(Math.max(1, options.workers), Math.max(1, total));
+        System.out.println("Pushing " + total + " of " + entries.size() + " ID(s) with " + workerCount + " worker(s).");
+
+        long start = System.currentTimeMillis();
+        NotesThread.sinitThread();
+        try {
+            ExecutorService pool = NotesWorkerPool.create(APP_NAME, workerCount);
             try {
-                session.recycle();
-            } catch (NotesException e) {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int i = 0; i < workerCount; i++) {
+                    futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            pushEntries(queue, batchOptions, done, total);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            finally {
+                NotesWorkerPool.shutdown(pool);
+            }
+        }
+        finally {
+            NotesThread.stermThread();
+        }
+
+        int uploaded = 0;
+        int synced = 0;
+        int unchanged = 0;
+        int failed = 0;
+        JSONArray results = new JSONArray();
+        for (BatchEntry entry : entries) {
+            if (entry.status.equals("pending")) {
+                entry.status = "failed";
+                entry.error = "Not pushed.";
+            }
+            if (entry.status.equals("uploaded")) {
+                uploaded++;
+            }
+            else if (entry.status.equals("synced")) {
+                synced++;
+            }
+            else if (entry.status.equals("unchanged")) {
+                unchanged++;
+            }
+            else {
+                failed++;
+            }
+            results.put(entry.toJSON());
+        }
+        JSONObject report = new JSONObject();
+        report.put("manifest", options.manifestFile.getAbsolutePath());
+        report.put("durationMillis", System.currentTimeMillis() - start);
+        report.put("uploaded", uploaded);
+        report.put("synced", synced);
+        report.put("unchanged", unchanged);
+        report.put("failed", failed);
+        report.put("entries", results);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(options.resultsFile), "UTF-8");
+        try {
+            report.write(writer);
+        }
+        finally {
+            writer.close();
+        }
+
+        System.out.println("Pushed " + (uploaded + synced) + " of " + entries.size() + " ID(s):  " + uploaded + " uploaded, " +
+                synced + " synced, " + unchanged + " unchanged, " + failed + " failed.  Results:  '" +
+                options.resultsFile.getAbsolutePath() + "'.");
+        return failed == 0;
+    }
+
+    /**
+     * Push entries from the queue until it is empty.  Runs on a Notes worker with its own session.
+     */
+    protected static void pushEntries(Queue<BatchEntry> queue, BatchOptions options, AtomicInteger done, int total) {
+        Session session = null;
+        IDVault idVault = null;
+        try {
+            session = NotesFactory.createSession();
+            BatchEntry entry;
+            while (null != (entry = queue.poll())) {
+                long start = System.currentTimeMillis();
+                String digest = getDigest(options.digestCache, entry.idFilePath);
+                if (null != digest && !options.force && options.digestCache.isUnchanged(entry.username, entry.serverName, digest)) {
+                    entry.status = "unchanged";
+                }
+                while (entry.status.equals("pending")) {
+                    entry.attempts++;
+                    try {
+                        if (null == idVault) {
+                            idVault = session.getIDVault();
+                            if (null == idVault) {
+                                throw new Exception("Unable to access ID Vault.");
+                            }
+                        }
+                        entry.status = pushToVault(idVault, entry.idFilePath, entry.username, entry.password, entry.serverName);
+                        entry.error = null;
+                    }
+                    catch (Exception ex) {
+                        entry.error = ex instanceof NotesException ? ((NotesException) ex).text : ex.getMessage();
+                        // get a new vault object for the next attempt
+                        if (null != idVault) {
+                            try {
+                                idVault.recycle();
+                            }
+                            catch (NotesException e) {
+                                // Ignore recycling errors
+                            }
+                            idVault = null;
+                        }
+                        if (entry.attempts > options.retries || !isTransient(ex)) {
+                            entry.status = "failed";
+                        }
+                        else {
+                            Thread.sleep(RETRY_DELAY_MILLIS << (entry.attempts - 1));
+                        }
+                    }
+                }
+                if (entry.status.equals("uploaded") || entry.status.equals("synced")) {
+                    // a sync can rewrite the ID file, so store the digest of the file as it is now
+                    updateDigestCache(options.digestCache, entry.username, entry.serverName,
+                            getDigest(options.digestCache, entry.idFilePath));
+                }
+                else if (entry.status.equals("failed")) {
+                    updateDigestCache(options.digestCache, entry.username, entry.serverName, null);
+                }
+                entry.millis = System.currentTimeMillis() - start;
+                System.out.println("[" + done.incrementAndGet() + "/" + total + "] " + entry.status + " '" + entry.username + "'" +
+                        (entry.attempts > 1 ? " after " + entry.attempts + " attempts" : "") +
+                        (null == entry.error ? "." : ":  " + entry.error));
+            }
+        }
+        catch (NotesException ex) {
+            System.out.println("Could not create a session:  " + ex.text);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            try {
+                if (null != idVault) {
+                    idVault.recycle();
+                }
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch (NotesException e) {
                 // Ignore recycling errors
             }
         }
@@ -0,0 +1,145 @@
+package net.prominic.domino.vagrant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * Remembers the SHA-256 digest of the last ID file that was successfully pushed to the ID Vault for each user and
+ * vault server, so that an unchanged ID can be skipped without contacting the vault.
+ * <p>
+ * The digests are stored in a properties file (default <code>~/.idvault-digests.properties</code>).  The file is
+ * re-read before each update, so that several processes lose at most an entry when they write at the same time,
+ * and before each check if it changed on disk, so that an entry removed by another process is not trusted.
+ * A lost or stale entry only causes the ID to be pushed again.
+ * Create a new instance for each command instead of keeping one in a long-running process.
+ * </p>
+ */
+public class VaultDigestCache {
+
+	public static final File DEFAULT_FILE = new File(System.getProperty("user.home"), ".idvault-digests.properties");
+
+	private final File file;
+	private final Properties digests = new Properties();
+	/** The modification time and size of the file when it was last read, to detect changes by other processes */
+	private long loadedModified = -1;
+	private long loadedLength = -1;
+
+	public VaultDigestCache(File file) throws Exception {
+		this.file = file;
+		load();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Check if the ID with the given digest was the last one pushed for the user.
+	 * The file is read again first if it changed since it was last read.
+	 * @return <code>false</code> if the file could not be read
+	 */
+	public synchronized boolean isUnchanged(String username, String serverName, String digest) {
+		try {
+			if (file.lastModified() != loadedModified || file.length() != loadedLength) {
+				load();
+			}
+		}
+		catch (Exception ex) {
+			System.out.println("Could not read the digest cache '" + file.getAbsolutePath() + "':  " + ex.getMessage());
+			return false;
+		}
+		return digest.equals(digests.getProperty(getKey(username, serverName)));
+	}
+
+	/**
+	 * Store the digest after a successful push.
+	 */
+	public synchronized void record(String username, String serverName, String digest) throws Exception {
+		load();
+		digests.setProperty(getKey(username, serverName), digest);
+		save();
+	}
+
+	/**
+	 * Forget the user, e.g. after a failed push left the vault in an unknown state.
+	 */
+	public synchronized void remove(String username, String serverName) throws Exception {
+		load();
+		if (null != digests.remove(getKey(username, serverName))) {
+			save();
+		}
+	}
+
+	/**
+	 * Compute the SHA-256 digest of a file as a hex string.
+	 */
+	public static String digest(File idFile) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		InputStream in = new FileInputStream(idFile);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally {
+			in.close();
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	protected static String getKey(String username, String serverName) {
+		return EffectiveAccess.normalize(username) + "!!" + EffectiveAccess.normalize(serverName);
+	}
+
+	private void load() throws Exception {
+		// start over, so that entries removed by other processes are dropped
+		digests.clear();
+		loadedModified = file.lastModified();
+		loadedLength = file.length();
+		if (!file.exists()) {
+			return;
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			digests.load(in);
+		}
+		catch (Exception ex) {
+			throw new Exception("Could not read '" + file.getAbsolutePath() + "'.", ex);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void save() throws Exception {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new Exception("Could not create directory '" + directory.getAbsolutePath() + "'.");
+		}
+		// a unique name, since other processes may update the cache at the same time
+		File tempFile = Files.createTempFile(directory.toPath(), file.getName(), ".tmp").toFile();
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			digests.store(out, "SHA-256 of the last ID file pushed to the ID Vault, by user!!server");
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		loadedModified = file.lastModified();
+		loadedLength = file.length();
+	}
+}
@@ -1,15 +1,105 @@
 package net.prominic.domino.vagrant;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import lotus.domino.*;
 
 /**
  * Display some information to help debug the Notes user
+ * <p>
+ * With <code>--bulk</code>, databases are signed with the ID on a pool of Notes threads.  The databases are given as
+ * paths or globs relative to the data directory (e.g. <code>apps/**.nsf</code>), or in a <code>--list</code> file with
+ * one database per line, optionally followed by note selectors:  the design element types from {@link #SIGN_TYPES}
+ * or document UNIDs.  Without selectors, all design elements are signed.
+ * </p>
  * @author joelanderson
  *
  */
 public class CheckNotesUser {
 
+    private static final String APP_NAME = "CheckNotesUser";
+    public static final String BULK_USAGE = "java -jar CheckNotesUser.jar --bulk [--id=<notes.id>] [--workers=<count>] [--list=<file>] " +
+            "[--select=<selector>]... [<database-or-glob>...]";
+
+    public static final int DEFAULT_SIGN_WORKERS = 4;
+
+    /** The Database.DBSIGN_DOC_* note types by selector name */
+    public static final Map<String, Integer> SIGN_TYPES = new HashMap<String, Integer>();
+
+    static {
+        SIGN_TYPES.put("all", Database.DBSIGN_DOC_ALL);
+        SIGN_TYPES.put("acl", Database.DBSIGN_DOC_ACL);
+        SIGN_TYPES.put("agent", Database.DBSIGN_DOC_AGENT);
+        SIGN_TYPES.put("data", Database.DBSIGN_DOC_DATA);
+        SIGN_TYPES.put("form", Database.DBSIGN_DOC_FORM);
+        SIGN_TYPES.put("help", Database.DBSIGN_DOC_HELP);
+        SIGN_TYPES.put("icon", Database.DBSIGN_DOC_ICON);
+        SIGN_TYPES.put("replformula", Database.DBSIGN_DOC_REPLFORMULA);
+        SIGN_TYPES.put("sharedfield", Database.DBSIGN_DOC_SHAREDFIELD);
+        SIGN_TYPES.put("view", Database.DBSIGN_DOC_VIEW);
+    }
+
+    /**
+     * Options for bulk signing.
+     */
+    public static class SignOptions {
+        /** The ID to sign with, or <code>null</code> for the ID in notes.ini */
+        public String notesIDPath = null;
+        public int workers = DEFAULT_SIGN_WORKERS;
+        /** A file with one database and its optional selectors per line */
+        public File listFile = null;
+        /** The selectors for the databases on the command line */
+        public List<String> selectors = new ArrayList<String>();
+        /** Database paths or globs */
+        public List<String> patterns = new ArrayList<String>();
+    }
+
+    /**
+     * A database to sign, and the result.
+     */
+    public static class SignTarget {
+        public final String path;
+        /** Note types or UNIDs.  Empty to sign all design elements */
+        public final List<String> selectors;
+        public String error = null;
+        public long millis = -1;
+
+        public SignTarget(String path, List<String> selectors) {
+            this.path = path;
+            this.selectors = selectors;
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bulk")) {
+            try {
+                System.exit(bulkSign(parseSignOptions(args)) ? 0 : 1);
+            }
+            catch (Throwable throwable) {
+                throwable.printStackTrace();
+                System.exit(1);
+            }
+        }
+
         try {
             String notesIDPath = null;
             if (args.length >= 1) {
@@ -43,17 +133,7 @@ public class CheckNotesUser {
         try {
             NotesThread.sinitThread();
 
-            // build the session arguments
-            String[] args = null;
-            if (null == notesIDPath || notesIDPath.trim().equals("")) {
-                System.out.println("Using default notesID path.");
-                args = new String[0];
-            }
-            else {
-                System.out.println("Using the passed NotesID path '" + notesIDPath + "'.");
-                args = new String[1];
-                args[0] = "=" + notesIDPath;
-            }
+            String[] args = getSessionArgs(notesIDPath);
 
 //            Session session = NotesFactory.createSession("localhost", args, "", "");
             Session session = NotesFactory.createSession(null, args, null, null);
@@ -123,4 +203,290 @@ public class CheckNotesUser {
 
     }
 
+    /**
+     * Build the session arguments to use the given ID.
+     * @param notesIDPath  The path to the NotesID file, or <code>null</code> for the default
+     */
+    protected static String[] getSessionArgs(String notesIDPath) {
+        String[] args = null;
+        if (null == notesIDPath || notesIDPath.trim().equals("")) {
+            System.out.println("Using default notesID path.");
+            args = new String[0];
+        }
+        else {
+            System.out.println("Using the passed NotesID path '" + notesIDPath + "'.");
+            args = new String[1];
+            args[0] = "=" + notesIDPath;
+        }
+        return args;
+    }
+
+    /**
+     * Parse the bulk signing arguments.
+     */
+    public static SignOptions parseSignOptions(String[] args) throws Exception {
+        SignOptions options = new SignOptions();
+        for (String arg : args) {
+            if (arg.equals("--bulk")) {
+                continue;
+            }
+            else if (arg.startsWith("--id=")) {
+                options.notesIDPath = arg.substring("--id=".length());
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = (int) CheckDatabase.parseNumber(arg, "--workers=", 1);
+            }
+            else if (arg.startsWith("--list=")) {
+                options.listFile = new File(arg.substring("--list=".length()));
+            }
+            else if (arg.startsWith("--select=")) {
+                options.selectors.add(checkSelector(arg.substring("--select=".length()).trim()));
+            }
+            else if (arg.startsWith("--")) {
+                throw new Exception("Unknown argument '" + arg + "'.  USAGE:  " + BULK_USAGE);
+            }
+            else {
+                options.patterns.add(arg);
+            }
+        }
+        if (options.patterns.isEmpty() && null == options.listFile) {
+            throw new Exception("No databases specified.  USAGE:  " + BULK_USAGE);
+        }
+        return options;
+    }
+
+    /**
+     * Check that a selector is a note type or a UNID.
+     * @return the selector
+     */
+    protected static String checkSelector(String selector) throws Exception {
+        if (!SIGN_TYPES.containsKey(selector.toLowerCase()) && !isUNID(selector)) {
+            throw new Exception("Invalid selector '" + selector + "'.  Use a UNID or one of " + SIGN_TYPES.keySet() + ".");
+        }
+        return selector;
+    }
+
+    protected static boolean isUNID(String value) {
+        return value.matches("[0-9A-Fa-f]{32}");
+    }
+
+    /**
+     * Sign the databases on a pool of Notes threads.
+     * The ID is unlocked by the first session, so the worker sessions reuse it instead of unlocking it again.
+     * @return <code>true</code> if all databases were signed
+     */
+    public static boolean bulkSign(SignOptions options) throws Exception {
+        Session session = null;
+        try {
+            NotesThread.sinitThread();
+
+            final String[] sessionArgs = getSessionArgs(options.notesIDPath);
+            session = NotesFactory.createSession(null, sessionArgs, null, null);
+            System.out.println("Signing as '" + session.getUserName() + "'.");
+
+            File dataDirectory = new File(CreateNamesDatabase.getDataDirectory(session));
+            List<SignTarget> targets = getSignTargets(options, dataDirectory);
+            if (targets.isEmpty()) {
+                throw new Exception("No databases matched.");
+            }
+
+            long start = System.currentTimeMillis();
+            // the databases are taken from a shared queue, since signing times vary a lot
+            final Queue<SignTarget> queue = new ConcurrentLinkedQueue<SignTarget>(targets);
+            final AtomicInteger done = new AtomicInteger(0);
+            final int total = targets.size();
+            int workerCount = Math.min(Math.max(1, options.workers), total);
+            System.out.println("Signing " + total + " database(s) with " + workerCount + " worker(s).");
+
+            ExecutorService pool = NotesWorkerPool.create(APP_NAME, workerCount);
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int i = 0; i < workerCount; i++) {
+                    futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            Session workerSession = null;
+                            try {
+                                workerSession = NotesFactory.createSession(null, sessionArgs, null, null);
+                                SignTarget target;
+                                while (null != (target = queue.poll())) {
+                                    signTarget(workerSession, target);
+                                    String result = null == target.error ? "Signed" : "FAILED";
+                                    System.out.println("[" + done.incrementAndGet() + "/" + total + "] " + result + " '" + target.path +
+                                            "' in " + target.millis + " ms." + (null == target.error ? "" : "  " + target.error));
+                                }
+                            }
+                            catch (NotesException ex) {
+                                System.out.println("Could not create a session:  " + ex.text);
+                            }
+                            finally {
+                                try {
+                                    if (null != workerSession) {
+                                        workerSession.recycle();
+                                    }
+                                }
+                                catch (NotesException ex) {
+                                    ex.printStackTrace();
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            finally {
+                NotesWorkerPool.shutdown(pool);
+            }
+
+            List<SignTarget> failures = new ArrayList<SignTarget>();
+            for (SignTarget target : targets) {
+                if (target.millis < 0 && null == target.error) {
+                    target.error = "Not signed.";
+                }
+                if (null != target.error) {
+                    failures.add(target);
+                }
+            }
+            System.out.println("Signed " + (total - failures.size()) + " of " + total + " database(s) in " +
+                    (System.currentTimeMillis() - start) + " ms.");
+            if (!failures.isEmpty()) {
+                System.out.println("Failed:");
+                for (SignTarget target : failures) {
+                    System.out.println("\t" + target.path + ":  " + target.error);
+                }
+            }
+            return failures.isEmpty();
+        }
+        finally {
+            if (null != session) {
+                session.recycle();
+            }
+            NotesThread.stermThread();
+        }
+    }
+
+    /**
+     * Resolve the databases from the command line and the list file.  Globs are matched against the paths relative
+     * to the data directory.
+     */
+    protected static List<SignTarget> getSignTargets(SignOptions options, File dataDirectory) throws Exception {
+        List<SignTarget> targets = new ArrayList<SignTarget>();
+        List<String> databaseFiles = null;
+        List<String[]> lines = new ArrayList<String[]>();
+        for (String pattern : options.patterns) {
+            lines.add(new String[] { pattern });
+        }
+        if (null != options.listFile) {
+            for (String line : CheckDatabase.readLines(options.listFile)) {
+                lines.add(line.split("\\s+"));
+            }
+        }
+        for (String[] line : lines) {
+            List<String> selectors = new ArrayList<String>();
+            if (line.length > 1) {
+                for (String selector : Arrays.asList(line).subList(1, line.length)) {
+                    selectors.add(checkSelector(selector));
+                }
+            }
+            else {
+                selectors.addAll(options.selectors);
+            }
+            String pattern = line[0];
+            if (!pattern.matches(".*[*?\\[{].*")) {
+                targets.add(new SignTarget(pattern, selectors));
+                continue;
+            }
+            if (null == databaseFiles) {
+                databaseFiles = listDatabaseFiles(dataDirectory);
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            int matched = 0;
+            for (String path : databaseFiles) {
+                if (matcher.matches(new File(path).toPath())) {
+                    targets.add(new SignTarget(path, selectors));
+                    matched++;
+                }
+            }
+            System.out.println("Pattern '" + pattern + "' matched " + matched + " database(s).");
+        }
+        return targets;
+    }
+
+    /**
+     * List the .nsf and .ntf files under the data directory, relative to it and with <code>/</code> separators.
+     */
+    protected static List<String> listDatabaseFiles(final File dataDirectory) throws IOException {
+        final List<String> paths = new ArrayList<String>();
+        final Path base = dataDirectory.toPath();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString().toLowerCase();
+                if (name.endsWith(".nsf") || name.endsWith(".ntf")) {
+                    paths.add(base.relativize(file).toString().replace(File.separatorChar, '/'));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                System.out.println("Could not read '" + file + "':  " + ex.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * Sign one database.  Documents selected by UNID are saved after they are signed.  Errors are stored in the target.
+     */
+    protected static void signTarget(Session session, SignTarget target) {
+        long start = System.currentTimeMillis();
+        Database database = null;
+        try {
+            database = session.getDatabase("", target.path, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database '" + target.path + "'.");
+            }
+            if (target.selectors.isEmpty()) {
+                database.sign();
+            }
+            for (String selector : target.selectors) {
+                if (isUNID(selector)) {
+                    Document document = database.getDocumentByUNID(selector);
+                    if (null == document) {
+                        throw new Exception("Could not find document with ID '" + selector + "'.");
+                    }
+                    try {
+                        document.sign();
+                        document.save(true, false);
+                    }
+                    finally {
+                        document.recycle();
+                    }
+                }
+                else {
+                    database.sign(SIGN_TYPES.get(selector.toLowerCase()));
+                }
+            }
+        }
+        catch (NotesException ex) {
+            target.error = ex.text;
+        }
+        catch (Exception ex) {
+            target.error = ex.getMessage();
+        }
+        finally {
+            target.millis = System.currentTimeMillis() - start;
+            try {
+                if (null != database) {
+                    database.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
 }
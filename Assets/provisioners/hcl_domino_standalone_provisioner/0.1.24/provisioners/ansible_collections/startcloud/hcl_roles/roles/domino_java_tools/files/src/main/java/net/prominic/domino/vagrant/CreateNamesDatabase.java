@@ -1,21 +1,65 @@
 package net.prominic.domino.vagrant;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+import com.sun.jna.ptr.LongByReference;
 
 import lotus.domino.*;
 
 
+/**
+ * Create a local names.nsf from pernames.ntf.
+ * <p>
+ * A golden copy of the new names.nsf is kept in a cache directory (default <code>~/.names-cache</code>), keyed by the
+ * SHA-256 hash of the template file, the Notes version and the user name, since the new database has the user in
+ * its ACL.  If a matching copy exists, it is copied to the data directory and given a new replica ID, instead of
+ * creating the database from the template again.
+ * The copy is only stored after the session is recycled and the Notes thread is terminated, so that the file is
+ * complete on disk.  Its SHA-256 hash is stored next to it, and a cached copy that does not match is discarded.
+ * Use <code>--cache-dir=&lt;dir&gt;</code> to change the cache directory, or <code>--no-cache</code> to always use the template.
+ * </p>
+ */
 public class CreateNamesDatabase {
 
     private static final String APP_NAME = "CreateNamesDatabase";
+    private static final String USAGE = "java -jar CreateNamesDatabase.jar [--cache-dir=<dir>] [--no-cache]";
+
+    public static final String DEFAULT_DATA_DIRECTORY = "/local/notesdata";
+    public static final String NAMES_FILE = "names.nsf";
+    public static final String DIGEST_SUFFIX = ".sha256";
+
+    /** The golden copy cache, or <code>null</code> if the cache is disabled */
+    protected static File cacheDirectory = new File(System.getProperty("user.home"), ".names-cache");
 
     public static void main(String[] args) {
         Session session = null;
+        File goldenCopy = null;
+        File namesFile = null;
+        boolean created = false;
         try {
             System.out.println("Application '" + APP_NAME + "' started.");
 
+            for (String arg : args) {
+                if (arg.startsWith("--cache-dir=")) {
+                    cacheDirectory = new File(arg.substring("--cache-dir=".length()));
+                }
+                else if (arg.equals("--no-cache")) {
+                    cacheDirectory = null;
+                }
+                else {
+                    System.out.println("ERROR: Unknown argument '" + arg + "'.");
+                    System.out.println("USAGE:  " + USAGE);
+                    System.exit(-1);
+                }
+            }
+
             // Check for names.nsf at hard-code path
-            if (new File("/local/notesdata/names.nsf").exists()) {
+            if (new File(DEFAULT_DATA_DIRECTORY, NAMES_FILE).exists()) {
                 System.out.println("ERROR: names.nsf already exists.");
                 System.exit(-1);
             }
@@ -35,7 +79,9 @@ public class CreateNamesDatabase {
             }
             System.out.println("Running as user: '" + session.getUserName() + "'.");
 
-            createLocalNamesDatabase(session);
+            namesFile = new File(getDataDirectory(session), NAMES_FILE);
+            goldenCopy = createLocalNamesDatabase(session);
+            created = true;
 
 
             System.out.println("names.nsf was successfully created.");
@@ -55,14 +101,25 @@ public class CreateNamesDatabase {
                 ex.printStackTrace();
             }
             NotesThread.stermThread();
+            // names.nsf is closed now, so the file on disk is complete
+            if (created && null != goldenCopy) {
+                storeGoldenCopy(namesFile, goldenCopy);
+            }
             System.out.println("Application '" + APP_NAME + "' completed.");
         }
     }
 
 
-    public static void createLocalNamesDatabase(Session session) throws NotesException, Exception {
+    /**
+     * Create names.nsf in the data directory, from the cache if possible.
+     * @return the cache file to store the new database in, or <code>null</code> if it was copied from the cache
+     *   or the cache is disabled.  Pass it to {@link #storeGoldenCopy(File, File)} after the Notes thread is terminated.
+     */
+    public static File createLocalNamesDatabase(Session session) throws NotesException, Exception {
         Database template = null;
         Database localNames = null;
+        File goldenCopy = null;
+        File namesFile = new File(getDataDirectory(session), NAMES_FILE);
 
         try {
 
@@ -75,8 +132,28 @@ public class CreateNamesDatabase {
                 throw new Exception("Could not open template.");
             }
 
+            if (null != cacheDirectory) {
+                File templateFile = new File(template.getFilePath());
+                if (!templateFile.isAbsolute()) {
+                    templateFile = new File(getDataDirectory(session), template.getFilePath());
+                }
+                if (templateFile.exists()) {
+                    String key = getCacheKey(templateFile, session.getNotesVersion(), session.getUserName());
+                    goldenCopy = new File(new File(cacheDirectory, key), NAMES_FILE);
+                    if (goldenCopy.exists()) {
+                        if (copyGoldenCopy(goldenCopy, namesFile)) {
+                            return null;
+                        }
+                        // fall back to the template, and replace the bad copy
+                    }
+                }
+                else {
+                    System.out.println("Template file not found at '" + templateFile.getAbsolutePath() + "'.  Skipping the cache.");
+                }
+            }
+
             // Create a local names.nsf.  Don't inherit changes
-            localNames = template.createFromTemplate("", "names.nsf", false);
+            localNames = template.createFromTemplate("", NAMES_FILE, false);
             // use an absolute path so that it is created in the data directory
             //localNames = template.createFromTemplate("", "/local/notesdata/names.nsf", false);
             if (null == localNames || !localNames.isOpen()) {
@@ -92,5 +169,132 @@ public class CreateNamesDatabase {
             }
         }
 
+        return goldenCopy;
+    }
+
+    /**
+     * Copy the cached names.nsf to the data directory and give it a new replica ID.
+     * A copy that does not match its stored hash, or that can not be opened, is deleted from the cache.
+     * @return <code>true</code> if names.nsf was created from the cache
+     */
+    protected static boolean copyGoldenCopy(File goldenCopy, File namesFile) throws Exception {
+        File digestFile = new File(goldenCopy.getPath() + DIGEST_SUFFIX);
+        String expected = digestFile.exists() ? new String(Files.readAllBytes(digestFile.toPath()), "UTF-8").trim() : "";
+        if (!expected.equals(getDigest(goldenCopy))) {
+            System.out.println("Discarding cached names.nsf '" + goldenCopy.getAbsolutePath() + "', since it does not match its hash.");
+            discardGoldenCopy(goldenCopy);
+            return false;
+        }
+        System.out.println("Using cached names.nsf '" + goldenCopy.getAbsolutePath() + "'.");
+        Files.copy(goldenCopy.toPath(), namesFile.toPath());
+        try {
+            assignNewReplicaID(namesFile);
+            return true;
+        }
+        catch (Exception ex) {
+            System.out.println("Discarding cached names.nsf '" + goldenCopy.getAbsolutePath() + "':  " + ex.getMessage());
+            Files.delete(namesFile.toPath());
+            discardGoldenCopy(goldenCopy);
+            return false;
+        }
+    }
+
+    private static void discardGoldenCopy(File goldenCopy) {
+        goldenCopy.delete();
+        new File(goldenCopy.getPath() + DIGEST_SUFFIX).delete();
+    }
+
+    /**
+     * Get the data directory from notes.ini.
+     */
+    protected static String getDataDirectory(Session session) throws NotesException {
+        String directory = session.getEnvironmentString("Directory", true);
+        return null == directory || directory.trim().isEmpty() ? DEFAULT_DATA_DIRECTORY : directory.trim();
+    }
+
+    /**
+     * Compute the cache key from the template content, the Notes version and the user that creates the database.
+     */
+    protected static String getCacheKey(File templateFile, String notesVersion, String userName) throws Exception {
+        return getDigest(templateFile, "\n" + notesVersion + "\n" + userName);
+    }
+
+    /**
+     * Compute the SHA-256 hash of a file as a hex string.
+     */
+    protected static String getDigest(File file) throws Exception {
+        return getDigest(file, "");
+    }
+
+    private static String getDigest(File file, String suffix) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        digest.update(suffix.getBytes("UTF-8"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Copy the new names.nsf to the cache, with its hash.  Call this after the Notes thread is terminated, so that
+     * the database is closed.  The copy is written to a temporary file first, so that an interrupted copy
+     * is never used.  Errors are reported, but don't fail the run.
+     */
+    protected static void storeGoldenCopy(File namesFile, File goldenCopy) {
+        try {
+            File keyDirectory = goldenCopy.getParentFile();
+            if (!keyDirectory.isDirectory() && !keyDirectory.mkdirs()) {
+                throw new Exception("Could not create directory '" + keyDirectory.getAbsolutePath() + "'.");
+            }
+            File tempFile = new File(keyDirectory, NAMES_FILE + ".tmp");
+            Files.copy(namesFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // hash the copy, which is what later runs will read
+            Files.write(new File(goldenCopy.getPath() + DIGEST_SUFFIX).toPath(), getDigest(tempFile).getBytes("UTF-8"));
+            Files.move(tempFile.toPath(), goldenCopy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Stored names.nsf in the cache at '" + goldenCopy.getAbsolutePath() + "'.");
+        }
+        catch (Exception ex) {
+            System.out.println("Could not store names.nsf in the cache:  " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Give a copied database a new replica ID, so that it is not treated as a replica of the golden copy.
+     */
+    protected static void assignNewReplicaID(File databaseFile) throws Exception {
+        LongByReference handle = new LongByReference();
+        short status = NotesAPI.INSTANCE.NSFDbOpen(databaseFile.getAbsolutePath(), handle);
+        if (status != 0) {
+            throw new Exception("Could not open '" + databaseFile.getAbsolutePath() + "' to set the replica ID.  Error code:  " + status);
+        }
+        try {
+            NotesAPI.DBREPLICAINFO replicaInfo = new NotesAPI.DBREPLICAINFO();
+            status = NotesAPI.INSTANCE.NSFDbReplicaInfoGet(handle.getValue(), replicaInfo);
+            if (status != 0) {
+                throw new Exception("Could not read the replica ID of '" + databaseFile.getAbsolutePath() + "'.  Error code:  " + status);
+            }
+            // a replica ID is the creation time of the replica
+            NotesAPI.INSTANCE.OSCurrentTIMEDATE(replicaInfo.ID);
+            replicaInfo.write();
+            status = NotesAPI.INSTANCE.NSFDbReplicaInfoSet(handle.getValue(), replicaInfo);
+            if (status != 0) {
+                throw new Exception("Could not set the replica ID of '" + databaseFile.getAbsolutePath() + "'.  Error code:  " + status);
+            }
+        }
+        finally {
+            NotesAPI.INSTANCE.NSFDbClose(handle.getValue());
+        }
     }
-}
\ No newline at end of file
+}
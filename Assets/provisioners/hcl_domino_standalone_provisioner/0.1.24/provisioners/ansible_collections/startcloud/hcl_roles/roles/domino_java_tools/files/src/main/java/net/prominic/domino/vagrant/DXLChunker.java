@@ -0,0 +1,226 @@
+package net.prominic.domino.vagrant;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Split a DXL database export into smaller, well-formed DXL documents.
+ * Each chunk repeats the root <code>&lt;database&gt;</code> element and contains up to <code>chunkSize</code>
+ * top-level notes (<code>&lt;document&gt;</code> elements, design elements, the ACL, ...).
+ * Only one note is held in memory at a time, in addition to the current chunk.
+ */
+public class DXLChunker {
+
+	/**
+	 * Receives the chunks in order.
+	 */
+	public interface ChunkHandler {
+		/**
+		 * @param chunkIndex  the 0-based index of the chunk
+		 * @param dxl  the DXL for the chunk
+		 * @param noteCount  the number of notes in the chunk
+		 */
+		void handleChunk(int chunkIndex, String dxl, int noteCount) throws Exception;
+	}
+
+	/**
+	 * Receives each top-level note.
+	 */
+	public interface NoteHandler {
+		/**
+		 * @param root  the root element of the DXL
+		 * @param note  the events of the note, from its start element to its end element
+		 */
+		void handleNote(StartElement root, List<XMLEvent> note) throws Exception;
+	}
+
+	/**
+	 * Selects the notes that are included in the chunks.
+	 */
+	public interface NoteFilter {
+		/**
+		 * @param note  the events of the note, from its start element to its end element
+		 * @return <code>true</code> to import the note
+		 */
+		boolean accept(List<XMLEvent> note) throws Exception;
+	}
+
+	private final int chunkSize;
+	private final NoteFilter filter;
+
+	/**
+	 * @param chunkSize  the maximum number of notes per chunk
+	 */
+	public DXLChunker(int chunkSize) {
+		this(chunkSize, null);
+	}
+
+	/**
+	 * @param chunkSize  the maximum number of notes per chunk
+	 * @param filter  selects the notes to include, or <code>null</code> to include all notes
+	 */
+	public DXLChunker(int chunkSize, NoteFilter filter) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid chunk size:  " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		this.filter = filter;
+	}
+
+	/**
+	 * Create an input factory for DXL.  The DTD referenced by exported DXL is not loaded.
+	 */
+	public static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/**
+	 * Split the DXL from the input stream and pass the chunks to the handler.
+	 * @param in  the DXL input.  This is not closed.
+	 * @param firstChunk  chunks before this index are parsed, but not passed to the handler.  Used to resume an import.
+	 * @param handler  receives the chunks
+	 * @return the total number of chunks, including the skipped chunks
+	 * @throws Exception if the DXL is invalid or the handler failed
+	 */
+	public int split(InputStream in, int firstChunk, ChunkHandler handler) throws Exception {
+		XMLEventReader reader = createInputFactory().createXMLEventReader(in);
+		try {
+			return split(reader, firstChunk, handler);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Split the DXL from an existing event reader, so that the events can be filtered or rewritten first.
+	 * @see #split(InputStream, int, ChunkHandler)
+	 */
+	public int split(XMLEventReader reader, final int firstChunk, final ChunkHandler handler) throws Exception {
+		// the handler is called from the note loop, so keep the state in arrays
+		final Chunk[] chunk = new Chunk[1];
+		final int[] chunkIndex = new int[] { 0 };
+		StartElement root = forEachNote(reader, new NoteHandler() {
+			public void handleNote(StartElement root, List<XMLEvent> note) throws Exception {
+				if (null != filter && !filter.accept(note)) {
+					return;
+				}
+				if (null == chunk[0]) {
+					chunk[0] = new Chunk(root, chunkIndex[0] >= firstChunk);
+				}
+				chunk[0].add(note);
+				if (chunk[0].noteCount >= chunkSize) {
+					chunk[0].finish(chunkIndex[0], handler);
+					chunk[0] = null;
+					chunkIndex[0]++;
+				}
+			}
+		});
+		if (null != chunk[0]) {
+			chunk[0].finish(chunkIndex[0], handler);
+			chunkIndex[0]++;
+		}
+		return chunkIndex[0];
+	}
+
+	/**
+	 * Pass each top-level note of the DXL to the handler.
+	 * Whitespace between the notes is dropped.
+	 * @param reader  the DXL events
+	 * @param handler  receives the notes
+	 * @return the root element
+	 * @throws Exception if the DXL is invalid or the handler failed
+	 */
+	public static StartElement forEachNote(XMLEventReader reader, NoteHandler handler) throws Exception {
+		StartElement root = null;
+		List<XMLEvent> note = null;
+		int depth = 0;
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()) {
+				depth++;
+				if (depth == 1) {
+					root = event.asStartElement();
+					continue;
+				}
+				if (depth == 2) {
+					note = new ArrayList<XMLEvent>();
+				}
+			}
+			if (null != note) {
+				note.add(event);
+			}
+			if (event.isEndElement()) {
+				depth--;
+				if (depth == 1 && null != note) {
+					// a complete top-level note
+					handler.handleNote(root, note);
+					note = null;
+				}
+			}
+		}
+		if (null == root) {
+			throw new XMLStreamException("No root element found in DXL.");
+		}
+		return root;
+	}
+
+	/**
+	 * A chunk that is being built.  Skipped chunks only count the notes.
+	 */
+	private static class Chunk {
+		private final StartElement root;
+		private final StringWriter buffer;
+		private final XMLEventWriter writer;
+		private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+		int noteCount = 0;
+
+		Chunk(StartElement root, boolean write) throws XMLStreamException {
+			this.root = root;
+			if (write) {
+				buffer = new StringWriter();
+				writer = XMLOutputFactory.newInstance().createXMLEventWriter(buffer);
+				writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+				writer.add(root);
+			}
+			else {
+				buffer = null;
+				writer = null;
+			}
+		}
+
+		void add(List<XMLEvent> note) throws XMLStreamException {
+			noteCount++;
+			if (null != writer) {
+				for (XMLEvent event : note) {
+					writer.add(event);
+				}
+			}
+		}
+
+		void finish(int chunkIndex, ChunkHandler handler) throws Exception {
+			if (null == writer) {
+				return;
+			}
+			writer.add(eventFactory.createEndElement(root.getName(), null));
+			writer.add(eventFactory.createEndDocument());
+			writer.close();
+			handler.handleChunk(chunkIndex, buffer.toString(), noteCount);
+		}
+	}
+}
@@ -1,32 +1,170 @@
 package net.prominic.domino.vagrant;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
 
 import lotus.domino.*;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
 /**
  * Import a provided DXL file into the target database.
- * This will not do any validation of the DXL.  Importing to a production database is discouraged.
- * FUTURE TASK:  Validate as XML. Use the DXL schema if available
+ * The DXL is checked with {@link DXLValidator} before the database is modified.  Use <code>--schema=&lt;xsd&gt;</code>
+ * to validate against the DXL schema as well, or <code>--skip-validation</code> to skip the check.
+ * Importing to a production database is discouraged.
+ * <p>
+ * Large files can be imported with <code>--chunk-size=&lt;notes&gt;</code>.  The file is split into well-formed
+ * chunks that are imported one at a time, and the last imported chunk is recorded in
+ * <code>&lt;dxl-file&gt;.checkpoint</code>, so that an interrupted import resumes where it stopped.
+ * </p>
+ * <p>
+ * With <code>--delta</code>, only the notes that changed since the last import are imported (see {@link DXLDelta}),
+ * and LotusScript is only compiled if a design note changed.
+ * </p>
+ * <p>
+ * The DXL may also be compressed as <code>.dxl.gz</code>, or bundled as the <code>.dxl</code> entries of a
+ * <code>.zip</code> archive.  These are decompressed while they are read and imported in chunks (see {@link DXLSource}),
+ * so no expanded copy is written to disk.
+ * </p>
+ * <p>
+ * Server and organization names can be replaced while the DXL is read (see {@link DXLRewriter}):  with
+ * <code>--setup=&lt;setup.json&gt;</code>, placeholders like <code>${server.name}</code> are replaced with the values
+ * for this server, and <code>--rewrite=&lt;file.json&gt;</code> replaces hard-coded names from another environment.
+ * </p>
+ * <p>
+ * Many files can be imported in one run with <code>--manifest=&lt;file.json&gt;</code> or
+ * <code>--directory=&lt;dir&gt; &lt;server&gt;</code>.  Different databases are imported concurrently
+ * (see <code>--workers</code>), while the files for the same database are imported in order.
+ * </p>
  */
 public class DXLImport {
 
     private static final String APP_NAME = "DXLImport";
-    private static final String USAGE = "java -jar DXLImport.jar <server> <database-name> <dxl-file>";
+    public static final String USAGE = "java -jar DXLImport.jar [options] <server> <database-name> <dxl-file>\n" +
+            "       java -jar DXLImport.jar [options] [--workers=<count>] --manifest=<manifest.json>\n" +
+            "       java -jar DXLImport.jar [options] [--workers=<count>] --directory=<dir> <server>\n" +
+            "       java -jar DXLImport.jar [--schema=<xsd>] --validate-only <dxl-file>...\n" +
+            "Options:  --chunk-size=<notes>  --delta  --schema=<xsd>  --skip-validation  --setup=<setup.json>  --rewrite=<file.json>\n" +
+            "DXL files may be .dxl, .dxl.gz or .zip files.";
+
+    public static final int DEFAULT_WORKERS = 4;
+    /** Chunk size for delta imports, if no chunk size is given */
+    public static final int DEFAULT_DELTA_CHUNK_SIZE = 500;
+    /** Chunk size for compressed inputs, if no chunk size is given */
+    public static final int DEFAULT_ARCHIVE_CHUNK_SIZE = 500;
+
+    /** Suffix for the checkpoint file of a chunked import */
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    /**
+     * Options for an import.
+     */
+    public static class ImportOptions {
+        /** Number of notes per chunk.  0 imports the whole file at once. */
+        public int chunkSize = 0;
+        /** A JSON manifest of the files to import */
+        public File manifestFile = null;
+        /** A directory with one subdirectory of DXL files per database */
+        public File directory = null;
+        /** Number of databases that are imported concurrently in manifest or directory mode */
+        public int workers = DEFAULT_WORKERS;
+        /** Check the DXL with {@link DXLValidator} before importing */
+        public boolean validate = true;
+        /** Only validate the files, without importing them */
+        public boolean validateOnly = false;
+        /** The DXL schema to validate against, if any */
+        public File schemaFile = null;
+        /** Only import the notes that changed since the last import */
+        public boolean delta = false;
+        /** setup.json, for the placeholders in the DXL */
+        public File setupFile = null;
+        /** JSON object of literal replacements */
+        public File rewriteFile = null;
+        /** Rewrites the DXL while it is imported, if <code>--setup</code> or <code>--rewrite</code> was given */
+        public DXLRewriter rewriter = null;
+        /** The arguments that are not options */
+        public List<String> arguments = new ArrayList<String>();
+
+        public boolean isBatch() {
+            return null != manifestFile || null != directory;
+        }
+    }
+
+    /**
+     * One file or archive entry to import in manifest or directory mode, and the result of the import.
+     */
+    public static class ImportJob {
+        public final String server;
+        public final String databaseName;
+        /** The file on disk.  For an archive entry, this is the archive. */
+        public final File dxlFile;
+        public final DXLSource source;
+        /** pending, imported or failed */
+        public String status = "pending";
+        public int importedNotes = 0;
+        public String message = null;
+        public long durationMillis = 0;
+        /** The result of the validation, if it was done */
+        public DXLValidator.Result validation = null;
+
+        public ImportJob(String server, String databaseName, DXLSource source) {
+            this.server = server;
+            this.databaseName = databaseName;
+            this.dxlFile = source.getFile();
+            this.source = source;
+        }
+    }
 
     public static void main(String[] args) {
+        // hand the command to a running HelperDaemon if one is available
+        int daemonStatus = HelperDaemonClient.delegate(APP_NAME, args);
+        if (daemonStatus != HelperDaemonClient.NOT_DELEGATED) {
+            System.exit(daemonStatus);
+        }
+
         Session session = null;
+        boolean threadInitialized = false;
         try {
             System.out.println("Application '" + APP_NAME + "' started.");
 
-			if (args.length < 3) {
+			ImportOptions options = parseOptions(args);
+			if (options.validateOnly) {
+				if (!validateOnly(options)) {
+					System.exit(1);
+				}
+				return;
+			}
+			if (options.isBatch()) {
+				List<ImportJob> jobs = readJobs(options);
+				if (!importBatch(jobs, options)) {
+					System.exit(1);
+				}
+				return;
+			}
+			if (options.arguments.size() < 3) {
 				System.err.println("ERROR: Not enough arguments.");
 				System.err.println("USAGE:  " + USAGE);
 				System.exit(1);
 			}
-			String server = args[0];
-			String databaseName = args[1];
-			String dxlFileName = args[2];
+			String server = options.arguments.get(0);
+			String databaseName = options.arguments.get(1);
+			String dxlFileName = options.arguments.get(2);
 			File dxlFile = new File(dxlFileName);
 			if (!dxlFile.exists()) {
 				System.err.println("DXL file not found at:  '" + dxlFile.getAbsolutePath() + ".");
@@ -35,20 +173,12 @@ public class DXLImport {
 
 
             NotesThread.sinitThread();
+            threadInitialized = true;
 
-            // If a password is available on the command line, use that when creating the session
-            String password = System.getenv("PASSWORD");
-            if (null == password || password.trim().isEmpty()) {
-                System.out.println("No password found.");
-                session = NotesFactory.createSession();
-            }
-            else {
-                System.out.println("Password found.");
-                session = NotesFactory.createSession((String)null, (String)null, password);
-            }
+            session = NotesWorkerPool.createSession();
             System.out.println("Running as user: '" + session.getUserName() + "'.");
 
-            importDXL(session, server, databaseName, dxlFile);
+            importDXL(session, server, databaseName, dxlFile, options);
 
 
             System.out.println("names.nsf was successfully created.");
@@ -68,15 +198,334 @@ public class DXLImport {
             catch(NotesException ex) {
                 ex.printStackTrace();
             }
-            NotesThread.stermThread();
+            if (threadInitialized) {
+                NotesThread.stermThread();
+            }
             System.out.println("Application '" + APP_NAME + "' completed.");
         }
     }
 
 
+    /**
+     * Parse the leading <code>--option=value</code> arguments.
+     * @param args  the command-line arguments
+     * @return the options, with the remaining arguments
+     * @throws Exception if an option is invalid
+     */
+    public static ImportOptions parseOptions(String[] args) throws Exception {
+        ImportOptions options = new ImportOptions();
+        for (String arg : args) {
+            if (!options.arguments.isEmpty() || !arg.startsWith("--")) {
+                options.arguments.add(arg);
+            }
+            else if (arg.startsWith("--chunk-size=")) {
+                options.chunkSize = parseIntOption("chunk size", arg.substring("--chunk-size=".length()), 0);
+            }
+            else if (arg.startsWith("--workers=")) {
+                options.workers = parseIntOption("worker count", arg.substring("--workers=".length()), 1);
+            }
+            else if (arg.startsWith("--manifest=")) {
+                options.manifestFile = new File(arg.substring("--manifest=".length()));
+            }
+            else if (arg.startsWith("--directory=")) {
+                options.directory = new File(arg.substring("--directory=".length()));
+            }
+            else if (arg.startsWith("--schema=")) {
+                options.schemaFile = new File(arg.substring("--schema=".length()));
+            }
+            else if (arg.startsWith("--setup=")) {
+                options.setupFile = new File(arg.substring("--setup=".length()));
+            }
+            else if (arg.startsWith("--rewrite=")) {
+                options.rewriteFile = new File(arg.substring("--rewrite=".length()));
+            }
+            else if (arg.equals("--delta")) {
+                options.delta = true;
+            }
+            else if (arg.equals("--skip-validation")) {
+                options.validate = false;
+            }
+            else if (arg.equals("--validate-only")) {
+                options.validateOnly = true;
+            }
+            else {
+                throw new Exception("Unknown option '" + arg + "'.  USAGE:  " + USAGE);
+            }
+        }
+        if (null != options.setupFile || null != options.rewriteFile) {
+            options.rewriter = DXLRewriter.create(options.setupFile, options.rewriteFile);
+            System.out.println("Rewriting " + options.rewriter.getReplacements().size() + " placeholder(s) and name(s) in the DXL.");
+        }
+        return options;
+    }
+
+    private static int parseIntOption(String name, String value, int minimum) throws Exception {
+        int result;
+        try {
+            result = Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new Exception("Invalid " + name + ":  '" + value + "'.");
+        }
+        if (result < minimum) {
+            throw new Exception("Invalid " + name + ":  '" + value + "'.");
+        }
+        return result;
+    }
+
+    /**
+     * Build the list of files to import from the manifest or directory option.
+     * <p>
+     * The manifest is a JSON array of <code>{"server": "", "database": "app.nsf", "file": "design.dxl"}</code> objects.
+     * Relative files are resolved against the directory of the manifest.
+     * </p>
+     * <p>
+     * In directory mode, each subdirectory is named after the target database path (e.g. <code>apps/crm.nsf/</code>
+     * for <code>crm.nsf</code>), and its <code>.dxl</code>, <code>.dxl.gz</code> and <code>.zip</code> files are
+     * imported in name order.  Each <code>.dxl</code> entry of a <code>.zip</code> archive is a separate job.
+     * </p>
+     * @throws Exception if the manifest or directory is invalid
+     */
+    public static List<ImportJob> readJobs(ImportOptions options) throws Exception {
+        List<ImportJob> jobs = new ArrayList<ImportJob>();
+        if (null != options.manifestFile) {
+            if (!options.manifestFile.exists()) {
+                throw new Exception("Manifest file not found at:  '" + options.manifestFile.getAbsolutePath() + "'.");
+            }
+            File baseDir = options.manifestFile.getAbsoluteFile().getParentFile();
+            JSONArray manifest;
+            InputStream in = new FileInputStream(options.manifestFile);
+            try {
+                manifest = (JSONArray) new JSONTokener(in).nextValue();
+            }
+            catch (Exception ex) {
+                throw new Exception("Could not read manifest '" + options.manifestFile.getAbsolutePath() + "'.", ex);
+            }
+            finally {
+                in.close();
+            }
+            for (int i = 0; i < manifest.length(); i++) {
+                JSONObject entry = manifest.getJSONObject(i);
+                File dxlFile = new File(entry.getString("file"));
+                if (!dxlFile.isAbsolute()) {
+                    dxlFile = new File(baseDir, entry.getString("file"));
+                }
+                for (DXLSource source : DXLSource.open(dxlFile)) {
+                    jobs.add(new ImportJob(entry.optString("server", ""), entry.getString("database"), source));
+                }
+            }
+        }
+        else {
+            if (!options.directory.isDirectory()) {
+                throw new Exception("Directory not found at:  '" + options.directory.getAbsolutePath() + "'.");
+            }
+            if (options.arguments.size() < 1) {
+                throw new Exception("No server specified.  USAGE:  " + USAGE);
+            }
+            String server = options.arguments.get(0);
+            File[] databaseDirs = options.directory.listFiles();
+            Arrays.sort(databaseDirs);
+            for (File databaseDir : databaseDirs) {
+                if (!databaseDir.isDirectory()) {
+                    System.out.println("Skipping '" + databaseDir.getName() + "', since it is not a database directory.");
+                    continue;
+                }
+                File[] dxlFiles = databaseDir.listFiles();
+                Arrays.sort(dxlFiles);
+                for (File dxlFile : dxlFiles) {
+                    if (dxlFile.isFile() && DXLSource.isSupported(dxlFile)) {
+                        for (DXLSource source : DXLSource.open(dxlFile)) {
+                            jobs.add(new ImportJob(server, databaseDir.getName(), source));
+                        }
+                    }
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Validate the files without importing them, and print the note counts.
+     * The files are the arguments, or the files from the manifest or directory.
+     * @return <code>true</code> if all files are valid
+     */
+    public static boolean validateOnly(ImportOptions options) throws Exception {
+        if (!options.isBatch() && options.arguments.isEmpty()) {
+            throw new Exception("No DXL files specified.  USAGE:  " + USAGE);
+        }
+        boolean valid = true;
+        List<DXLSource> sources = new ArrayList<DXLSource>();
+        if (options.isBatch()) {
+            for (ImportJob job : readJobs(options)) {
+                sources.add(job.source);
+            }
+        }
+        else {
+            for (String arg : options.arguments) {
+                try {
+                    sources.addAll(DXLSource.open(new File(arg)));
+                }
+                catch (Exception ex) {
+                    System.out.println(ex.getMessage());
+                    valid = false;
+                }
+            }
+        }
+        for (DXLSource source : sources) {
+            try {
+                System.out.println("'" + source.getName() + "':  " + DXLValidator.validate(source, options.schemaFile));
+            }
+            catch (Exception ex) {
+                System.out.println(ex.getMessage());
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Validate all files before the first import, so that no database is modified if a file is invalid.
+     * @throws Exception if any file is invalid
+     */
+    protected static void validateJobs(List<ImportJob> jobs, ImportOptions options) throws Exception {
+        int invalid = 0;
+        for (ImportJob job : jobs) {
+            try {
+                job.validation = DXLValidator.validate(job.source, options.schemaFile);
+                System.out.println("Validated '" + job.source.getName() + "':  " + job.validation);
+            }
+            catch (Exception ex) {
+                System.out.println(ex.getMessage());
+                invalid++;
+            }
+        }
+        if (invalid > 0) {
+            throw new Exception(invalid + " DXL file(s) are invalid.  Nothing was imported.");
+        }
+    }
+
+    /**
+     * Import the files with a pool of Notes worker threads.
+     * The jobs are grouped by target database.  Each group is imported in order by one worker with its own session,
+     * and different databases are imported concurrently.  Later files for a database are skipped if an import fails.
+     * @param jobs  the files to import.  The results are stored in the jobs.
+     * @param options  the import options
+     * @return <code>true</code> if all files were imported
+     */
+    public static boolean importBatch(List<ImportJob> jobs, final ImportOptions options) throws Exception {
+        if (options.validate) {
+            validateJobs(jobs, options);
+        }
+        Map<String, List<ImportJob>> groups = new LinkedHashMap<String, List<ImportJob>>();
+        for (ImportJob job : jobs) {
+            String key = job.server.toLowerCase() + "!!" + job.databaseName.toLowerCase();
+            List<ImportJob> group = groups.get(key);
+            if (null == group) {
+                group = new ArrayList<ImportJob>();
+                groups.put(key, group);
+            }
+            group.add(job);
+        }
+        System.out.println("Importing " + jobs.size() + " file(s) into " + groups.size() + " database(s) with " +
+                Math.min(options.workers, Math.max(1, groups.size())) + " worker(s).");
+
+        ExecutorService pool = NotesWorkerPool.create(APP_NAME, options.workers);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final List<ImportJob> group : groups.values()) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        importGroup(group, options);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            NotesWorkerPool.shutdown(pool);
+        }
+
+        int totalNotes = 0;
+        int failed = 0;
+        System.out.println("## Import summary");
+        for (ImportJob job : jobs) {
+            totalNotes += job.importedNotes;
+            if (!"imported".equals(job.status)) {
+                failed++;
+            }
+            System.out.println(job.status + "\t" + job.importedNotes + " notes\t" + job.durationMillis + " ms\t" +
+                    job.server + "!!" + job.databaseName + "\t" + job.source.getName() +
+                    (null == job.message ? "" : "\t" + job.message));
+        }
+        System.out.println("## End summary:  imported " + totalNotes + " elements from " + (jobs.size() - failed) + " of " +
+                jobs.size() + " file(s).");
+        return failed == 0;
+    }
+
+    /**
+     * Import the files for one database on the current worker thread.
+     */
+    protected static void importGroup(List<ImportJob> group, ImportOptions options) {
+        Session session = null;
+        Database database = null;
+        ImportJob first = group.get(0);
+        try {
+            session = NotesWorkerPool.createSession();
+            database = session.getDatabase(first.server, first.databaseName, false);
+            if (null == database || !database.isOpen()) {
+                throw new Exception("Could not open database '" + first.databaseName + "'.");
+            }
+            for (ImportJob job : group) {
+                long start = System.currentTimeMillis();
+                System.out.println("Importing '" + job.source.getName() + "' into '" + job.databaseName + "'.");
+                try {
+                    job.importedNotes = importDXL(session, database, job.source, options, job.validation);
+                    job.status = "imported";
+                }
+                catch (Exception ex) {
+                    ex.printStackTrace();
+                    job.status = "failed";
+                    job.message = ex.getMessage();
+                }
+                job.durationMillis = System.currentTimeMillis() - start;
+                System.out.println("'" + job.source.getName() + "':  " + job.status + ", " + job.importedNotes + " notes.");
+                if (!"imported".equals(job.status)) {
+                    break;
+                }
+            }
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            first.status = "failed";
+            first.message = ex.getMessage();
+        }
+        finally {
+            for (ImportJob job : group) {
+                if ("pending".equals(job.status)) {
+                    job.status = "skipped";
+                }
+            }
+            try {
+                if (null != database) {
+                    database.recycle();
+                }
+                if (null != session) {
+                    session.recycle();
+                }
+            }
+            catch (NotesException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
     public static void importDXL(Session session, String server, String databaseName, File dxlFile) throws NotesException, Exception {
-		Stream stream = null;
-		DxlImporter importer = null;
+        importDXL(session, server, databaseName, dxlFile, new ImportOptions());
+    }
+
+    public static void importDXL(Session session, String server, String databaseName, File dxlFile, ImportOptions options) throws NotesException, Exception {
 		Database database = null;
 		
 		try {
@@ -85,24 +534,82 @@ public class DXLImport {
 				throw new Exception("Could not open database '" + database + "'.");
 			}
 
+			importDXL(session, database, dxlFile, options);
+        }
+        finally {
+            if (null != database) {
+                database.recycle();
+            }
+        }
+
+    }
+
+    /**
+     * Import a DXL file into an already opened database.
+     * The database is not recycled, so this may be used with a cached handle.
+     */
+    public static void importDXL(Session session, Database database, File dxlFile) throws NotesException, Exception {
+        importDXL(session, database, dxlFile, new ImportOptions());
+    }
+
+    /**
+     * Import a DXL file into an already opened database, using the given options.
+     * For a <code>.zip</code> archive, all entries are validated before the first entry is imported.
+     * The database is not recycled, so this may be used with a cached handle.
+     */
+    public static int importDXL(Session session, Database database, File dxlFile, ImportOptions options) throws NotesException, Exception {
+        List<DXLSource> sources = DXLSource.open(dxlFile);
+        List<DXLValidator.Result> validations = new ArrayList<DXLValidator.Result>();
+        for (DXLSource source : sources) {
+            DXLValidator.Result validation = null;
+            if (options.validate) {
+                validation = DXLValidator.validate(source, options.schemaFile);
+                System.out.println("Validated '" + source.getName() + "':  " + validation);
+            }
+            validations.add(validation);
+        }
+        int importedNotes = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.size() > 1) {
+                System.out.println("Importing '" + sources.get(i).getName() + "'.");
+            }
+            importedNotes += importDXL(session, database, sources.get(i), options, validations.get(i));
+        }
+        return importedNotes;
+    }
+
+    /**
+     * Import a DXL input that was already validated.
+     * Compressed or rewritten inputs are always imported in chunks, since a lotus.domino Stream can only read plain files.
+     * @param validation  the validation result, used for progress reporting.  May be <code>null</code>.
+     */
+    protected static int importDXL(Session session, Database database, DXLSource source, ImportOptions options, DXLValidator.Result validation) throws NotesException, Exception {
+        if (options.delta) {
+            return importDXLDelta(session, database, source, options);
+        }
+        if (options.chunkSize > 0 || source.isCompressed() || null != options.rewriter) {
+            int chunkSize = options.chunkSize > 0 ? options.chunkSize : DEFAULT_ARCHIVE_CHUNK_SIZE;
+            int expectedNotes = null == validation ? 0 : validation.totalNotes;
+            return importDXLChunked(session, database, source, chunkSize, expectedNotes, null, options.rewriter, true);
+        }
+        File dxlFile = source.getFile();
+        int importedNotes = 0;
+
+		Stream stream = null;
+		DxlImporter importer = null;
+		
+		try {
 			// https://help.hcl-software.com/dom_designer/14.0.0/basic/H_IMPORTDXL_METHOD_IMPORTER_JAVA.html
 			// https://help.hcl-software.com/dom_designer/14.0.0/basic/H_EXAMPLES_NOTESDXLIMPORTER_CLASS_JAVA.html
 			stream = session.createStream();
 			if (stream.open(dxlFile.getAbsolutePath()) & (stream.getBytes() >0)) {
 				// Import DXL from file to new database
-				importer = session.createDxlImporter();
-				importer.setReplaceDbProperties(true);  // allow replacing database properties
-				importer.setReplicaRequiredForReplaceOrUpdate(false);  // don't require a matching replica ID in the DXL
-				importer.setAclImportOption(DxlImporter.DXLIMPORTOPTION_UPDATE_ELSE_CREATE);   // Create any missing ACL entries, overwrite existing entries
-				importer.setDesignImportOption(DxlImporter.DXLIMPORTOPTION_REPLACE_ELSE_CREATE);  // Create any missing design elements, overwrite existing design elements
-				importer.setCompileLotusScript(true);  // Automatically compile any included LotusScript
-				importer.setDocumentImportOption(DxlImporter.DXLIMPORTOPTION_REPLACE_ELSE_CREATE);   // allow importing documents.  Replace existing documents (replicaID and universal ID must match)
+				importer = createImporter(session);
 				importer.importDxl(stream, database);
 				
-				System.out.println("## Log:  " + importer.getLogComment());
-				System.out.println(importer.getLog());
-				System.out.println("## End Log");
-				System.out.println("Imported " + importer.getImportedNoteCount() + " elements");
+				printImportLog(importer);
+				importedNotes = importer.getImportedNoteCount();
+				System.out.println("Imported " + importedNotes + " elements");
 				// TODO: iterate over imported elements if log is insufficient
 			}
         }
@@ -110,13 +617,198 @@ public class DXLImport {
             if (null != stream) {
                 stream.recycle();
             }
-            if (null != database) {
-                database.recycle();
-            }
             if (null != importer) {
                 importer.recycle();
             }
         }
+        return importedNotes;
+    }
+
+    /**
+     * Create a DxlImporter with the options used for all imports.
+     */
+    protected static DxlImporter createImporter(Session session) throws NotesException {
+        DxlImporter importer = session.createDxlImporter();
+        importer.setReplaceDbProperties(true);  // allow replacing database properties
+        importer.setReplicaRequiredForReplaceOrUpdate(false);  // don't require a matching replica ID in the DXL
+        importer.setAclImportOption(DxlImporter.DXLIMPORTOPTION_UPDATE_ELSE_CREATE);   // Create any missing ACL entries, overwrite existing entries
+        importer.setDesignImportOption(DxlImporter.DXLIMPORTOPTION_REPLACE_ELSE_CREATE);  // Create any missing design elements, overwrite existing design elements
+        importer.setCompileLotusScript(true);  // Automatically compile any included LotusScript
+        importer.setDocumentImportOption(DxlImporter.DXLIMPORTOPTION_REPLACE_ELSE_CREATE);   // allow importing documents.  Replace existing documents (replicaID and universal ID must match)
+        return importer;
+    }
+
+    protected static void printImportLog(DxlImporter importer) throws NotesException {
+        System.out.println("## Log:  " + importer.getLogComment());
+        System.out.println(importer.getLog());
+        System.out.println("## End Log");
+    }
+
+    /**
+     * Import only the notes that changed since the last import of this file into this database.
+     * The hashes are stored in <code>&lt;dxl-file&gt;.hashes</code> after a successful import.
+     * LotusScript is only compiled if a design note changed.
+     */
+    public static int importDXLDelta(Session session, Database database, File dxlFile, ImportOptions options) throws NotesException, Exception {
+        return importDXLDelta(session, database, DXLSource.forFile(dxlFile), options);
+    }
 
+    /**
+     * Import only the notes of the DXL input that changed since the last import.
+     * @see #importDXLDelta(Session, Database, File, ImportOptions)
+     */
+    public static int importDXLDelta(Session session, Database database, DXLSource source, ImportOptions options) throws NotesException, Exception {
+        File manifestFile = source.getStateFile(DXLDelta.MANIFEST_SUFFIX);
+        String databaseKey = DXLDelta.getDatabaseKey(database);
+        // hash the rewritten notes, so that a change in the replacements is imported as well
+        DXLDelta.Scan scan;
+        InputStream in = source.openStream();
+        try {
+            XMLEventReader reader = createEventReader(in, options.rewriter);
+            try {
+                scan = DXLDelta.scan(reader, DXLDelta.readManifest(manifestFile, databaseKey));
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+        System.out.println("Delta:  " + scan.changed.size() + " of " + scan.hashes.size() + " notes changed since the last import.");
+        if (scan.changed.isEmpty()) {
+            System.out.println("Nothing to import.");
+            return 0;
+        }
+        if (!scan.designChanged) {
+            System.out.println("No design changes.  Skipping the LotusScript compilation.");
+        }
+        int chunkSize = options.chunkSize > 0 ? options.chunkSize : DEFAULT_DELTA_CHUNK_SIZE;
+        int importedNotes = importDXLChunked(session, database, source, chunkSize, scan.changed.size(),
+                scan.createFilter(), options.rewriter, scan.designChanged);
+        DXLDelta.writeManifest(manifestFile, databaseKey, scan.hashes);
+        return importedNotes;
+    }
+
+    public static int importDXLChunked(Session session, final Database database, File dxlFile, int chunkSize, int expectedNotes) throws NotesException, Exception {
+        return importDXLChunked(session, database, DXLSource.forFile(dxlFile), chunkSize, expectedNotes, null, null, true);
+    }
+
+    /**
+     * Create an event reader for the DXL.
+     * @param rewriter  rewrites the events, or <code>null</code>
+     */
+    protected static XMLEventReader createEventReader(InputStream in, DXLRewriter rewriter) throws XMLStreamException {
+        XMLEventReader reader = DXLChunker.createInputFactory().createXMLEventReader(in);
+        return null == rewriter ? reader : rewriter.wrap(reader);
+    }
+
+    /**
+     * Import a large DXL input in chunks of <code>chunkSize</code> notes, through the same importer.
+     * After each chunk, the number of imported chunks is written to the checkpoint file.
+     * If a checkpoint for the same file, database and chunk size exists, the imported chunks are skipped.
+     * The checkpoint is deleted when the import completes.
+     * @param expectedNotes  the number of notes in the file, if known from the validation.  Used for progress reporting.
+     * @param filter  selects the notes to import, or <code>null</code> to import all notes
+     * @param rewriter  rewrites the DXL before it is imported, or <code>null</code>
+     * @param compileLotusScript  <code>false</code> to skip compiling LotusScript
+     */
+    public static int importDXLChunked(Session session, final Database database, DXLSource source, int chunkSize, int expectedNotes,
+            DXLChunker.NoteFilter filter, DXLRewriter rewriter, boolean compileLotusScript) throws NotesException, Exception {
+        File dxlFile = source.getFile();
+        final File checkpointFile = source.getStateFile(CHECKPOINT_SUFFIX);
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("file", dxlFile.getAbsolutePath());
+        checkpoint.setProperty("source", source.getName());
+        checkpoint.setProperty("file.length", Long.toString(dxlFile.length()));
+        checkpoint.setProperty("file.modified", Long.toString(dxlFile.lastModified()));
+        checkpoint.setProperty("database", DXLDelta.getDatabaseKey(database));
+        checkpoint.setProperty("chunk.size", Integer.toString(chunkSize));
+        checkpoint.setProperty("filtered", Boolean.toString(null != filter));
+        checkpoint.setProperty("rewrite", null == rewriter ? "" : Integer.toHexString(rewriter.getReplacements().hashCode()));
+        int firstChunk = readCheckpoint(checkpointFile, checkpoint);
+        if (firstChunk > 0) {
+            System.out.println("Resuming import after chunk " + firstChunk + " from '" + checkpointFile.getAbsolutePath() + "'.");
+        }
+
+        final String chunkTotal = expectedNotes > 0 ? " of " + ((expectedNotes + chunkSize - 1) / chunkSize) : "";
+        final DxlImporter importer = createImporter(session);
+        importer.setCompileLotusScript(compileLotusScript);
+        final int[] importedNotes = new int[] { 0 };
+        InputStream in = source.openStream();
+        XMLEventReader reader = null;
+        try {
+            reader = createEventReader(in, rewriter);
+            int chunks = new DXLChunker(chunkSize, filter).split(reader, firstChunk, new DXLChunker.ChunkHandler() {
+                public void handleChunk(int chunkIndex, String dxl, int noteCount) throws Exception {
+                    try {
+                        importer.importDxl(dxl, database);
+                    }
+                    catch (NotesException ex) {
+                        printImportLog(importer);
+                        throw new Exception("Could not import chunk " + (chunkIndex + 1) + ":  " + ex.text, ex);
+                    }
+                    importedNotes[0] += importer.getImportedNoteCount();
+                    checkpoint.setProperty("chunks", Integer.toString(chunkIndex + 1));
+                    writeCheckpoint(checkpointFile, checkpoint);
+                    System.out.println("Imported chunk " + (chunkIndex + 1) + chunkTotal + " (" + importer.getImportedNoteCount() + " of " + noteCount + " notes).");
+                }
+            });
+            printImportLog(importer);
+            System.out.println("Imported " + importedNotes[0] + " elements in " + (chunks - firstChunk) + " chunk(s)");
+        }
+        finally {
+            if (null != reader) {
+                reader.close();
+            }
+            in.close();
+            importer.recycle();
+        }
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            System.out.println("Could not delete checkpoint file '" + checkpointFile.getAbsolutePath() + "'.");
+        }
+        return importedNotes[0];
+    }
+
+    /**
+     * Read the number of imported chunks from the checkpoint file.
+     * @param checkpointFile  the checkpoint file
+     * @param expected  the properties that identify the import
+     * @return the number of chunks that were imported, or 0 if there is no matching checkpoint
+     */
+    protected static int readCheckpoint(File checkpointFile, Properties expected) throws Exception {
+        if (!checkpointFile.exists()) {
+            return 0;
+        }
+        Properties checkpoint = new Properties();
+        InputStream in = new FileInputStream(checkpointFile);
+        try {
+            checkpoint.load(in);
+        }
+        finally {
+            in.close();
+        }
+        for (String key : expected.stringPropertyNames()) {
+            if (!key.equals("chunks") && !expected.getProperty(key).equals(checkpoint.getProperty(key))) {
+                System.out.println("Ignoring checkpoint '" + checkpointFile.getAbsolutePath() + "', since '" + key + "' has changed.");
+                return 0;
+            }
+        }
+        try {
+            return Integer.parseInt(checkpoint.getProperty("chunks", "0").trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new Exception("Invalid checkpoint file '" + checkpointFile.getAbsolutePath() + "'.");
+        }
+    }
+
+    protected static void writeCheckpoint(File checkpointFile, Properties checkpoint) throws Exception {
+        OutputStream out = new FileOutputStream(checkpointFile);
+        try {
+            checkpoint.store(out, "DXLImport checkpoint");
+        }
+        finally {
+            out.close();
+        }
     }
-}
\ No newline at end of file
+}
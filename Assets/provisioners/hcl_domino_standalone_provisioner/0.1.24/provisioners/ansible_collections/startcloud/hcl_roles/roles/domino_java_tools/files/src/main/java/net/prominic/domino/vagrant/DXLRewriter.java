@@ -0,0 +1,219 @@
+package net.prominic.domino.vagrant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Replace text in DXL attribute values and text content while the events are read, so that DXL from one
+ * environment can be imported into another (e.g. the server and organization names in ACL entries and
+ * <code>$Server</code> items).
+ * <p>
+ * The values from setup.json are available as placeholders:
+ * <code>${server.name}</code>, <code>${server.title}</code>, <code>${server.domainName}</code>,
+ * <code>${org.orgName}</code> and <code>${server.fullName}</code> (<code>CN=&lt;name&gt;/O=&lt;org&gt;</code>).
+ * Hard-coded names can be replaced with a JSON object of <code>"old text": "new text"</code> pairs, where the new text
+ * may use the placeholders.
+ * </p>
+ * <p>
+ * Only the current event is rewritten, so memory use does not depend on the file size.  A rewriter has no state
+ * after it is created, so it may be shared by several import threads.
+ * </p>
+ */
+public class DXLRewriter {
+
+	private final Map<String, String> replacements;
+	private final Pattern pattern;
+	/** Event factories are not thread-safe */
+	private final ThreadLocal<XMLEventFactory> eventFactory = new ThreadLocal<XMLEventFactory>() {
+		protected XMLEventFactory initialValue() {
+			return XMLEventFactory.newInstance();
+		}
+	};
+
+	/**
+	 * @param replacements  the text to find, and its replacement.  Longer matches are preferred.
+	 */
+	public DXLRewriter(Map<String, String> replacements) {
+		this.replacements = new LinkedHashMap<String, String>(replacements);
+		List<String> keys = new ArrayList<String>(this.replacements.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			public int compare(String first, String second) {
+				return second.length() - first.length();
+			}
+		});
+		StringBuilder regex = new StringBuilder();
+		for (String key : keys) {
+			if (key.isEmpty()) {
+				continue;
+			}
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append(Pattern.quote(key));
+		}
+		this.pattern = regex.length() == 0 ? null : Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Create a rewriter from the placeholders in setup.json and an optional file of literal replacements.
+	 * @param setupFile  the setup.json file, or <code>null</code> if no placeholders are used
+	 * @param rewriteFile  a JSON object of literal replacements, or <code>null</code>
+	 * @return the new rewriter
+	 * @throws Exception if a file could not be read, or a replacement uses a placeholder without a setup.json file
+	 */
+	public static DXLRewriter create(File setupFile, File rewriteFile) throws Exception {
+		Map<String, String> placeholders = new LinkedHashMap<String, String>();
+		if (null != setupFile) {
+			JSONObject serverSetup = readJSON(setupFile).getJSONObject("serverSetup");
+			JSONObject serverConfig = serverSetup.getJSONObject("server");
+			String orgName = serverSetup.getJSONObject("org").getString("orgName");
+			placeholders.put("${server.name}", serverConfig.getString("name"));
+			placeholders.put("${server.title}", serverConfig.optString("title", serverConfig.getString("name")));
+			placeholders.put("${server.domainName}", serverConfig.getString("domainName"));
+			placeholders.put("${org.orgName}", orgName);
+			placeholders.put("${server.fullName}", "CN=" + serverConfig.getString("name") + "/O=" + orgName);
+		}
+
+		Map<String, String> replacements = new LinkedHashMap<String, String>(placeholders);
+		if (null != rewriteFile) {
+			DXLRewriter placeholderRewriter = new DXLRewriter(placeholders);
+			JSONObject rewrites = readJSON(rewriteFile);
+			for (String key : rewrites.keySet()) {
+				String value = placeholderRewriter.rewrite(rewrites.getString(key));
+				if (value.contains("${")) {
+					throw new Exception("Unknown placeholder in replacement for '" + key + "':  '" + value + "'.");
+				}
+				replacements.put(key, value);
+			}
+		}
+		return new DXLRewriter(replacements);
+	}
+
+	private static JSONObject readJSON(File file) throws Exception {
+		if (!file.exists()) {
+			throw new Exception("Could not find file '" + file.getAbsolutePath() + "'.");
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			return (JSONObject) new JSONTokener(in).nextValue();
+		}
+		catch (Exception ex) {
+			throw new Exception("Could not read '" + file.getAbsolutePath() + "'.", ex);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public Map<String, String> getReplacements() {
+		return Collections.unmodifiableMap(replacements);
+	}
+
+	/**
+	 * Replace all matches in the text.
+	 * @return the new text, or the same instance if nothing was replaced
+	 */
+	public String rewrite(String text) {
+		if (null == pattern || null == text) {
+			return text;
+		}
+		Matcher matcher = pattern.matcher(text);
+		if (!matcher.find()) {
+			return text;
+		}
+		StringBuffer result = new StringBuffer(text.length());
+		do {
+			matcher.appendReplacement(result, Matcher.quoteReplacement(replacements.get(matcher.group())));
+		} while (matcher.find());
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	/**
+	 * Rewrite the attribute values of a start element, or the text of a characters event.
+	 * @return the new event, or the same event if nothing was replaced
+	 */
+	public XMLEvent rewrite(XMLEvent event) {
+		if (null == pattern) {
+			return event;
+		}
+		if (event.isStartElement()) {
+			StartElement start = event.asStartElement();
+			List<Attribute> attributes = new ArrayList<Attribute>();
+			boolean changed = false;
+			Iterator<?> iterator = start.getAttributes();
+			while (iterator.hasNext()) {
+				Attribute attribute = (Attribute) iterator.next();
+				String original = attribute.getValue();
+				String value = rewrite(original);
+				if (value != original) {
+					changed = true;
+					attribute = eventFactory.get().createAttribute(attribute.getName(), value);
+				}
+				attributes.add(attribute);
+			}
+			if (!changed) {
+				return event;
+			}
+			QName name = start.getName();
+			return eventFactory.get().createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+					attributes.iterator(), start.getNamespaces(), start.getNamespaceContext());
+		}
+		if (event.isCharacters()) {
+			Characters characters = event.asCharacters();
+			if (characters.isWhiteSpace()) {
+				return event;
+			}
+			String original = characters.getData();
+			String text = rewrite(original);
+			if (text == original) {
+				return event;
+			}
+			return characters.isCData() ? eventFactory.get().createCData(text) : eventFactory.get().createCharacters(text);
+		}
+		return event;
+	}
+
+	/**
+	 * Wrap an event reader, so that its events are rewritten as they are read.
+	 */
+	public XMLEventReader wrap(XMLEventReader reader) {
+		return new EventReaderDelegate(reader) {
+			public XMLEvent nextEvent() throws XMLStreamException {
+				return rewrite(super.nextEvent());
+			}
+
+			public Object next() {
+				return rewrite((XMLEvent) super.next());
+			}
+
+			public XMLEvent peek() throws XMLStreamException {
+				XMLEvent event = super.peek();
+				return null == event ? null : rewrite(event);
+			}
+		};
+	}
+}
@@ -0,0 +1,199 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A DXL input that can be read as a stream, possibly more than once (e.g. to validate it before importing).
+ * Supported inputs are plain <code>.dxl</code> files, gzip-compressed files (<code>.dxl.gz</code>) and the
+ * <code>.dxl</code> entries of a <code>.zip</code> archive.  Compressed inputs are decompressed while they are read,
+ * so no expanded copy is written to disk.
+ */
+public abstract class DXLSource {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final File file;
+
+	protected DXLSource(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the name of the input for messages
+	 */
+	public abstract String getName();
+
+	/**
+	 * Open the decompressed DXL.  The caller must close the stream.
+	 */
+	public abstract InputStream openStream() throws IOException;
+
+	/**
+	 * @return the file on disk.  For an archive entry, this is the archive.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return <code>true</code> if the input needs to be decompressed, so it can't be read by a lotus.domino Stream
+	 */
+	public boolean isCompressed() {
+		return true;
+	}
+
+	/**
+	 * Get a file next to the input to store state like checkpoints.
+	 * @param suffix  the suffix of the state file, e.g. <code>.checkpoint</code>
+	 */
+	public File getStateFile(String suffix) {
+		return new File(file.getAbsolutePath() + suffix);
+	}
+
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Check if the file name has a supported extension.
+	 */
+	public static boolean isSupported(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".dxl") || name.endsWith(".gz") || name.endsWith(".zip");
+	}
+
+	/**
+	 * Get the DXL inputs for a file.
+	 * A <code>.zip</code> archive returns its <code>.dxl</code> entries in name order.  Other files return one input.
+	 * @throws Exception if the file doesn't exist or the archive could not be read
+	 */
+	public static List<DXLSource> open(File file) throws Exception {
+		if (!file.exists()) {
+			throw new Exception("DXL file not found at:  '" + file.getAbsolutePath() + "'.");
+		}
+		List<DXLSource> sources = new ArrayList<DXLSource>();
+		if (!file.getName().toLowerCase().endsWith(".zip")) {
+			sources.add(forFile(file));
+			return sources;
+		}
+		List<String> entryNames = new ArrayList<String>();
+		ZipFile zip;
+		try {
+			zip = new ZipFile(file);
+		}
+		catch (IOException ex) {
+			throw new Exception("Could not read archive '" + file.getAbsolutePath() + "'.", ex);
+		}
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".dxl")) {
+					entryNames.add(entry.getName());
+				}
+			}
+		}
+		finally {
+			zip.close();
+		}
+		if (entryNames.isEmpty()) {
+			throw new Exception("No DXL files found in archive '" + file.getAbsolutePath() + "'.");
+		}
+		Collections.sort(entryNames);
+		for (String entryName : entryNames) {
+			sources.add(new ZipEntrySource(file, entryName));
+		}
+		return sources;
+	}
+
+	/**
+	 * Get the input for a plain or gzip-compressed file.
+	 */
+	public static DXLSource forFile(File file) {
+		if (file.getName().toLowerCase().endsWith(".gz")) {
+			return new GzipSource(file);
+		}
+		return new FileSource(file);
+	}
+
+	private static class FileSource extends DXLSource {
+		FileSource(File file) {
+			super(file);
+		}
+
+		public String getName() {
+			return file.getPath();
+		}
+
+		public InputStream openStream() throws IOException {
+			return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		}
+
+		public boolean isCompressed() {
+			return false;
+		}
+	}
+
+	private static class GzipSource extends DXLSource {
+		GzipSource(File file) {
+			super(file);
+		}
+
+		public String getName() {
+			return file.getPath();
+		}
+
+		public InputStream openStream() throws IOException {
+			return new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+		}
+	}
+
+	private static class ZipEntrySource extends DXLSource {
+		private final String entryName;
+
+		ZipEntrySource(File file, String entryName) {
+			super(file);
+			this.entryName = entryName;
+		}
+
+		public String getName() {
+			return file.getPath() + "!" + entryName;
+		}
+
+		public InputStream openStream() throws IOException {
+			final ZipFile zip = new ZipFile(file);
+			ZipEntry entry = zip.getEntry(entryName);
+			if (null == entry) {
+				zip.close();
+				throw new IOException("Entry '" + entryName + "' not found in '" + file.getAbsolutePath() + "'.");
+			}
+			// close the archive with the stream
+			return new FilterInputStream(new BufferedInputStream(zip.getInputStream(entry), BUFFER_SIZE)) {
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						zip.close();
+					}
+				}
+			};
+		}
+
+		public File getStateFile(String suffix) {
+			return new File(file.getAbsolutePath() + "." + entryName.replaceAll("[^A-Za-z0-9._-]", "_") + suffix);
+		}
+	}
+}
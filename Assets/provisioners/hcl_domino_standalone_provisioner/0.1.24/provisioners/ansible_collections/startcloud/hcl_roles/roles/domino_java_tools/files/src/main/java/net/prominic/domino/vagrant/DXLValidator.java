@@ -0,0 +1,165 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Streaming validation of a DXL file before it is imported.
+ * This checks that the file is well-formed XML, and optionally validates it against the DXL schema
+ * (e.g. <code>xmlschemas/domino_12_0.xsd</code> from the Domino program directory).
+ * The file is read with StAX, so memory use does not depend on the file size.
+ * The top-level notes are counted by type.
+ */
+public class DXLValidator {
+
+	/**
+	 * The note counts for a valid file.
+	 */
+	public static class Result {
+		/** Top-level element name to count, e.g. <code>document</code>, <code>form</code>, <code>view</code> */
+		public final Map<String, Integer> noteCounts = new TreeMap<String, Integer>();
+		public int totalNotes = 0;
+
+		void addNote(String type) {
+			Integer count = noteCounts.get(type);
+			noteCounts.put(type, null == count ? 1 : count + 1);
+			totalNotes++;
+		}
+
+		public String toString() {
+			return totalNotes + " notes " + noteCounts;
+		}
+	}
+
+	/**
+	 * Validate a DXL file.
+	 * @param dxlFile  the file to check
+	 * @param schemaFile  the DXL schema, or <code>null</code> to only check that the file is well-formed
+	 * @return the note counts
+	 * @throws Exception with the line and column of the first error
+	 */
+	public static Result validate(File dxlFile, File schemaFile) throws Exception {
+		InputStream in = new BufferedInputStream(new FileInputStream(dxlFile));
+		try {
+			return validate(in, dxlFile.getPath(), schemaFile);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Validate a DXL input, decompressing it if needed.
+	 * @see #validate(File, File)
+	 */
+	public static Result validate(DXLSource source, File schemaFile) throws Exception {
+		InputStream in = source.openStream();
+		try {
+			return validate(in, source.getName(), schemaFile);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Validate DXL from a stream.
+	 * @param in  the DXL.  This is not closed.
+	 * @param name  the name of the input for error messages
+	 * @param schemaFile  the DXL schema, or <code>null</code> to only check that the input is well-formed
+	 * @return the note counts
+	 * @throws Exception with the line and column of the first error
+	 */
+	public static Result validate(InputStream in, String name, File schemaFile) throws Exception {
+		final Result result = new Result();
+		XMLStreamReader reader = DXLChunker.createInputFactory().createXMLStreamReader(in);
+		// count the top-level notes while the reader is consumed
+		XMLStreamReader countingReader = new StreamReaderDelegate(reader) {
+			private int depth = 0;
+
+			public int next() throws XMLStreamException {
+				int event = super.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if (depth == 2) {
+						result.addNote(getLocalName());
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+				return event;
+			}
+		};
+		try {
+			if (null == schemaFile) {
+				while (countingReader.hasNext()) {
+					countingReader.next();
+				}
+			}
+			else {
+				if (!schemaFile.exists()) {
+					throw new Exception("DXL schema not found at:  '" + schemaFile.getAbsolutePath() + "'.");
+				}
+				SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+				Schema schema = schemaFactory.newSchema(schemaFile);
+				Validator validator = schema.newValidator();
+				validator.validate(new StAXSource(countingReader));
+			}
+		}
+		catch (XMLStreamException ex) {
+			throw createValidationException(name, ex);
+		}
+		catch (SAXException ex) {
+			// schema errors may be wrapped by the StAX bridge
+			throw createValidationException(name, ex);
+		}
+		finally {
+			reader.close();
+		}
+		if (result.totalNotes == 0) {
+			System.out.println("No notes found in '" + name + "'.");
+		}
+		return result;
+	}
+
+	/**
+	 * Report the innermost parser error with its line and column.
+	 */
+	private static Exception createValidationException(String name, Exception ex) {
+		Throwable cause = ex;
+		while (null != cause) {
+			if (cause instanceof SAXParseException) {
+				SAXParseException parseException = (SAXParseException) cause;
+				return new Exception("Invalid DXL in '" + name + "' at line " + parseException.getLineNumber() +
+						", column " + parseException.getColumnNumber() + ":  " + parseException.getMessage(), ex);
+			}
+			if (cause instanceof XMLStreamException && null != ((XMLStreamException) cause).getLocation() &&
+					null == cause.getCause()) {
+				Location location = ((XMLStreamException) cause).getLocation();
+				return new Exception("Invalid DXL in '" + name + "' at line " + location.getLineNumber() +
+						", column " + location.getColumnNumber() + ":  " + cause.getMessage(), ex);
+			}
+			cause = cause.getCause() == cause ? null : cause.getCause();
+		}
+		return new Exception("Invalid DXL in '" + name + "':  " + ex.getMessage(), ex);
+	}
+}
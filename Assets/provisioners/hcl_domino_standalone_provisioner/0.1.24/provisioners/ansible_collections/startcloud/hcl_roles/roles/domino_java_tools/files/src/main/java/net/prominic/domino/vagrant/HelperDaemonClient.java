@@ -0,0 +1,225 @@
+package net.prominic.domino.vagrant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Client side of {@link HelperDaemon}.
+ * The helper tools call {@link #delegate(String, String[])} at the start of main(), so that the command runs in
+ * the warm daemon when one is available.  If no daemon is running, the tool runs locally as before.
+ * Set <code>-Dhelper.daemon=false</code> to always run locally.
+ */
+public class HelperDaemonClient {
+
+	/** Returned by {@link #delegate(String, String[])} when the command should run locally */
+	public static final int NOT_DELEGATED = -1;
+
+	/** Set this system property to <code>false</code> to disable delegation */
+	public static final String ENABLED_PROPERTY = "helper.daemon";
+	/** System property to override the location of the connection file written by the daemon */
+	public static final String INFO_FILE_PROPERTY = "helper.daemon.file";
+	public static final String DEFAULT_INFO_FILE = new File(System.getProperty("user.home"), ".DominoHelperDaemon.properties").getPath();
+
+	/** System properties that are forwarded to the daemon for the duration of the command */
+	protected static final String[] FORWARDED_PROPERTIES = { "app.properties.file" };
+
+	/** Options whose values are local files or directories.  Output files may not exist yet, so these are always resolved. */
+	protected static final String[] PATH_OPTIONS = {
+		"--batch=", "--cache-dir=", "--digest-cache=", "--directory=", "--id=", "--index=", "--list=", "--manifest=",
+		"--output=", "--report=", "--results=", "--rewrite=", "--schema=", "--setup=", "--since-file=", "--targets=",
+		"--users="
+	};
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * Send the command to a running {@link HelperDaemon} and copy its output to <code>System.out</code>.
+	 * @param command  the tool name, e.g. <code>CheckDatabase</code>
+	 * @param args  the command-line arguments for the tool
+	 * @return the exit status reported by the daemon, or {@link #NOT_DELEGATED} if no daemon could be reached.
+	 */
+	public static int delegate(String command, String[] args) {
+		if ("false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY))) {
+			return NOT_DELEGATED;
+		}
+		File infoFile = getInfoFile();
+		if (!infoFile.exists()) {
+			return NOT_DELEGATED;
+		}
+		// The request includes the arguments, which may contain passwords, so only trust a file written by this user
+		if (!isTrusted(infoFile)) {
+			System.out.println("Ignoring HelperDaemon connection file '" + infoFile.getAbsolutePath() + "':  it must be owned by the current user with permissions rw-------.  Running locally.");
+			return NOT_DELEGATED;
+		}
+
+		Socket socket = new Socket();
+		try {
+			Properties info = new Properties();
+			FileInputStream fis = new FileInputStream(infoFile);
+			try {
+				info.load(fis);
+			}
+			finally {
+				fis.close();
+			}
+			int port = Integer.parseInt(info.getProperty("port", "").trim());
+
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+			System.out.println("Sending '" + command + "' to HelperDaemon on port " + port + ".");
+
+			JSONObject request = new JSONObject();
+			request.put("token", info.getProperty("token", ""));
+			request.put("command", command);
+			JSONArray requestArgs = new JSONArray();
+			for (String arg : resolveArguments(args)) {
+				requestArgs.put(arg);
+			}
+			request.put("args", requestArgs);
+			JSONObject properties = new JSONObject();
+			for (String name : FORWARDED_PROPERTIES) {
+				String value = System.getProperty(name);
+				if (null != value) {
+					properties.put(name, new File(value).getAbsolutePath());
+				}
+			}
+			request.put("properties", properties);
+
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			writer.write(request.toString());
+			writer.newLine();
+			writer.flush();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			String line = reader.readLine();
+			while (null != line) {
+				if (line.startsWith(HelperDaemon.EXIT_MARKER)) {
+					return Integer.parseInt(line.substring(HelperDaemon.EXIT_MARKER.length()).trim());
+				}
+				System.out.println(line);
+				line = reader.readLine();
+			}
+			// The daemon may have crashed in the middle of the command, so don't rerun it locally
+			System.out.println("HelperDaemon closed the connection without reporting a result.");
+			return 1;
+		}
+		catch (IOException ex) {
+			System.out.println("HelperDaemon is not reachable (" + ex.getMessage() + ").  Running locally.");
+			return NOT_DELEGATED;
+		}
+		catch (NumberFormatException ex) {
+			System.out.println("Invalid HelperDaemon connection file '" + infoFile.getAbsolutePath() + "'.  Running locally.");
+			return NOT_DELEGATED;
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Get the connection file that is written by a running {@link HelperDaemon}.
+	 */
+	public static File getInfoFile() {
+		return new File(System.getProperty(INFO_FILE_PROPERTY, DEFAULT_INFO_FILE));
+	}
+
+	/**
+	 * Check that the connection file is a regular file owned by the current user, and not readable or writable
+	 * by anyone else.
+	 */
+	protected static boolean isTrusted(File infoFile) {
+		try {
+			Path path = infoFile.toPath();
+			if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+				return false;
+			}
+			UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+			UserPrincipal currentUser = path.getFileSystem().getUserPrincipalLookupService()
+					.lookupPrincipalByName(System.getProperty("user.name"));
+			Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+			return owner.equals(currentUser) && permissions.equals(PosixFilePermissions.fromString("rw-------"));
+		}
+		catch (Exception ex) {
+			// includes file systems without POSIX permissions
+			return false;
+		}
+	}
+
+	/**
+	 * Compare two tokens in constant time.
+	 */
+	public static boolean isTokenEqual(String expected, String actual) throws IOException {
+		if (null == expected || null == actual) {
+			return false;
+		}
+		return MessageDigest.isEqual(expected.getBytes("UTF-8"), actual.getBytes("UTF-8"));
+	}
+
+	/**
+	 * The daemon does not share the working directory of the client, so convert relative paths to existing files
+	 * into absolute paths.
+	 * Database names are left alone, since they are resolved against the Domino data directory.
+	 * <code>@listFile</code> arguments and the values of <code>--option=path</code> arguments are resolved as well.
+	 * @param args  the original arguments
+	 * @return the resolved arguments
+	 */
+	protected static String[] resolveArguments(String[] args) {
+		String[] resolved = new String[args.length];
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			String option = getPathOption(arg);
+			if (null != option) {
+				String path = arg.substring(option.length());
+				if (!path.isEmpty() && !new File(path).isAbsolute()) {
+					arg = option + new File(path).getAbsolutePath();
+				}
+			}
+			else {
+				// @file arguments reference a list file
+				String prefix = arg.startsWith("@") ? "@" : "";
+				String path = arg.substring(prefix.length());
+				String lowerPath = path.toLowerCase();
+				File file = new File(path);
+				if (!file.isAbsolute() && file.exists() &&
+				    !lowerPath.endsWith(".nsf") && !lowerPath.endsWith(".ntf")) {
+					arg = prefix + file.getAbsolutePath();
+				}
+			}
+			resolved[i] = arg;
+		}
+		return resolved;
+	}
+
+	private static String getPathOption(String arg) {
+		for (String option : PATH_OPTIONS) {
+			if (arg.startsWith(option)) {
+				return option;
+			}
+		}
+		return null;
+	}
+}
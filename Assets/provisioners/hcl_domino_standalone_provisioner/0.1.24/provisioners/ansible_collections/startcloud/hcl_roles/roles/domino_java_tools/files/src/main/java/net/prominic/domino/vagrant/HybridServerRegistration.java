@@ -1,16 +1,5 @@
 package net.prominic.domino.vagrant;
 
-import com.mindoo.domino.jna.internal.Mem32;
-import com.mindoo.domino.jna.internal.Mem64;
-import com.mindoo.domino.jna.internal.NotesConstants;
-import com.mindoo.domino.jna.internal.NotesNativeAPI;
-import com.mindoo.domino.jna.internal.NotesNativeAPI32;
-import com.mindoo.domino.jna.internal.NotesNativeAPI64;
-import com.mindoo.domino.jna.internal.structs.KFM_PASSWORDStruct;
-import com.mindoo.domino.jna.utils.NotesStringUtils;
-import com.mindoo.domino.jna.utils.PlatformUtils;
-import com.sun.jna.*;
-import com.sun.jna.ptr.*;
 import lotus.domino.DateTime;
 import lotus.domino.NotesException;
 import lotus.domino.Registration;
@@ -48,87 +37,14 @@ public class HybridServerRegistration {
         entryName == null || entryName.trim().isEmpty()
       ) throw new IllegalArgumentException("Server name is required");
 
-      System.out.println("Getting certifier context from: " + certifierFile);
-
-      // Create password structure
-      Memory certPWMem = NotesStringUtils.toLMBCS(certifierPassword, true);
-      KFM_PASSWORDStruct.ByReference kfmPwd = KFM_PASSWORDStruct.newInstanceByReference();
-      NotesNativeAPI.get().SECKFMCreatePassword(certPWMem, kfmPwd);
-
-      // Convert paths to LMBCS
-      Memory certFilePathMem = NotesStringUtils.toLMBCS(certifierFile, true);
-      Memory retCertNameMem = new Memory(NotesConstants.MAXUSERNAME);
-      ShortByReference retfIsHierarchical = new ShortByReference();
-      ShortByReference retwFileVersion = new ShortByReference();
-
-      // Get certifier context based on platform
-      int result;
-      Object hKfmCertCtx = null;
-
-      if (PlatformUtils.is64Bit()) {
-        LongByReference rethKfmCertCtx = new LongByReference();
-        result =
-          NotesNativeAPI64
-            .get()
-            .SECKFMGetCertifierCtx(
-              certFilePathMem,
-              kfmPwd,
-              null, // certLogPath not needed
-              null, // expiration not needed
-              retCertNameMem,
-              rethKfmCertCtx,
-              retfIsHierarchical,
-              retwFileVersion
-            );
-
-        if (result != 0) {
-          System.out.println(
-            "Failed to get certifier context. Error: " + result
-          );
-          return false;
-        }
-
-        hKfmCertCtx = rethKfmCertCtx.getValue();
-      } else {
-        IntByReference rethKfmCertCtx = new IntByReference();
-        result =
-          NotesNativeAPI32
-            .get()
-            .SECKFMGetCertifierCtx(
-              certFilePathMem,
-              kfmPwd,
-              null, // certLogPath not needed
-              null, // expiration not needed
-              retCertNameMem,
-              rethKfmCertCtx,
-              retfIsHierarchical,
-              retwFileVersion
-            );
-
-        if (result != 0) {
-          System.out.println(
-            "Failed to get certifier context. Error: " + result
-          );
-          return false;
-        }
-
-        hKfmCertCtx = rethKfmCertCtx.getValue();
-      }
-
-      if (
-        hKfmCertCtx == null ||
-        (
-          PlatformUtils.is64Bit()
-            ? ((Long) hKfmCertCtx) == 0L
-            : ((Integer) hKfmCertCtx) == 0
-        )
-      ) {
-        throw new NotesException(
-          0,
-          "Received null handle creating a certifier context"
-        );
+      // The unlocked certifier is cached, so batched registrations only unlock it once
+      CertifierContextCache.Lease certifier = null;
+      try {
+        certifier = CertifierContextCache.acquire(certifierFile, certifierPassword);
+      } catch (NotesException e) {
+        System.out.println(e.text);
+        return false;
       }
-      Pointer certCtxPointer = null;
       try {
         // Set up registration parameters
         String serverPassword = "";
@@ -140,18 +56,9 @@ public class HybridServerRegistration {
           DirectServerRegistration.fREGCreateAddrBookEntry |
           DirectServerRegistration.fREGOkayToModifyID;
 
-        // Before calling REGNewServer, convert the handle to a Pointer
-
-        if (PlatformUtils.is64Bit()) {
-          certCtxPointer = new Pointer((Long) hKfmCertCtx);
-        } else {
-          certCtxPointer = new Pointer(((Integer) hKfmCertCtx).longValue());
-        }
-
-        // Then use this pointer in both the REGNewServer call and cleanup
-        result =
+        int result =
           NotesAPI.INSTANCE.REGNewServer(
-            certCtxPointer, // Use the converted pointer
+            certifier.getContext(),
             DirectServerRegistration.KFM_IDFILE_TYPE_STD,
             "",
             null,
@@ -180,12 +87,8 @@ public class HybridServerRegistration {
         System.out.println("Server registration completed successfully");
         return true;
       } finally {
-        // Free the certifier context
-
-        // In the finally block, use the same pointer
-        if (hKfmCertCtx != null) {
-          NotesAPI.INSTANCE.SECKFMFreeCertifierCtx(certCtxPointer);
-        }
+        // The context is freed when it is evicted from the cache
+        certifier.close();
       }
     } catch (Exception e) {
       System.out.println("Error during registration: " + e.getMessage());
@@ -0,0 +1,160 @@
+package net.prominic.domino.vagrant;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import lotus.domino.NotesException;
+import lotus.domino.View;
+import lotus.domino.ViewEntry;
+import lotus.domino.ViewNavigator;
+
+/**
+ * Streams the column values of the document entries in a view, without opening the documents.
+ * The view is read with a buffered {@link ViewNavigator}, so a large view like ($Users) is read in a
+ * few native calls per buffer instead of several calls per entry.
+ * <p>
+ * Each {@link Row} is only valid until the next call to {@link Iterator#next()}:  the previous entry is
+ * recycled automatically.  Close the reader when done to recycle the navigator and the last entry.
+ * </p>
+ */
+public class ViewColumnReader implements Iterable<ViewColumnReader.Row>, AutoCloseable {
+
+	/** The largest buffer size that ViewNavigator accepts */
+	public static final int DEFAULT_BUFFER_SIZE = 400;
+
+	/**
+	 * A document entry of the view.
+	 */
+	public static class Row {
+		private final ViewEntry entry;
+		private final Vector<?> columnValues;
+
+		private Row(ViewEntry entry, Vector<?> columnValues) {
+			this.entry = entry;
+			this.columnValues = columnValues;
+		}
+
+		/** All column values of the entry.  Multi-value columns are returned as a Vector. */
+		public Vector<?> getColumnValues() {
+			return columnValues;
+		}
+
+		/**
+		 * Get the value of the given column as a string.
+		 * @param column  the 0-based column index
+		 * @return the value, the first value of a multi-value column, or an empty string if it is missing
+		 */
+		public String getString(int column) {
+			if (column >= columnValues.size()) {
+				return "";
+			}
+			Object value = columnValues.get(column);
+			if (value instanceof Vector) {
+				Vector<?> values = (Vector<?>) value;
+				value = values.isEmpty() ? null : values.get(0);
+			}
+			return null == value ? "" : value.toString();
+		}
+
+		/** The underlying entry.  This is recycled when the iterator advances. */
+		public ViewEntry getEntry() {
+			return entry;
+		}
+	}
+
+	private final ViewNavigator navigator;
+	private ViewEntry current = null;
+	private ViewEntry next = null;
+	private boolean started = false;
+
+	/**
+	 * Create a reader with the {@link #DEFAULT_BUFFER_SIZE}.
+	 * Automatic updates are disabled on the view, so the view should be refreshed beforehand if needed.
+	 */
+	public ViewColumnReader(View view) throws NotesException {
+		this(view, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param view  the view to read
+	 * @param bufferSize  the number of entries read per native call
+	 */
+	public ViewColumnReader(View view, int bufferSize) throws NotesException {
+		view.setAutoUpdate(false);  // avoid updates in the middle of iteration
+		navigator = view.createViewNav();
+		navigator.setEntryOptions(ViewNavigator.VN_ENTRYOPT_NOCOUNTDATA);
+		navigator.setBufferMaxEntries(bufferSize);
+		// every entry is read in order, so let the navigator prefetch the whole view
+		navigator.setCacheGuidance(bufferSize, ViewNavigator.VN_CACHEGUIDANCE_READALL);
+	}
+
+	/**
+	 * The rows can only be iterated once.
+	 */
+	public Iterator<Row> iterator() {
+		return new Iterator<Row>() {
+			public boolean hasNext() {
+				try {
+					if (!started) {
+						started = true;
+						next = navigator.getFirstDocument();
+					}
+					return null != next;
+				}
+				catch (NotesException ex) {
+					throw new IllegalStateException("Could not read view entry:  " + ex.text, ex);
+				}
+			}
+
+			public Row next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					recycleCurrent();
+					current = next;
+					Row row = new Row(current, current.getColumnValues());
+					next = navigator.getNextDocument();
+					return row;
+				}
+				catch (NotesException ex) {
+					throw new IllegalStateException("Could not read view entry:  " + ex.text, ex);
+				}
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Recycle the navigator and the last entries.
+	 */
+	public void close() {
+		recycleCurrent();
+		try {
+			if (null != next) {
+				next.recycle();
+				next = null;
+			}
+			navigator.recycle();
+		}
+		catch (NotesException ex) {
+			// ignore
+		}
+	}
+
+	private void recycleCurrent() {
+		if (null != current) {
+			try {
+				current.recycle();
+			}
+			catch (NotesException ex) {
+				// ignore
+			}
+			current = null;
+		}
+	}
+}